@@ -293,7 +293,7 @@ public class Debug {
   /**
    * Clear out all the long-term debug points.
    */
-  public static void clearLongTermDebugPoints() {
+  public static synchronized void clearLongTermDebugPoints() {
     longTermDebugPoints.clear();
   }
 
@@ -302,7 +302,7 @@ public class Debug {
    *
    * @param dp  a new long-term debug point.
    */
-  public static void addLongTermDebugPoint(DebugPoint dp) {
+  public static synchronized void addLongTermDebugPoint(DebugPoint dp) {
     longTermDebugPoints.add(dp);
   }
 
@@ -318,7 +318,7 @@ public class Debug {
   /**
    * Clear out all the short-term debug points.
    */
-  public static void clearShortTermDebugPoints() {
+  public static synchronized void clearShortTermDebugPoints() {
     shortTermDebugPoints.clear();
   }
 
@@ -327,7 +327,7 @@ public class Debug {
    *
    * @param dp  a new short-term debug point
    */
-  public static void addShortTermDebugPoint(DebugPoint dp) {
+  public static synchronized void addShortTermDebugPoint(DebugPoint dp) {
     shortTermDebugPoints.add(dp);
   }
 
@@ -347,7 +347,7 @@ public class Debug {
    * @param vin the VIN number of the vehicle
    * @return the color of the vehicle
    */
-  public static Color getVehicleColor(int vin) {
+  public static synchronized Color getVehicleColor(int vin) {
     return vinToVehicleColor.get(vin);
   }
 
@@ -357,7 +357,7 @@ public class Debug {
    * @param vin   the VIN number of the vehicle
    * @param color the color of the vehicle
    */
-  public static void setVehicleColor(int vin, Color color) {
+  public static synchronized void setVehicleColor(int vin, Color color) {
     vinToVehicleColor.put(vin, color);
   }
 
@@ -366,7 +366,7 @@ public class Debug {
    *
    * @param vin the VIN number of the vehicle
    */
-  public static void removeVehicleColor(int vin) {
+  public static synchronized void removeVehicleColor(int vin) {
     vinToVehicleColor.remove(vin);
   }
 
@@ -52,10 +52,17 @@ public class SimConfig {
   public static final double TIME_STEP = 1 / CYCLES_PER_SECOND;
 
   /**
-   * The length of a time step (simulation time) in the reservation grid
-   * ({@value} seconds).
+   * The length of a time step (simulation time) in the reservation grid, in
+   * seconds.  By default it is the time step of the simulator.
+   */
+  public static double GRID_TIME_STEP = TIME_STEP;
+
+  /**
+   * The length of a step of the internal simulations by which the
+   * intersection managers find the tiles occupied by the vehicles, in
+   * seconds.  By default it is the time step of the reservation grid.
    */
-  public static final double GRID_TIME_STEP = TIME_STEP;
+  public static double INTERNAL_SIMULATION_TIME_STEP = GRID_TIME_STEP;
 
   /**
    * How often the simulator should consider spawning vehicles.
@@ -73,4 +80,50 @@ public class SimConfig {
    * MUST_STOP_BEFORE_INTERSECTION is true.
    */
   public static final double ADDITIONAL_STOP_DIST_BEFORE_INTERSECTION = 0.01;
+
+  /**
+   * The directory in which the swept footprints of the pre-made plans of the
+   * intersection managers are kept between runs.  If it is null, the
+   * footprints are simulated in every run.
+   */
+  public static String FOOTPRINT_LIBRARY_DIR = null;
+
+  /**
+   * Whether or not the intersection managers precompute the swept
+   * footprints of every velocity bucket, as many as fit in the footprint
+   * cache, rather than only simulate those that are requested.  The
+   * footprints are always precomputed when they are kept in a
+   * {@link #FOOTPRINT_LIBRARY_DIR}.
+   */
+  public static boolean FULL_FOOTPRINT_PRECOMPUTATION = false;
+
+  /**
+   * The number of threads with which the intersection managers precompute
+   * the swept footprints of their pre-made plans.  If it is one, the
+   * footprints are precomputed when each intersection manager is created;
+   * otherwise they are precomputed concurrently for all intersection
+   * managers.
+   */
+  public static int PRECOMPUTATION_THREADS = 1;
+
+  /**
+   * The number of threads with which the intersection managers evaluate the
+   * proposals of a request speculatively.  If it is one, the proposals are
+   * evaluated one by one until one of them succeeds.  Either way the first
+   * successful proposal in the order of the request is reserved.
+   */
+  public static int PROPOSAL_EVALUATION_THREADS = 1;
+
+  /**
+   * Whether or not the intersection managers use reservation grids that can
+   * be queried by many threads while reservations are being made.
+   */
+  public static boolean CONCURRENT_RESERVATION_GRID = false;
+
+  /**
+   * Whether or not the queries skip the tile checks when no movement whose
+   * trajectory conflicts with theirs, or whose tiles overlap theirs, holds
+   * a reservation around their times.
+   */
+  public static boolean MOVEMENT_PREFILTER = false;
 }
@@ -56,7 +56,8 @@ public class ConflictPointGeneratorSimple implements ConflictPointGenerator{
 	public List<Point2D> generateConflictPoints(Intersection inter, boolean restrictedTurning) {
 
 		this.inter = inter;
-		if(inter == null || map == null) {
+		//the paths are found from the roads of the intersection alone
+		if(inter == null) {
 			return null;
 		}
 		ArrayList<Road> originRoads = new ArrayList<Road>(inter.getEntryRoads());
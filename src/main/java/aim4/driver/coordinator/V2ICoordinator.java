@@ -885,6 +885,13 @@ public class V2ICoordinator implements Coordinator {
    */
   private double nextAllowedSendingRequestTime;
 
+  /**
+   * The earliest arrival time offered by the intersection manager in the
+   * latest reject message; proposals arriving before it are not sent.
+   * {@link Reject#NO_EARLIEST_ARRIVAL_TIME} if there is no such offer.
+   */
+  private double earliestArrivalTime;
+
   /**
    * The next time at which the vehicle is allowed to consider lane changing.
    */
@@ -929,6 +936,8 @@ public class V2ICoordinator implements Coordinator {
     rparameter = null;
     // We should be allowed to transmit now
     nextAllowedSendingRequestTime = vehicle.gaugeTime();
+    // The intersection manager has not made any counter-offer yet
+    earliestArrivalTime = Reject.NO_EARLIEST_ARRIVAL_TIME;
     // We should be allowed to consider lane changing now
     nextAllowedConsideringLaneChangeTime = vehicle.gaugeTime();
     // Reset our counter for the latest reservation number so that
@@ -1202,7 +1211,9 @@ public class V2ICoordinator implements Coordinator {
   private void processRejectMessageForAwaitingResponseState(Reject msg) {
     switch(msg.getReason()) {
     case NO_CLEAR_PATH:
-      // normal reason for rejection, just go back to the planning state.
+      // normal reason for rejection; remember the counter-offer, if any,
+      // and go back to the planning state.
+      earliestArrivalTime = msg.getEarliestArrivalTime();
       goBackToPlanningStateUponRejection(msg);
       break;
     case CONFIRMED_ANOTHER_REQUEST:
@@ -1551,6 +1562,11 @@ public class V2ICoordinator implements Coordinator {
       // eliminate proposals that are not valid and then return the result.
       List<Request.Proposal> proposals = new ArrayList<Request.Proposal>(n);
       for(int i = 0; i<n; i++) {
+        if (arrivalTimes.get(i) < earliestArrivalTime) {
+          // the intersection manager has told us there is no clear path
+          // before its counter-offer, so don't bother asking.
+          continue;
+        }
         if (arrivalTimes.get(i) <
             vehicle.gaugeTime() + MAXIMUM_FUTURE_RESERVATION_TIME) {
           proposals.add(
@@ -1982,6 +1998,7 @@ public class V2ICoordinator implements Coordinator {
    */
   private void setReservationParameter(Confirm msg) {
     rparameter = new ReservationParameter(msg);
+    earliestArrivalTime = Reject.NO_EARLIEST_ARRIVAL_TIME;
   }
 
   /**
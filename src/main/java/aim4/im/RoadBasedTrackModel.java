@@ -41,6 +41,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import aim4.config.Debug;
 import aim4.map.Road;
@@ -138,10 +139,10 @@ public class RoadBasedTrackModel implements TrackModel {
 
   /**
    * Memoization cache for {@link #traversalDistance(Road arrival, Road
-   * departure)}.
+   * departure)}.  It is a concurrent map since drivers may act in parallel.
    */
   private Map<List<Integer>, Double> memoTraversalDistance =
-    new HashMap<List<Integer>, Double>();
+    new ConcurrentHashMap<List<Integer>, Double>();
 
   // TODO: remove this variable
   /**
@@ -388,7 +389,8 @@ public class RoadBasedTrackModel implements TrackModel {
   public double traversalDistance(Lane arrival, Lane departure) {
     List<Integer> key = Arrays.asList(arrival.getId(),
                                       departure.getId());
-    if(!memoTraversalDistance.containsKey(key)) {
+    Double memo = memoTraversalDistance.get(key);
+    if(memo == null) {
       double totalDistance = 0;
       List<Line2D> segments =
         inIntersectionSegments(arrival, departure);
@@ -396,9 +398,10 @@ public class RoadBasedTrackModel implements TrackModel {
       for(Line2D line : segments) {
         totalDistance += line.getP1().distance(line.getP2());
       }
-      memoTraversalDistance.put(key, totalDistance);
+      memo = totalDistance;
+      memoTraversalDistance.put(key, memo);
     }
-    return memoTraversalDistance.get(key);
+    return memo;
   }
 
   /**
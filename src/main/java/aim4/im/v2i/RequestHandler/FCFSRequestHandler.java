@@ -109,7 +109,9 @@ public class FCFSRequestHandler implements RequestHandler {
       basePolicy.sendComfirmMsg(msg.getRequestId(), reserveParam);
     } else {
       basePolicy.sendRejectMsg(vin, msg.getRequestId(),
-                               Reject.Reason.NO_CLEAR_PATH);
+                               Reject.Reason.NO_CLEAR_PATH,
+                               basePolicy.findEarliestArrivalTime(
+                                 msg, filterResult.getProposals()));
     }
   }
 
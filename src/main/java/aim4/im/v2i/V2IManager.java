@@ -40,12 +40,14 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 import aim4.config.Debug;
+import aim4.config.SimConfig;
 import aim4.im.Intersection;
 import aim4.im.IntersectionManager;
 import aim4.im.TrackModel;
 import aim4.im.v2i.policy.Policy;
 import aim4.im.v2i.reservation.AczManager;
 import aim4.im.v2i.reservation.AdmissionControlZone;
+import aim4.im.v2i.reservation.ConcurrentReservationGrid;
 import aim4.im.v2i.reservation.ReservationGrid;
 import aim4.im.v2i.reservation.ReservationGridManager;
 import aim4.map.lane.Lane;
@@ -74,6 +76,15 @@ public class V2IManager extends IntersectionManager
    */
   public static final double MAXIMUM_FUTURE_RESERVATION_TIME = 10.0; // sec
 
+  /**
+   * The maximum amount of time, in seconds, between the current time and the
+   * end of a reservation, which is the furthest arrival time plus the time
+   * for traversing the intersection.  It sizes the ring buffer of the
+   * reservation grid.  {@value} seconds.
+   */
+  private static final double RESERVATION_HORIZON =
+    2 * MAXIMUM_FUTURE_RESERVATION_TIME; // sec
+
   /**
    * The default distance the IntersectionManager can transmit messages.
    * {@value} meters.
@@ -185,13 +196,8 @@ public class V2IManager extends IntersectionManager
     	this.tiledArea = new TiledArea(intersection.getArea(),
                                    config.getGranularity());
     }
-    this.reservationGrid = new ReservationGrid(tiledArea.getXNum(),
-                                               tiledArea.getYNum(),
-                                               config.getGridTimeStep());
-    this.reservationGridManager = new ReservationGridManager(config,
-                                                             intersection,
-                                                             tiledArea,
-                                                             reservationGrid);
+    this.reservationGrid = createReservationGrid();
+    this.reservationGridManager = createReservationGridManager();
     // Set up the AdmissionControlZones for the exit lanes
     for(Lane l : getIntersection().getExitLanes()) {
       // This controls how much "length" of vehicles is allowed in at once
@@ -233,13 +239,8 @@ public class V2IManager extends IntersectionManager
 	    	this.tiledArea = new TiledArea(intersection.getArea(),
 	                                   config.getGranularity());
 	    }
-	    this.reservationGrid = new ReservationGrid(tiledArea.getXNum(),
-	                                               tiledArea.getYNum(),
-	                                               config.getGridTimeStep());
-	    this.reservationGridManager = new ReservationGridManager(config,
-	                                                             intersection,
-	                                                             tiledArea,
-	                                                             reservationGrid);
+	    this.reservationGrid = createReservationGrid();
+	    this.reservationGridManager = createReservationGridManager();
   }
 
 
@@ -439,6 +440,45 @@ public class V2IManager extends IntersectionManager
     policy.processV2IMessage(msg);
   }
 
+  // reservation grid
+
+  /**
+   * Create the reservation grid of the tiled area.
+   *
+   * @return the reservation grid
+   */
+  private ReservationGrid createReservationGrid() {
+    if (config.getReservationMode() !=
+          ReservationGridManager.ReservationMode.TIME_TILES) {
+      // the time intervals are reserved elsewhere, and the grid only
+      // converts between times and discrete times
+      return new ReservationGrid(tiledArea, config.getGridTimeStep());
+    } else if (SimConfig.CONCURRENT_RESERVATION_GRID) {
+      return new ConcurrentReservationGrid(tiledArea,
+                                           config.getGridTimeStep(),
+                                           RESERVATION_HORIZON);
+    } else {
+      return new ReservationGrid(tiledArea,
+                                 config.getGridTimeStep(),
+                                 RESERVATION_HORIZON);
+    }
+  }
+
+  /**
+   * Create the reservation grid manager of the reservation grid.
+   *
+   * @return the reservation grid manager
+   */
+  private ReservationGridManager createReservationGridManager() {
+    ReservationGridManager manager =
+      new ReservationGridManager(config, intersection, tiledArea,
+                                 reservationGrid);
+    if (SimConfig.MOVEMENT_PREFILTER) {
+      manager.setTrackModel(getTrackModel());
+    }
+    return manager;
+  }
+
 
   /////////////////////////////////
   // PUBLIC METHODS
@@ -30,13 +30,19 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.im.v2i.policy;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import aim4.config.Debug;
+import aim4.config.SimConfig;
 import aim4.im.TrackModel;
 import aim4.im.v2i.V2IManager;
 import aim4.im.v2i.V2IManagerCallback;
@@ -252,6 +258,43 @@ public final class BasePolicy implements Policy, ExtendedBasePolicyCallback {
   }
 
 
+  /**
+   * A task that evaluates a proposal in the proposal pool.
+   */
+  private class ProposalTask implements Callable<ReserveParam> {
+    /** The request message */
+    private Request msg;
+    /** The proposal */
+    private Request.Proposal proposal;
+    /** Whether an earlier proposal of the request has already succeeded */
+    private AtomicBoolean isSettled;
+
+    /**
+     * Create a task that evaluates a proposal.
+     *
+     * @param msg        the request message
+     * @param proposal   the proposal
+     * @param isSettled  whether an earlier proposal of the request has
+     *                   already succeeded, in which case the proposal is
+     *                   not evaluated
+     */
+    ProposalTask(Request msg, Request.Proposal proposal,
+                 AtomicBoolean isSettled) {
+      this.msg = msg;
+      this.proposal = proposal;
+      this.isSettled = isSettled;
+    }
+
+    @Override
+    public ReserveParam call() {
+      if (isSettled.get()) {
+        return null;
+      }
+      return evaluateProposal(msg, proposal);
+    }
+  }
+
+
   /////////////////////////////////
   // PUBLIC STATIC METHODS
   /////////////////////////////////
@@ -335,6 +378,12 @@ public final class BasePolicy implements Policy, ExtendedBasePolicyCallback {
   // PRIVATE FIELDS
   /////////////////////////////////
 
+  /**
+   * The worker pool in which the proposals of a request are evaluated
+   * speculatively; shared by all policies and created on demand.
+   */
+  private static ForkJoinPool proposalPool;
+
   /**
    * The V2IManager of which this Policy is a part.
    */
@@ -503,12 +552,23 @@ public final class BasePolicy implements Policy, ExtendedBasePolicyCallback {
    */
   @Override
   public void sendRejectMsg(int vin, int latestRequestId, Reject.Reason reason){
+    sendRejectMsg(vin, latestRequestId, reason,
+                  Reject.NO_EARLIEST_ARRIVAL_TIME);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void sendRejectMsg(int vin, int latestRequestId, Reject.Reason reason,
+                            double earliestArrivalTime) {
     im.sendI2VMessage(new Reject(im.getId(),
                                  vin,
                                  latestRequestId,
                                  im.getCurrentTime(), // can re-send request
                                                       // immediately
-                                 reason));
+                                 reason,
+                                 earliestArrivalTime));
   }
 
   /**
@@ -517,18 +577,131 @@ public final class BasePolicy implements Policy, ExtendedBasePolicyCallback {
   @Override
   public ReserveParam findReserveParam(Request msg,
                                        List<Request.Proposal> proposals) {
-    int vin = msg.getVin();
+    ForkJoinPool pool = getProposalPool();
+    if (pool == null || proposals.size() <= 1) {
+      // try the proposals one by one
+      for(Request.Proposal proposal : proposals) {
+        ReserveParam reserveParam = evaluateProposal(msg, proposal);
+        if (reserveParam != null) {
+          return reserveParam;  // reservation succeeds!
+        }
+      }
+      return null;
+    }
+    // The queries do not change the reservations, so evaluate the other
+    // proposals speculatively while this thread evaluates the first one.
+    AtomicBoolean isSettled = new AtomicBoolean(false);
+    List<ForkJoinTask<ReserveParam>> tasks =
+      new ArrayList<ForkJoinTask<ReserveParam>>(proposals.size() - 1);
+    for(int i = 1; i < proposals.size(); i++) {
+      tasks.add(pool.submit(new ProposalTask(msg, proposals.get(i),
+                                             isSettled)));
+    }
+    ReserveParam reserveParam = evaluateProposal(msg, proposals.get(0));
+    // The first success in proposal order wins.  The tasks after it that
+    // have not started skip their queries, and every task is waited for,
+    // since the winner is reserved once this method returns and no query
+    // may read the reservations while they change.
+    for(ForkJoinTask<ReserveParam> task : tasks) {
+      if (reserveParam == null) {
+        reserveParam = task.join();
+      } else {
+        isSettled.set(true);
+        task.quietlyJoin();
+      }
+    }
+    return reserveParam;
+  }
 
-    // Okay, now let's actually try some of these proposals
-    Request.Proposal successfulProposal = null;
-    ReservationGridManager.Plan gridPlan = null;
-    AczManager aczManager = null;
-    AczManager.Plan aczPlan = null;
+  /**
+   * Check whether a proposal can be reserved in the reservation grid and the
+   * admission control zone of its departure lane.  Nothing is reserved.
+   *
+   * @param msg       the request message
+   * @param proposal  the proposal
+   * @return the reservation parameter; null if the proposal cannot be
+   *         reserved
+   */
+  private ReserveParam evaluateProposal(Request msg,
+                                        Request.Proposal proposal) {
+    int vin = msg.getVin();
     //A.H - replace this section with tie in for pre-calculated tile sequences
     //A.H - look at replacing sections of the ReservationGridManager query mechanism
+    ReservationGridManager.Query gridQuery =
+      new ReservationGridManager.Query(vin,
+                                       proposal.getArrivalTime(),
+                                       proposal.getArrivalVelocity(),
+                                       proposal.getArrivalLaneID(),
+                                       proposal.getDepartureLaneID(),
+                                       msg.getSpec(),
+                                       proposal.getMaximumTurnVelocity(),
+                                       true);
+    ReservationGridManager.Plan gridPlan =
+      im.getReservationGridManager().query(gridQuery,false);
+    //A.H - end tie in section
+    if (gridPlan == null) {
+      return null;
+    }
+    double stopDist =
+      VehicleUtil.calcDistanceToStop(gridPlan.getExitVelocity(),
+                                     msg.getSpec().getMaxDeceleration());
+
+    AczManager aczManager = im.getAczManager(proposal.getDepartureLaneID());
+    if (aczManager == null) {
+      System.err.printf("FCFSPolicy::processRequestMsg(): " +
+                        "aczManager should not be null.\n");
+      System.err.printf("proposal.getDepartureLaneID() = %d\n",
+                        proposal.getDepartureLaneID());
+      return null;
+    }
+    AczManager.Query aczQuery =
+      new AczManager.Query(vin,
+                           gridPlan.getExitTime(),
+                           gridPlan.getExitVelocity(),
+                           msg.getSpec().getLength(),
+                           stopDist);
+    AczManager.Plan aczPlan = aczManager.query(aczQuery,false);
+    if (aczPlan == null) {
+      return null;
+    }
+    return new ReserveParam(vin, proposal, gridPlan, aczManager, aczPlan);
+  }
+
+  /**
+   * Get the worker pool in which the proposals of a request are evaluated
+   * speculatively.  The pool is created when it is first needed, with
+   * {@link SimConfig#PROPOSAL_EVALUATION_THREADS} threads.
+   *
+   * @return the worker pool; null if the proposals should be evaluated one
+   *         by one on the calling thread
+   */
+  private static synchronized ForkJoinPool getProposalPool() {
+    if (SimConfig.PROPOSAL_EVALUATION_THREADS <= 1) {
+      return null;
+    }
+    if (proposalPool == null ||
+        proposalPool.getParallelism() !=
+          SimConfig.PROPOSAL_EVALUATION_THREADS) {
+      if (proposalPool != null) {
+        proposalPool.shutdown();
+      }
+      proposalPool = new ForkJoinPool(SimConfig.PROPOSAL_EVALUATION_THREADS);
+    }
+    return proposalPool;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public double findEarliestArrivalTime(Request msg,
+                                        List<Request.Proposal> proposals) {
+    double latestArrivalTime =
+      im.getCurrentTime() + V2IManager.MAXIMUM_FUTURE_RESERVATION_TIME;
+    double earliestArrivalTime = Reject.NO_EARLIEST_ARRIVAL_TIME;
     for(Request.Proposal proposal : proposals) {
       ReservationGridManager.Query gridQuery =
-        new ReservationGridManager.Query(vin,
+        new ReservationGridManager.Query(msg.getVin(),
                                          proposal.getArrivalTime(),
                                          proposal.getArrivalVelocity(),
                                          proposal.getArrivalLaneID(),
@@ -536,42 +709,15 @@ public final class BasePolicy implements Policy, ExtendedBasePolicyCallback {
                                          msg.getSpec(),
                                          proposal.getMaximumTurnVelocity(),
                                          true);
-      gridPlan = im.getReservationGridManager().query(gridQuery,false);
-      //A.H - end tie in section
-      if (gridPlan != null) {
-        double stopDist =
-          VehicleUtil.calcDistanceToStop(gridPlan.getExitVelocity(),
-                                         msg.getSpec().getMaxDeceleration());
-        
-        aczManager = im.getAczManager(proposal.getDepartureLaneID());
-        if (aczManager == null) {
-          System.err.printf("FCFSPolicy::processRequestMsg(): " +
-                            "aczManager should not be null.\n");
-          System.err.printf("proposal.getDepartureLaneID() = %d\n",
-                            proposal.getDepartureLaneID());
-          aczPlan = null;
-        } else {
-          AczManager.Query aczQuery =
-            new AczManager.Query(vin,
-                                 gridPlan.getExitTime(),
-                                 gridPlan.getExitVelocity(),
-                                 msg.getSpec().getLength(),
-                                 stopDist);
-          aczPlan = aczManager.query(aczQuery,false);
-          if (aczPlan != null) {
-            successfulProposal = proposal;  // reservation succeeds!
-            break;
-          }
-        }
+      double t = im.getReservationGridManager()
+                   .findEarliestArrivalTime(gridQuery, latestArrivalTime);
+      if (t >= 0.0) {
+        earliestArrivalTime = t;
+        // a later proposal can only improve on an earlier arrival time
+        latestArrivalTime = t;
       }
     }
-
-    if (successfulProposal != null) {
-      return new ReserveParam(vin, successfulProposal, gridPlan, aczManager,
-                              aczPlan);
-    } else {
-      return null;
-    }
+    return earliestArrivalTime;
   }
 
   /**
@@ -59,6 +59,18 @@ public interface BasePolicyCallback {
    */
   void sendRejectMsg(int vin, int latestRequestId, Reject.Reason reason);
 
+  /**
+   * Send a reject message with a counter-offer of the earliest arrival time
+   *
+   * @param vin                  the VIN
+   * @param latestRequestId      the latest request id of the vehicle
+   * @param reason               the reason of rejection
+   * @param earliestArrivalTime  the earliest arrival time at which a
+   *                             reservation may be possible
+   */
+  void sendRejectMsg(int vin, int latestRequestId, Reject.Reason reason,
+                     double earliestArrivalTime);
+
   /**
    * Compute the reservation parameter given the request message and a
    * set of proposals.
@@ -69,6 +81,19 @@ public interface BasePolicyCallback {
    */
   ReserveParam findReserveParam(Request msg, List<Request.Proposal> proposals);
 
+  /**
+   * Find the earliest arrival time at which one of a set of proposals could
+   * get a clear path through the intersection.
+   *
+   * @param msg        the request message
+   * @param proposals  the set of proposals
+   * @return the earliest arrival time;
+   *         {@link Reject#NO_EARLIEST_ARRIVAL_TIME} if there is none within
+   *         the reservation horizon
+   */
+  double findEarliestArrivalTime(Request msg,
+                                 List<Request.Proposal> proposals);
+
   /**
    * Get the current time
    *
@@ -172,7 +172,8 @@ public class TimeoutPolicy implements Policy, V2IManagerCallback {
                                    rejectMsg.getVin(),
                                    rejectMsg.getRequestId(),
                                    nextComm, // the new nextAllowedComm
-                                   rejectMsg.getReason()));
+                                   rejectMsg.getReason(),
+                                   rejectMsg.getEarliestArrivalTime()));
     }
   }
 
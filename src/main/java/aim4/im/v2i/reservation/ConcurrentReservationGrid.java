@@ -0,0 +1,511 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import aim4.util.TiledArea;
+
+/**
+ * A reservation grid that can be queried by many threads at once while
+ * reservations are being made.  The reserved tiles of the time slices in
+ * the ring buffer are mirrored in atomic arrays, each slice with a version
+ * stamp which is odd while the slice is being written, so that
+ * {@link #isReserved(int, int)} and {@link #isReserved(int, long[])} never
+ * take a lock.  The other operations are serialized by the lock of the
+ * grid.
+ * <p>
+ * A reservation is made optimistically: the time-tiles are checked without
+ * the lock, and the version stamps of their slices are remembered.  Under
+ * the lock, only the time-tiles whose slices have been written since are
+ * checked again before the reservation is committed, so a reservation that
+ * raced with another commit is retried rather than rejected, and is
+ * rejected only if the other commit took one of its time-tiles.
+ */
+public class ConcurrentReservationGrid extends ReservationGrid {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The version stamp recorded for a time-tile that is not mirrored.
+   */
+  private static final long UNMIRRORED = -1L;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The number of time slices that are mirrored.
+   */
+  private final int numOfSlices;
+
+  /**
+   * The number of words in a set of tile IDs.
+   */
+  private final int numOfWords;
+
+  /**
+   * The discrete time mirrored by each slice.
+   */
+  private final AtomicIntegerArray sliceTimes;
+
+  /**
+   * The version stamp of each slice; odd while the slice is being written.
+   */
+  private final AtomicLongArray sliceVersions;
+
+  /**
+   * The reserved tiles of the slices, one bit per tile, numOfWords words
+   * per slice.
+   */
+  private final AtomicLongArray occupied;
+
+  /**
+   * The first mirrored discrete time.  The slices mirror the discrete times
+   * from it up to, but not including, it plus the number of slices.
+   */
+  private int firstSliceTime;
+
+  /**
+   * The number of time-tiles that have been checked again under the lock
+   * because their slices were written after they were first checked.
+   */
+  private long numOfRevalidations;
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a concurrent reservation grid whose time slices within a given
+   * horizon are mirrored for lock-free queries.
+   *
+   * @param xNum          the number of time tiles in the x direction
+   * @param yNum          the number of time tiles in the y direction
+   * @param gridTimeStep  the time step.
+   * @param horizon       the maximum time, in seconds, between the current
+   *                      time and the end of any reservation
+   */
+  public ConcurrentReservationGrid(int xNum, int yNum, double gridTimeStep,
+                                   double horizon) {
+    super(xNum, yNum, gridTimeStep, horizon);
+    numOfSlices = getHorizon();
+    numOfWords = createTileSet().length;
+    sliceTimes = new AtomicIntegerArray(numOfSlices);
+    sliceVersions = new AtomicLongArray(numOfSlices);
+    occupied = new AtomicLongArray(numOfSlices * numOfWords);
+    firstSliceTime = 0;
+    for(int slot = 0; slot < numOfSlices; slot++) {
+      sliceTimes.set(slot, slot);
+    }
+  }
+
+  /**
+   * Create a concurrent reservation grid of the tiles of a tiled area,
+   * whose time slices within a given horizon are mirrored for lock-free
+   * queries.
+   *
+   * @param tiledArea     the tiled area
+   * @param gridTimeStep  the time step.
+   * @param horizon       the maximum time, in seconds, between the current
+   *                      time and the end of any reservation
+   */
+  public ConcurrentReservationGrid(TiledArea tiledArea, double gridTimeStep,
+                                   double horizon) {
+    super(tiledArea, gridTimeStep, horizon);
+    numOfSlices = getHorizon();
+    numOfWords = createTileSet().length;
+    sliceTimes = new AtomicIntegerArray(numOfSlices);
+    sliceVersions = new AtomicLongArray(numOfSlices);
+    occupied = new AtomicLongArray(numOfSlices * numOfWords);
+    firstSliceTime = 0;
+    for(int slot = 0; slot < numOfSlices; slot++) {
+      sliceTimes.set(slot, slot);
+    }
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  // lock-free queries
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isReserved(int dt, int tid) {
+    int slot = calcSlot(dt);
+    int index = slot * numOfWords + (tid >>> 6);
+    while(true) {
+      long version = sliceVersions.get(slot);
+      if ((version & 1L) == 0L) {
+        if (sliceTimes.get(slot) != dt) {
+          synchronized(this) {
+            return super.isReserved(dt, tid);
+          }
+        }
+        boolean isReserved = (occupied.get(index) & (1L << tid)) != 0L;
+        if (sliceVersions.get(slot) == version) {
+          return isReserved;
+        }
+      }  // else the slice is being written; try again
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isReserved(int dt, long[] tileSet) {
+    int slot = calcSlot(dt);
+    int base = slot * numOfWords;
+    while(true) {
+      long version = sliceVersions.get(slot);
+      if ((version & 1L) == 0L) {
+        if (sliceTimes.get(slot) != dt) {
+          synchronized(this) {
+            return super.isReserved(dt, tileSet);
+          }
+        }
+        boolean isReserved = false;
+        for(int i = 0; i < tileSet.length; i++) {
+          if ((occupied.get(base + i) & tileSet[i]) != 0L) {
+            isReserved = true;
+            break;
+          }
+        }
+        if (sliceVersions.get(slot) == version) {
+          return isReserved;
+        }
+      }  // else the slice is being written; try again
+    }
+  }
+
+  /**
+   * {@inheritDoc}  The coarse cells are not mirrored, so the tiles are
+   * always checked.
+   */
+  @Override
+  public boolean isReserved(int dt, long[] tileSet, long[] cellSet) {
+    return isReserved(dt, tileSet);
+  }
+
+  // reservations
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(int rid,
+                         Collection<? extends ReservationArray.TimeTile>
+                           workingList) {
+    int size = workingList.size();
+    int[] slots = new int[size];
+    long[] versions = new long[size];
+    // check the time-tiles without the lock
+    int i = 0;
+    for(ReservationArray.TimeTile tt : workingList) {
+      int dt = tt.getDiscreteTime();
+      int tid = tt.getTileId();
+      int slot = calcSlot(dt);
+      long version = sliceVersions.get(slot);
+      if ((version & 1L) != 0L || sliceTimes.get(slot) != dt) {
+        version = UNMIRRORED;  // check it under the lock
+      } else if ((occupied.get(slot * numOfWords + (tid >>> 6))
+                  & (1L << tid)) != 0L) {
+        if (sliceVersions.get(slot) == version) {
+          return false;  // the time-tile has been reserved.
+        }
+        version = UNMIRRORED;
+      }
+      slots[i] = slot;
+      versions[i] = version;
+      i++;
+    }
+    synchronized(this) {
+      // validate the time-tiles whose slices have been written since
+      i = 0;
+      for(ReservationArray.TimeTile tt : workingList) {
+        if (versions[i] == UNMIRRORED ||
+            sliceVersions.get(slots[i]) != versions[i]) {
+          numOfRevalidations++;
+          if (super.isReserved(tt.getDiscreteTime(), tt.getTileId())) {
+            return false;  // a conflicting reservation has been committed
+          }
+        }
+        i++;
+      }
+      commit(rid, workingList);
+      return true;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean cancel(int rid) {
+    return super.cancel(rid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void cleanUp(int dt) {
+    super.cleanUp(dt);
+    if (dt > firstSliceTime) {
+      // move the mirrored window forward
+      int from = Math.max(firstSliceTime, dt - numOfSlices);
+      for(int t = from; t < dt; t++) {
+        remapSlice(calcSlot(t), t + numOfSlices);
+      }
+      firstSliceTime = dt;
+    }
+  }
+
+  /**
+   * Get the number of time-tiles that have been checked again under the
+   * lock because another reservation was committed to their time slices
+   * while they were being checked.
+   *
+   * @return the number of time-tiles that have been checked again
+   */
+  public synchronized long getNumOfRevalidations() {
+    return numOfRevalidations;
+  }
+
+  // locked queries
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int findNextFreeTime(int dt, int tid) {
+    return super.findNextFreeTime(dt, tid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int findReservedRunEnd(int dt, int tid) {
+    return super.findReservedRunEnd(dt, tid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int findEarliestStartTime(int earliestDt, int latestDt,
+                                                int[] dtOffsets, int[] tids,
+                                                int size) {
+    return super.findEarliestStartTime(earliestDt, latestDt, dtOffsets, tids,
+                                       size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int getReservationId(int dt, int tid) {
+    return super.getReservationId(dt, tid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized boolean hasReservation(int rid) {
+    return super.hasReservation(rid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int getLastReservedDiscreteTime() {
+    return super.getLastReservedDiscreteTime();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized int getLastReservedDiscreteTime(int rid) {
+    return super.getLastReservedDiscreteTime(rid);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized double getLastReservedTime() {
+    return super.getLastReservedTime();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized List<Integer> getReservedTilesAtTime(int dt) {
+    return super.getReservedTilesAtTime(dt);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized List<Integer> getReservedTilesAtTime(double time) {
+    return super.getReservedTilesAtTime(time);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized Set<Integer> getVinOfReservedTilesAtTime(int dt) {
+    return super.getVinOfReservedTilesAtTime(dt);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized Set<Integer> getVinOfReservedTilesAtTime(double time) {
+    return super.getVinOfReservedTilesAtTime(time);
+  }
+
+  /////////////////////////////////
+  // PROTECTED METHODS
+  /////////////////////////////////
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void tileReserved(int dt, int tid) {
+    int slot = calcSlot(dt);
+    if (sliceTimes.get(slot) == dt) {
+      int index = slot * numOfWords + (tid >>> 6);
+      sliceVersions.incrementAndGet(slot);
+      occupied.set(index, occupied.get(index) | (1L << tid));
+      sliceVersions.incrementAndGet(slot);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void tileFreed(int dt, int tid) {
+    int slot = calcSlot(dt);
+    if (sliceTimes.get(slot) == dt) {
+      int index = slot * numOfWords + (tid >>> 6);
+      sliceVersions.incrementAndGet(slot);
+      occupied.set(index, occupied.get(index) & ~(1L << tid));
+      sliceVersions.incrementAndGet(slot);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected boolean checkConsistency() {
+    super.checkConsistency();
+    for(int slot = 0; slot < numOfSlices; slot++) {
+      int dt = sliceTimes.get(slot);
+      if ((sliceVersions.get(slot) & 1L) != 0L) {
+        throw new RuntimeException("ConcurrentReservationGrid::" +
+                                   "checkConsistency(): sliceVersions");
+      }
+      if (calcSlot(dt) != slot || dt < firstSliceTime ||
+          dt >= firstSliceTime + numOfSlices) {
+        throw new RuntimeException("ConcurrentReservationGrid::" +
+                                   "checkConsistency(): sliceTimes");
+      }
+      for(int tid = 0; tid < getNumberOfTiles(); tid++) {
+        boolean isMirrored =
+          (occupied.get(slot * numOfWords + (tid >>> 6)) & (1L << tid)) != 0L;
+        if (isMirrored != super.isReserved(dt, tid)) {
+          throw new RuntimeException("ConcurrentReservationGrid::" +
+                                     "checkConsistency(): occupied");
+        }
+      }
+    }
+    return true;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the slice of a discrete time.
+   *
+   * @param dt  the discrete time
+   * @return the slice of the discrete time
+   */
+  private int calcSlot(int dt) {
+    int slot = dt % numOfSlices;
+    return (slot < 0) ? slot + numOfSlices : slot;
+  }
+
+  /**
+   * Let a slice mirror another discrete time, copying the tiles that have
+   * already been reserved at that time.
+   *
+   * @param slot  the slice
+   * @param dt    the discrete time
+   */
+  private void remapSlice(int slot, int dt) {
+    int base = slot * numOfWords;
+    sliceVersions.incrementAndGet(slot);
+    for(int i = 0; i < numOfWords; i++) {
+      occupied.set(base + i, 0L);
+    }
+    sliceTimes.set(slot, dt);
+    for(int tid : super.getReservedTilesAtTime(dt)) {
+      int index = base + (tid >>> 6);
+      occupied.set(index, occupied.get(index) | (1L << tid));
+    }
+    sliceVersions.incrementAndGet(slot);
+  }
+}
@@ -0,0 +1,407 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import aim4.im.Intersection;
+import aim4.im.v2i.reservation.ReservationGridManager.PlanStore;
+import aim4.im.v2i.reservation.ReservationGridManager.TileTimeFrame;
+import aim4.map.lane.Lane;
+import aim4.util.TiledArea;
+import aim4.util.TiledArea.Tile;
+import aim4.vehicle.VehicleSpec;
+import aim4.vehicle.VehicleSpecDatabase;
+
+/**
+ * A library of the swept footprints of the pre-made plans of a reservation
+ * grid manager, kept in a binary file so that later runs on the same
+ * intersection need not simulate them again.  The file is named after a
+ * signature of everything the footprints depend on: the geometry of the
+ * intersection, the configuration of the reservation grid manager and the
+ * registered vehicle specifications.  A change to any of them leads to a
+ * different file, so a stale library is never loaded.
+ */
+public class FootprintLibrary {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The magic number at the beginning of a library file.
+   */
+  private static final int MAGIC = 0x41494D46;
+
+  /**
+   * The version of the file format.
+   */
+  private static final int VERSION = 2;
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The library file.
+   */
+  private File file;
+
+  /**
+   * The signature of the footprints.
+   */
+  private long signature;
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a footprint library.
+   *
+   * @param directory     the directory of the library files
+   * @param intersection  the intersection
+   * @param config        the configuration of the reservation grid manager
+   * @param tiledArea     the tiled area of the intersection
+   */
+  public FootprintLibrary(File directory,
+                          Intersection intersection,
+                          ReservationGridManager.Config config,
+                          TiledArea tiledArea) {
+    this.signature = calcSignature(intersection, config, tiledArea);
+    this.file = new File(directory,
+                         String.format("footprints-%016x.bin", signature));
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the library file.
+   *
+   * @return the library file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Get the signature of the footprints.
+   *
+   * @return the signature of the footprints
+   */
+  public long getSignature() {
+    return signature;
+  }
+
+  /**
+   * Load the footprints from the library file.
+   *
+   * @param manager  the reservation grid manager the footprints belong to
+   * @return the footprints, keyed by the ID of the vehicle specification and
+   *         then by the key of the footprint; null if the file does not
+   *         exist or cannot be read
+   */
+  public Map<Integer,Map<Long,List<TileTimeFrame>>> load(
+                                             ReservationGridManager manager) {
+    if (!file.isFile()) {
+      return null;
+    }
+    TiledArea tiledArea = manager.getTiledArea();
+    try {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        FileChannel channel = in.getChannel();
+        MappedByteBuffer buf =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION ||
+            buf.getLong() != signature) {
+          return null;
+        }
+        Map<Integer,Map<Long,List<TileTimeFrame>>> library =
+          new HashMap<Integer,Map<Long,List<TileTimeFrame>>>();
+        int numOfSpecs = buf.getInt();
+        for(int i = 0; i < numOfSpecs; i++) {
+          int specId = buf.getInt();
+          int numOfFootprints = buf.getInt();
+          Map<Long,List<TileTimeFrame>> footprints =
+            new LinkedHashMap<Long,List<TileTimeFrame>>();
+          for(int j = 0; j < numOfFootprints; j++) {
+            long key = buf.getLong();
+            int numOfFrames = buf.getInt();
+            List<TileTimeFrame> footprint =
+              new ArrayList<TileTimeFrame>(numOfFrames);
+            for(int k = 0; k < numOfFrames; k++) {
+              Point2D pos = new Point2D.Double(buf.getDouble(),
+                                               buf.getDouble());
+              double distance = buf.getDouble();
+              int numOfTiles = buf.getInt();
+              List<Tile> tiles = new ArrayList<Tile>(numOfTiles);
+              for(int m = 0; m < numOfTiles; m++) {
+                tiles.add(tiledArea.getTileById(buf.getInt()));
+              }
+              footprint.add(manager.new TileTimeFrame(pos, distance, tiles));
+            }
+            footprints.put(key, footprint);
+          }
+          library.put(specId, footprints);
+        }
+        return library;
+      } finally {
+        in.close();
+      }
+    } catch(IOException e) {
+      System.err.println("Cannot read the footprint library " + file + ": "
+                         + e.getMessage());
+      return null;
+    } catch(BufferUnderflowException e) {
+      System.err.println("The footprint library " + file + " is truncated");
+      return null;
+    }
+  }
+
+  /**
+   * Save the footprints of the pre-made plans to the library file.  The
+   * footprints are written to a temporary file first, so that a partially
+   * written library is never loaded.
+   *
+   * @param planStores  the pre-made plans, keyed by the ID of the vehicle
+   *                    specification
+   * @throws IOException if the file cannot be written
+   */
+  public void save(Map<Integer,PlanStore> planStores) throws IOException {
+    Map<Integer,Map<Long,List<TileTimeFrame>>> footprints =
+      new LinkedHashMap<Integer,Map<Long,List<TileTimeFrame>>>();
+    for(Map.Entry<Integer,PlanStore> e : planStores.entrySet()) {
+      footprints.put(e.getKey(), e.getValue().getFootprints());
+    }
+    saveFootprints(footprints);
+  }
+
+  /**
+   * Save footprints to the library file.  The footprints are written to a
+   * temporary file first, so that a partially written library is never
+   * loaded.
+   *
+   * @param library  the footprints, keyed by the ID of the vehicle
+   *                 specification and then by the key of the footprint
+   * @throws IOException if the file cannot be written
+   */
+  public void saveFootprints(Map<Integer,Map<Long,List<TileTimeFrame>>> library)
+                             throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Cannot create the directory " + dir);
+    }
+    File tmpFile = File.createTempFile("footprints", ".tmp", dir);
+    // the library may be saved in the background when the simulator exits
+    tmpFile.deleteOnExit();
+    DataOutputStream out =
+      new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(signature);
+      out.writeInt(library.size());
+      for(Map.Entry<Integer,Map<Long,List<TileTimeFrame>>> e :
+            library.entrySet()) {
+        Map<Long,List<TileTimeFrame>> footprints = e.getValue();
+        out.writeInt(e.getKey());
+        out.writeInt(footprints.size());
+        for(Map.Entry<Long,List<TileTimeFrame>> f : footprints.entrySet()) {
+          out.writeLong(f.getKey());
+          out.writeInt(f.getValue().size());
+          for(TileTimeFrame frame : f.getValue()) {
+            out.writeDouble(frame.getPosition().getX());
+            out.writeDouble(frame.getPosition().getY());
+            out.writeDouble(frame.getDistance());
+            out.writeInt(frame.getTiles().size());
+            for(Tile tile : frame.getTiles()) {
+              out.writeInt(tile.getId());
+            }
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmpFile.renameTo(file)) {
+      file.delete();
+      if (!tmpFile.renameTo(file)) {
+        tmpFile.delete();
+        throw new IOException("Cannot rename " + tmpFile + " to " + file);
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Calculate the signature of the footprints.
+   *
+   * @param intersection  the intersection
+   * @param config        the configuration of the reservation grid manager
+   * @param tiledArea     the tiled area of the intersection
+   * @return the signature
+   */
+  private static long calcSignature(Intersection intersection,
+                                    ReservationGridManager.Config config,
+                                    TiledArea tiledArea) {
+    Signature sig = new Signature();
+    sig.add(VERSION);
+    sig.add(ReservationGridManager.FOOTPRINT_VELOCITY_BUCKET_SIZE);
+    // the geometry of the intersection
+    double[] coords = new double[6];
+    for(PathIterator iter = intersection.getArea().getPathIterator(null);
+        !iter.isDone(); iter.next()) {
+      int type = iter.currentSegment(coords);
+      sig.add(type);
+      for(int i = 0; i < 6; i++) {
+        sig.add(coords[i]);
+      }
+    }
+    for(Lane lane : intersection.getEntryLanes()) {
+      sig.add(lane.getId());
+      sig.add(intersection.getEntryPoint(lane));
+      sig.add(intersection.getEntryHeading(lane));
+    }
+    for(Lane lane : intersection.getExitLanes()) {
+      sig.add(lane.getId());
+      sig.add(intersection.getExitPoint(lane));
+      sig.add(intersection.getExitHeading(lane));
+    }
+    // the configuration of the reservation grid manager
+    sig.add(config.getTimeStep());
+    sig.add(config.getGridTimeStep());
+    sig.add(config.getInternalSimulationTimeStep());
+    sig.add(config.getStaticBufferSize());
+    sig.add(config.getInternalTileTimeBufferSize());
+    sig.add(config.getEdgeTileTimeBufferSize());
+    sig.add(config.getIsEdgeTileTimeBufferEnabled() ? 1 : 0);
+    sig.add(config.getGranularity());
+    sig.add(tiledArea.getNumberOfTiles());
+    // the vehicle specifications
+    for(int i = 0; i < VehicleSpecDatabase.getNumOfSpec(); i++) {
+      VehicleSpec spec = VehicleSpecDatabase.getVehicleSpecById(i);
+      sig.add(spec.getName());
+      sig.add(spec.getMaxAcceleration());
+      sig.add(spec.getMaxDeceleration());
+      sig.add(spec.getMaxVelocity());
+      sig.add(spec.getMinVelocity());
+      sig.add(spec.getLength());
+      sig.add(spec.getWidth());
+      sig.add(spec.getFrontAxleDisplacement());
+      sig.add(spec.getRearAxleDisplacement());
+      sig.add(spec.getMaxSteeringAngle());
+      sig.add(spec.getMaxTurnPerSecond());
+    }
+    return sig.get();
+  }
+
+  /**
+   * A 64-bit FNV-1a hash of a sequence of values.
+   */
+  private static class Signature {
+    /** The hash so far */
+    private long hash = 0xcbf29ce484222325L;
+
+    /**
+     * Add a long to the hash.
+     *
+     * @param v  the value
+     */
+    void add(long v) {
+      for(int i = 0; i < 8; i++) {
+        hash ^= (v >>> (i * 8)) & 0xFF;
+        hash *= 0x100000001b3L;
+      }
+    }
+
+    /**
+     * Add a double to the hash.
+     *
+     * @param v  the value
+     */
+    void add(double v) {
+      add(Double.doubleToLongBits(v));
+    }
+
+    /**
+     * Add a point to the hash.
+     *
+     * @param p  the point
+     */
+    void add(Point2D p) {
+      add(p.getX());
+      add(p.getY());
+    }
+
+    /**
+     * Add a string to the hash.
+     *
+     * @param s  the string
+     */
+    void add(String s) {
+      add(s.length());
+      for(int i = 0; i < s.length(); i++) {
+        add(s.charAt(i));
+      }
+    }
+
+    /**
+     * Get the hash.
+     *
+     * @return the hash
+     */
+    long get() {
+      return hash;
+    }
+  }
+}
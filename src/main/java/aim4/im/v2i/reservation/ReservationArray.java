@@ -30,15 +30,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.im.v2i.reservation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -53,6 +52,11 @@ public class ReservationArray {
 
   private static final boolean SHOULD_CHECK_CONSISTENCY = false;
 
+  /**
+   * The discrete time of an unused slot in the ring buffer.
+   */
+  private static final int EMPTY_SLOT = Integer.MIN_VALUE;
+
   /////////////////////////////////
   // PUBLIC NESTED CLASSES
   /////////////////////////////////
@@ -121,6 +125,350 @@ public class ReservationArray {
   }
 
 
+  /////////////////////////////////
+  // PRIVATE NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The reservations of all tiles at a discrete time.
+   */
+  private static class Grid {
+    /**
+     * The reservation ID of each tile; -1 if the tile is not reserved.
+     */
+    final int[] rids;
+    /**
+     * The set of reserved tiles, one bit per tile.
+     */
+    final long[] occupied;
+    /**
+     * The reservation IDs that have reserved some tiles in this grid.
+     */
+    int[] ridList;
+    /**
+     * The number of tiles reserved by each reservation ID in ridList.
+     */
+    int[] ridCounts;
+    /**
+     * The number of reservation IDs in ridList.
+     */
+    int numOfRids;
+    /**
+     * The coarse cell of each tile; null if there is no coarse level.
+     */
+    final int[] tileToCell;
+    /**
+     * The number of tiles in each coarse cell.
+     */
+    final int[] cellSizes;
+    /**
+     * The number of reserved tiles in each coarse cell.
+     */
+    final int[] cellCounts;
+    /**
+     * The set of coarse cells in which some tiles are reserved, one bit per
+     * cell.
+     */
+    final long[] cellOccupied;
+    /**
+     * The set of coarse cells in which all tiles are reserved, one bit per
+     * cell.
+     */
+    final long[] cellFull;
+
+    /**
+     * Create an empty grid.
+     *
+     * @param numOfTiles  the number of tiles
+     * @param tileToCell  the coarse cell of each tile; null if there is no
+     *                    coarse level
+     * @param cellSizes   the number of tiles in each coarse cell
+     */
+    Grid(int numOfTiles, int[] tileToCell, int[] cellSizes) {
+      rids = new int[numOfTiles];
+      occupied = new long[calcNumOfWords(numOfTiles)];
+      ridList = new int[4];
+      ridCounts = new int[4];
+      this.tileToCell = tileToCell;
+      this.cellSizes = cellSizes;
+      if (tileToCell != null) {
+        cellCounts = new int[cellSizes.length];
+        cellOccupied = new long[calcNumOfWords(cellSizes.length)];
+        cellFull = new long[calcNumOfWords(cellSizes.length)];
+      } else {
+        cellCounts = null;
+        cellOccupied = null;
+        cellFull = null;
+      }
+      clear();
+    }
+
+    /**
+     * Remove all reservations in this grid.
+     */
+    void clear() {
+      Arrays.fill(rids, -1);
+      Arrays.fill(occupied, 0L);
+      numOfRids = 0;
+      if (tileToCell != null) {
+        Arrays.fill(cellCounts, 0);
+        Arrays.fill(cellOccupied, 0L);
+        Arrays.fill(cellFull, 0L);
+      }
+    }
+
+    /**
+     * Reserve a free tile.
+     *
+     * @param tid  the tile ID
+     * @param rid  the reservation ID
+     */
+    void reserve(int tid, int rid) {
+      rids[tid] = rid;
+      occupied[tid >>> 6] |= 1L << tid;
+      if (tileToCell != null) {
+        int cell = tileToCell[tid];
+        int count = ++cellCounts[cell];
+        cellOccupied[cell >>> 6] |= 1L << cell;
+        if (count == cellSizes[cell]) {
+          cellFull[cell >>> 6] |= 1L << cell;
+        }
+      }
+      for(int i = 0; i < numOfRids; i++) {
+        if (ridList[i] == rid) {
+          ridCounts[i]++;
+          return;
+        }
+      }
+      if (numOfRids == ridList.length) {
+        ridList = Arrays.copyOf(ridList, numOfRids * 2);
+        ridCounts = Arrays.copyOf(ridCounts, numOfRids * 2);
+      }
+      ridList[numOfRids] = rid;
+      ridCounts[numOfRids] = 1;
+      numOfRids++;
+    }
+
+    /**
+     * Free a tile reserved by a given reservation ID.
+     *
+     * @param tid  the tile ID
+     * @param rid  the reservation ID
+     */
+    void free(int tid, int rid) {
+      rids[tid] = -1;
+      occupied[tid >>> 6] &= ~(1L << tid);
+      if (tileToCell != null) {
+        int cell = tileToCell[tid];
+        int count = --cellCounts[cell];
+        cellFull[cell >>> 6] &= ~(1L << cell);
+        if (count == 0) {
+          cellOccupied[cell >>> 6] &= ~(1L << cell);
+        }
+      }
+      for(int i = 0; i < numOfRids; i++) {
+        if (ridList[i] == rid) {
+          if (--ridCounts[i] == 0) {
+            numOfRids--;
+            ridList[i] = ridList[numOfRids];
+            ridCounts[i] = ridCounts[numOfRids];
+          }
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * The time-tiles of a reservation, packed into parallel arrays of
+   * discrete times and tile IDs.
+   */
+  private static class Reservation {
+    /**
+     * The discrete times of the time-tiles.
+     */
+    int[] dts = new int[16];
+    /**
+     * The tile IDs of the time-tiles.
+     */
+    int[] tids = new int[16];
+    /**
+     * The number of time-tiles.
+     */
+    int size;
+    /**
+     * The last discrete time of the time-tiles.
+     */
+    int lastDt = Integer.MIN_VALUE;
+
+    /**
+     * Add a time-tile.
+     *
+     * @param dt   the discrete time
+     * @param tid  the tile ID
+     */
+    void add(int dt, int tid) {
+      if (size == dts.length) {
+        dts = Arrays.copyOf(dts, size * 2);
+        tids = Arrays.copyOf(tids, size * 2);
+      }
+      dts[size] = dt;
+      tids[size] = tid;
+      size++;
+      if (dt > lastDt) {
+        lastDt = dt;
+      }
+    }
+  }
+
+
+  /**
+   * The reserved discrete times of a tile, kept as a sorted list of
+   * disjoint runs of consecutive discrete times.  This is a secondary index
+   * of the grids which tells when a tile becomes free without visiting the
+   * grids one by one.
+   */
+  private static class TileRuns {
+    /**
+     * The first discrete times of the runs.
+     */
+    int[] starts = new int[4];
+    /**
+     * The last discrete times of the runs.
+     */
+    int[] ends = new int[4];
+    /**
+     * The index of the first run; the runs before it have been removed.
+     */
+    int head;
+    /**
+     * The number of runs.
+     */
+    int size;
+
+    /**
+     * Find the last run that starts no later than a given discrete time.
+     *
+     * @param dt  the discrete time
+     * @return the index of the run; head - 1 if there is no such run
+     */
+    int find(int dt) {
+      int lo = head;
+      int hi = head + size - 1;
+      while(lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (starts[mid] <= dt) {
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return hi;
+    }
+
+    /**
+     * Get the last discrete time of the run containing a given discrete
+     * time.
+     *
+     * @param dt  the discrete time
+     * @return the last discrete time of the run; dt - 1 if the tile is not
+     *         reserved at the discrete time
+     */
+    int findRunEnd(int dt) {
+      int i = find(dt);
+      return (i >= head && ends[i] >= dt) ? ends[i] : dt - 1;
+    }
+
+    /**
+     * Add a discrete time at which the tile is not reserved.
+     *
+     * @param dt  the discrete time
+     */
+    void add(int dt) {
+      int i = find(dt);
+      boolean joinsPrev = i >= head && ends[i] == dt - 1;
+      boolean joinsNext = i + 1 < head + size && starts[i + 1] == dt + 1;
+      if (joinsPrev && joinsNext) {
+        ends[i] = ends[i + 1];
+        removeAt(i + 1);
+      } else if (joinsPrev) {
+        ends[i] = dt;
+      } else if (joinsNext) {
+        starts[i + 1] = dt;
+      } else {
+        insertAt(i + 1, dt, dt);
+      }
+    }
+
+    /**
+     * Remove a discrete time at which the tile is reserved.
+     *
+     * @param dt  the discrete time
+     */
+    void remove(int dt) {
+      int i = find(dt);
+      assert i >= head && ends[i] >= dt;
+      if (starts[i] == dt && ends[i] == dt) {
+        removeAt(i);
+      } else if (starts[i] == dt) {
+        starts[i]++;
+      } else if (ends[i] == dt) {
+        ends[i]--;
+      } else {
+        int end = ends[i];
+        ends[i] = dt - 1;
+        insertAt(i + 1, dt + 1, end);
+      }
+    }
+
+    /**
+     * Remove the run at a given index.
+     *
+     * @param i  the index of the run
+     */
+    private void removeAt(int i) {
+      if (i == head) {
+        head++;  // the common case: the earliest run has expired
+      } else {
+        System.arraycopy(starts, i + 1, starts, i, head + size - i - 1);
+        System.arraycopy(ends, i + 1, ends, i, head + size - i - 1);
+      }
+      size--;
+    }
+
+    /**
+     * Insert a run at a given index.
+     *
+     * @param i      the index of the run
+     * @param start  the first discrete time of the run
+     * @param end    the last discrete time of the run
+     */
+    private void insertAt(int i, int start, int end) {
+      if (i == head && head > 0) {
+        i = --head;
+      } else {
+        if (head + size == starts.length) {
+          if (head > 0) {
+            // reclaim the space of the removed runs
+            System.arraycopy(starts, head, starts, 0, size);
+            System.arraycopy(ends, head, ends, 0, size);
+            i -= head;
+            head = 0;
+          } else {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+          }
+        }
+        System.arraycopy(starts, i, starts, i + 1, head + size - i);
+        System.arraycopy(ends, i, ends, i + 1, head + size - i);
+      }
+      starts[i] = start;
+      ends[i] = end;
+      size++;
+    }
+  }
+
+
   /////////////////////////////////
   // PRIVATE FIELDS
   /////////////////////////////////
@@ -131,21 +479,88 @@ public class ReservationArray {
   private final int numOfTiles;
 
   /**
-   * The grid table, a mapping from discrete times to grids.
+   * The coarse cell of each tile; null if there is no coarse level.
    */
-  private NavigableMap<Integer, int[]> grids;
+  private final int[] tileToCell;
 
   /**
-   * A mapping from discrete times to mappings from reservation IDs to
-   * the tile IDs that is reserved by the vehicle at the time.
+   * The number of tiles in each coarse cell; null if there is no coarse
+   * level.
    */
-  private NavigableMap<Integer,Map<Integer,Set<Integer>>> timeToRidToTid;
+  private final int[] cellSizes;
 
   /**
-   * A mapping from reservation IDs to mappings from discrete times to
-   * the tile IDs that is reserved by the vehicle at the time.
+   * The number of slots in the ring buffer of grids; zero if the ring
+   * buffer is not used.
    */
-  private Map<Integer,NavigableMap<Integer,Set<Integer>>> ridToTimeToTid;
+  private final int horizon;
+
+  /**
+   * The ring buffer of grids, indexed by the discrete time modulo the
+   * horizon.  The grids are allocated on demand and reused.
+   */
+  private Grid[] ring;
+
+  /**
+   * The discrete time of the grid in each slot of the ring buffer;
+   * EMPTY_SLOT if the slot is unused.
+   */
+  private int[] ringTimes;
+
+  /**
+   * The grid table, a mapping from discrete times to grids.  If the ring
+   * buffer is used, this only holds the grids whose slots are taken by
+   * the grids of other discrete times.
+   */
+  private NavigableMap<Integer,Grid> grids;
+
+  /**
+   * The number of grids.
+   */
+  private int numOfGrids;
+
+  /**
+   * The first discrete time at which there is a grid; undefined if there
+   * is no grid.
+   */
+  private int firstGridTime;
+
+  /**
+   * The last discrete time at which there is a grid; undefined if there
+   * is no grid.
+   */
+  private int lastGridTime;
+
+  /**
+   * A mapping from reservation IDs to the time-tiles of the reservations.
+   * The time-tiles of a reservation are kept until the whole reservation
+   * expires.
+   */
+  private Map<Integer,Reservation> ridToReservation;
+
+  /**
+   * The reserved discrete times of each tile, indexed by the tile ID.
+   */
+  private TileRuns[] tileRuns;
+
+  /**
+   * A binary min-heap of the expiry of the reservations, each packed as
+   * the last discrete time of a reservation in the upper 32 bits and the
+   * reservation ID in the lower 32 bits.  An entry is stale if the
+   * reservation has been cancelled or extended since the entry was added.
+   */
+  private long[] expiryHeap;
+
+  /**
+   * The number of entries in the expiry heap.
+   */
+  private int expiryHeapSize;
+
+  /**
+   * The discrete time of the last clean-up; the time-tiles before it have
+   * expired.
+   */
+  private int cleanUpTime;
 
 
   /////////////////////////////////
@@ -158,10 +573,67 @@ public class ReservationArray {
    * @param numOfTiles  The number of tiles in the intersection
    */
   public ReservationArray(int numOfTiles) {
+    this(numOfTiles, 0);
+  }
+
+  /**
+   * Create a new reservation system whose grids are kept in a ring buffer of
+   * time slices, which makes the lookup of a time-tile a constant time
+   * operation.  The horizon should cover the discrete times between two
+   * clean-ups and the furthest reservation in the future; grids that do not
+   * fit in the ring buffer are kept in a table.
+   *
+   * @param numOfTiles  The number of tiles in the intersection
+   * @param horizon     The number of time slices in the ring buffer; zero if
+   *                    the ring buffer is not used
+   */
+  public ReservationArray(int numOfTiles, int horizon) {
+    this(numOfTiles, horizon, null);
+  }
+
+  /**
+   * Create a new reservation system with a coarse level, at which the
+   * tiles are grouped into cells.  The number of reserved tiles in each
+   * cell is maintained as the tiles are reserved and freed, so that a
+   * query can skip the tiles of the cells in which no tile is reserved.
+   *
+   * @param numOfTiles  The number of tiles in the intersection
+   * @param horizon     The number of time slices in the ring buffer; zero if
+   *                    the ring buffer is not used
+   * @param tileToCell  The coarse cell of each tile, numbered from zero;
+   *                    null if there is no coarse level
+   */
+  protected ReservationArray(int numOfTiles, int horizon, int[] tileToCell) {
     this.numOfTiles = numOfTiles;
-    grids = new TreeMap<Integer, int[]>();
-    timeToRidToTid = new TreeMap<Integer,Map<Integer,Set<Integer>>>();
-    ridToTimeToTid = new HashMap<Integer,NavigableMap<Integer,Set<Integer>>>();
+    this.horizon = horizon;
+    this.tileToCell = tileToCell;
+    if (tileToCell != null) {
+      int numOfCells = 0;
+      for(int cell : tileToCell) {
+        numOfCells = Math.max(numOfCells, cell + 1);
+      }
+      cellSizes = new int[numOfCells];
+      for(int cell : tileToCell) {
+        cellSizes[cell]++;
+      }
+    } else {
+      cellSizes = null;
+    }
+    if (horizon > 0) {
+      ring = new Grid[horizon];
+      ringTimes = new int[horizon];
+      Arrays.fill(ringTimes, EMPTY_SLOT);
+    }
+    grids = new TreeMap<Integer,Grid>();
+    numOfGrids = 0;
+    ridToReservation = new HashMap<Integer,Reservation>();
+    tileRuns = new TileRuns[numOfTiles];
+    for(int tid = 0; tid < numOfTiles; tid++) {
+      tileRuns[tid] = new TileRuns();
+    }
+    expiryHeap = new long[16];
+    expiryHeapSize = 0;
+    cleanUpTime = Integer.MIN_VALUE;
   }
 
 
@@ -183,11 +655,161 @@ public class ReservationArray {
    * @param tid  the tile ID
    */
   public boolean isReserved(int dt, int tid) {
-    if (grids.containsKey(dt)) {
-      return grids.get(dt)[tid] >= 0;
-    } else {
+    Grid grid = getGrid(dt);
+    return grid != null && grid.rids[tid] >= 0;
+  }
+
+  /**
+   * Whether any tile in a set of tiles has been reserved at a given
+   * discrete time.
+   *
+   * @param dt       the discrete time
+   * @param tileSet  the set of tile IDs created by {@link #createTileSet()}
+   * @return whether any tile in the set has been reserved
+   */
+  public boolean isReserved(int dt, long[] tileSet) {
+    Grid grid = getGrid(dt);
+    return grid != null && isAnyReserved(grid, tileSet);
+  }
+
+  /**
+   * Whether any tile in a set of tiles has been reserved at a given
+   * discrete time, checking the coarse cells of the tiles first.  The tiles
+   * are not checked if none of the cells has a reserved tile, or if all the
+   * tiles of one of the cells are reserved.
+   *
+   * @param dt       the discrete time
+   * @param tileSet  the set of tile IDs created by {@link #createTileSet()}
+   * @param cellSet  the set of the coarse cells of the tiles created by
+   *                 {@link #createCellSet(long[])}; null if there is no
+   *                 coarse level
+   * @return whether any tile in the set has been reserved
+   */
+  public boolean isReserved(int dt, long[] tileSet, long[] cellSet) {
+    Grid grid = getGrid(dt);
+    if (grid == null) {
       return false;
     }
+    if (cellSet != null) {
+      boolean isPartlyOccupied = false;
+      for(int i = 0; i < cellSet.length; i++) {
+        if ((grid.cellFull[i] & cellSet[i]) != 0L) {
+          return true;
+        }
+        if ((grid.cellOccupied[i] & cellSet[i]) != 0L) {
+          isPartlyOccupied = true;
+        }
+      }
+      if (!isPartlyOccupied) {
+        return false;
+      }
+    }
+    return isAnyReserved(grid, tileSet);
+  }
+
+  /**
+   * Create an empty set of tile IDs, one bit per tile, which can be tested
+   * against the reservations with {@link #isReserved(int, long[])}.
+   *
+   * @return an empty set of tile IDs
+   */
+  public long[] createTileSet() {
+    return new long[calcNumOfWords(numOfTiles)];
+  }
+
+  /**
+   * Add a tile ID to a set of tile IDs.
+   *
+   * @param tileSet  the set of tile IDs
+   * @param tid      the tile ID
+   */
+  public static void addToTileSet(long[] tileSet, int tid) {
+    tileSet[tid >>> 6] |= 1L << tid;
+  }
+
+  /**
+   * Create the set of the coarse cells of a set of tile IDs, which can be
+   * tested against the reservations with
+   * {@link #isReserved(int, long[], long[])}.
+   *
+   * @param tileSet  the set of tile IDs created by {@link #createTileSet()}
+   * @return the set of coarse cells; null if there is no coarse level
+   */
+  public long[] createCellSet(long[] tileSet) {
+    if (tileToCell == null) {
+      return null;
+    }
+    long[] cellSet = new long[calcNumOfWords(cellSizes.length)];
+    for(int i = 0; i < tileSet.length; i++) {
+      long word = tileSet[i];
+      while(word != 0L) {
+        int tid = (i << 6) + Long.numberOfTrailingZeros(word);
+        addToTileSet(cellSet, tileToCell[tid]);
+        word &= word - 1;
+      }
+    }
+    return cellSet;
+  }
+
+  /**
+   * Find the first discrete time, no earlier than a given discrete time, at
+   * which a tile is not reserved.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   * @return the first discrete time at which the tile is free
+   */
+  public int findNextFreeTime(int dt, int tid) {
+    return tileRuns[tid].findRunEnd(dt) + 1;
+  }
+
+  /**
+   * Find the last discrete time of the run of consecutive reserved discrete
+   * times of a tile that contains a given discrete time.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   * @return the last discrete time of the reserved run; dt - 1 if the tile
+   *         is not reserved at the discrete time
+   */
+  public int findReservedRunEnd(int dt, int tid) {
+    return tileRuns[tid].findRunEnd(dt);
+  }
+
+  /**
+   * Find the earliest start time at which a set of time-tiles, given
+   * relative to the start time, can be reserved.  Whenever a time-tile is
+   * reserved, the start time jumps past the reserved run of the tile, so
+   * the search does not visit the discrete times one by one.
+   *
+   * @param earliestDt  the earliest start time
+   * @param latestDt    the latest start time
+   * @param dtOffsets   the discrete times of the time-tiles relative to the
+   *                    start time
+   * @param tids        the tile IDs of the time-tiles
+   * @param size        the number of time-tiles
+   * @return the earliest start time; -1 if there is none no later than the
+   *         latest start time
+   */
+  public int findEarliestStartTime(int earliestDt, int latestDt,
+                                   int[] dtOffsets, int[] tids, int size) {
+    int start = earliestDt;
+    // the number of time-tiles in a row known to be free at the start time
+    int numOfFree = 0;
+    for(int i = 0; numOfFree < size; i = (i + 1) % size) {
+      int dt = start + dtOffsets[i];
+      int runEnd = tileRuns[tids[i]].findRunEnd(dt);
+      if (runEnd >= dt) {
+        start += runEnd + 1 - dt;
+        if (start > latestDt) {
+          return -1;
+        }
+        numOfFree = 1;
+      } else {
+        numOfFree++;
+      }
+    }
+    return (start <= latestDt) ? start : -1;
   }
 
   /**
@@ -198,8 +820,9 @@ public class ReservationArray {
    * @return the reservation ID; -1 if the reservation ID does not exist
    */
   public int getReservationId(int dt, int tid) {
-    if (grids.containsKey(dt)) {
-      return grids.get(dt)[tid];
+    Grid grid = getGrid(dt);
+    if (grid != null) {
+      return grid.rids[tid];
     } else {
       return -1;
     }
@@ -212,7 +835,38 @@ public class ReservationArray {
    * @return whether the reservation ID exists
    */
   public boolean hasReservation(int rid) {
-    return ridToTimeToTid.containsKey(rid);
+    return ridToReservation.containsKey(rid);
+  }
+
+  /**
+   * Get the number of time slices that have been allocated, whether or not
+   * they hold reservations now.
+   *
+   * @return the number of allocated time slices
+   */
+  public int getNumOfSlices() {
+    int n = grids.size();
+    if (horizon > 0) {
+      for(Grid grid : ring) {
+        if (grid != null) {
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Get the number of time-tiles kept in the records of the reservations.
+   *
+   * @return the number of time-tiles of the reservations
+   */
+  public int getNumOfRecords() {
+    int n = 0;
+    for(Reservation reservation : ridToReservation.values()) {
+      n += reservation.size;
+    }
+    return n;
   }
 
   /**
@@ -222,11 +876,7 @@ public class ReservationArray {
    *         -1 if there is currently no reservation.
    */
   public int getLastReservedDiscreteTime() {
-    try {
-      return grids.lastKey();
-    } catch(NoSuchElementException e) {
-      return -1;
-    }
+    return (numOfGrids > 0) ? lastGridTime : -1;
   }
 
   /**
@@ -237,12 +887,9 @@ public class ReservationArray {
    *         less than zero if the reservation id does not exist
    */
   public int getLastReservedDiscreteTime(int rid) {
-    if (ridToTimeToTid.containsKey(rid)) {
-      try {
-        return ridToTimeToTid.get(rid).lastKey();
-      } catch(NoSuchElementException e) {
-        return -1;
-      }
+    Reservation reservation = ridToReservation.get(rid);
+    if (reservation != null) {
+      return reservation.lastDt;
     } else {
       return -1;
     }
@@ -260,66 +907,56 @@ public class ReservationArray {
   public boolean reserve(int rid, Collection<? extends TimeTile> workingList) {
     // check to see if any time-tile is reserved in the past
     for(TimeTile tt : workingList) {
-      int dt = tt.getDiscreteTime();
-      if (grids.containsKey(dt) && grids.get(dt)[tt.getTileId()] >= 0) {
+      if (isReserved(tt.getDiscreteTime(), tt.getTileId())) {
         return false; // the time-tile has been reserved.
       }
     }
+    commit(rid, workingList);
+    return true;
+  }
 
-    // actually make the reservation
-    int timeBegin = 0;
-    try {
-      timeBegin = grids.firstKey();
-    } catch(NoSuchElementException e) {
-      // It means the grid is empty. All time-tiles are acceptable.
-    }
+  /**
+   * Make the reservation of a set of time-tiles with a given reservation id
+   * without checking whether the time-tiles are free.  The caller must have
+   * made sure that none of the time-tiles has been reserved.
+   *
+   * @param rid          the reservation ID
+   * @param workingList  a collection of time-tiles to be reserved
+   */
+  protected void commit(int rid, Collection<? extends TimeTile> workingList) {
+    // If the grid is empty, all time-tiles are acceptable.
+    int timeBegin = (numOfGrids > 0) ? firstGridTime : 0;
 
+    Reservation reservation = ridToReservation.get(rid);
+    int oldLastDt =
+      (reservation != null) ? reservation.lastDt : Integer.MIN_VALUE;
     for(TimeTile tt : workingList) {
       int dt = tt.getDiscreteTime();
       int tid = tt.getTileId();
 
       if (dt >= timeBegin) {
         // update grids;
-        int[] grid = grids.get(dt);
+        Grid grid = getGrid(dt);
         if (grid == null) {
-          grid = new int[numOfTiles];
-          for(int i=0; i<numOfTiles; i++) { // initialize the grid
-            grid[i] = -1;
-          }
-          grids.put(dt, grid);
+          grid = createGrid(dt);
         }
-        grid[tid] = rid;
-
-        // update timeToRidToTid
-        Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-        if (ridToTid == null) {
-          ridToTid = new HashMap<Integer,Set<Integer>>();
-          timeToRidToTid.put(dt, ridToTid);
-        }
-        Set<Integer> tidSet = ridToTid.get(rid);
-        if (tidSet == null) {
-          tidSet = new HashSet<Integer>();
-          ridToTid.put(rid, tidSet);
-        }
-        tidSet.add(tid);
-
-        // update ridToTimeToTid
-        NavigableMap<Integer,Set<Integer>> timeToTid =
-          ridToTimeToTid.get(rid);
-        if (timeToTid == null) {
-          timeToTid = new TreeMap<Integer,Set<Integer>>();
-          ridToTimeToTid.put(rid, timeToTid);
-        }
-        tidSet = timeToTid.get(dt);
-        if (tidSet == null) {
-          tidSet = new HashSet<Integer>();
-          timeToTid.put(dt, tidSet);
+        if (grid.rids[tid] != rid) {  // skip the duplicated time-tiles
+          grid.reserve(tid, rid);
+          tileRuns[tid].add(dt);
+          tileReserved(dt, tid);
+          // update the reservation
+          if (reservation == null) {
+            reservation = new Reservation();
+            ridToReservation.put(rid, reservation);
+          }
+          reservation.add(dt, tid);
         }
-        tidSet.add(tid);
       }  // else ignore timetile that is before timeBegin
     }
+    if (reservation != null && reservation.lastDt != oldLastDt) {
+      addExpiry(reservation.lastDt, rid);
+    }
     assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
-    return true;
   }
 
   /**
@@ -329,20 +966,16 @@ public class ReservationArray {
    * @return whether the cancellation is successful
    */
   public boolean cancel(int rid) {
-    // remove elements in ridToTimeToTid
-    NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.remove(rid);
-    if (timeToTid != null) {
-      for(int dt : timeToTid.keySet()) {
-        // remove elements in timeToRidToTid
-        if (timeToRidToTid.containsKey(dt)) {
-          timeToRidToTid.get(dt).remove(rid);
-        }
-        // remove time-tiles in grids
-        if (grids.containsKey(dt)) {
-          int[] grid = grids.get(dt);
-          for(int tid : timeToTid.get(dt)) {
-            grid[tid] = -1;
-          }
+    Reservation reservation = ridToReservation.remove(rid);
+    if (reservation != null) {
+      // remove time-tiles in grids
+      for(int i = 0; i < reservation.size; i++) {
+        // the time-tiles that have expired may belong to new grids
+        Grid grid = getGrid(reservation.dts[i]);
+        if (grid != null && grid.rids[reservation.tids[i]] == rid) {
+          grid.free(reservation.tids[i], rid);
+          tileRuns[reservation.tids[i]].remove(reservation.dts[i]);
+          tileFreed(reservation.dts[i], reservation.tids[i]);
         }
       }
       assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
@@ -353,40 +986,29 @@ public class ReservationArray {
   }
 
   /**
-   * Remove all reservations before a given discrete time.
+   * Remove all reservations before a given discrete time.  Only the grids
+   * and the reservations that have expired since the last clean-up are
+   * visited, so this can be called at every time step.
    *
    * @param dt  the discrete time before which the reservations will be removed.
    */
   public void cleanUp(int dt) {
-    // clean up grids and timeToRidToTid
-    try {
-      while(grids.firstKey() < dt) {
-        int dt1 = grids.firstKey();
-        grids.remove(dt1);
-        timeToRidToTid.remove(dt1);
-      }
-    } catch(NoSuchElementException e) {
-      // do nothing
-    }
-
-    List<Integer> removeRid = new LinkedList<Integer>();
-    for(int rid : ridToTimeToTid.keySet()){
-      NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.get(rid);
-      try {
-        while(timeToTid.firstKey() < dt) {
-          timeToTid.remove(timeToTid.firstKey());
-        }
-      } catch(NoSuchElementException e) {
-        // do nothing
-      }
-      if (timeToTid.isEmpty()) {
-        removeRid.add(rid);
-      }
+    // clean up grids
+    while(numOfGrids > 0 && firstGridTime < dt) {
+      removeGrid(firstGridTime);
+      firstGridTime = findNextGridTime(firstGridTime + 1);
     }
 
-    for(int rid : removeRid) {
-      ridToTimeToTid.remove(rid);
+    // remove the reservations whose last time-tiles are before dt
+    while(expiryHeapSize > 0 && (int)(expiryHeap[0] >> 32) < dt) {
+      int rid = (int)expiryHeap[0];
+      removeExpiry();
+      Reservation reservation = ridToReservation.get(rid);
+      if (reservation != null && reservation.lastDt < dt) {
+        ridToReservation.remove(rid);
+      }  // else the entry is stale
     }
+    cleanUpTime = Math.max(cleanUpTime, dt);
 
     assert (!SHOULD_CHECK_CONSISTENCY) || checkConsistency();
   }
@@ -398,16 +1020,19 @@ public class ReservationArray {
    * @return the list of tile IDs that are reserved at the given discrete time.
    */
   public List<Integer> getReservedTilesAtTime(int dt) {
-    Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-    if (ridToTid != null) {
-      List<Integer> dts = new LinkedList<Integer>();
-      for(int rid : ridToTid.keySet()) {
-        dts.addAll(ridToTid.get(rid));
+    List<Integer> tids = new ArrayList<Integer>();
+    Grid grid = getGrid(dt);
+    if (grid != null) {
+      long[] occupied = grid.occupied;
+      for(int i = 0; i < occupied.length; i++) {
+        long word = occupied[i];
+        while(word != 0L) {
+          tids.add((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
       }
-      return dts;
-    } else {
-      return new LinkedList<Integer>(); // return an empty list
     }
+    return tids;
   }
 
   /**
@@ -417,12 +1042,251 @@ public class ReservationArray {
    * @return a set of reservation IDs.
    */
   public Set<Integer> getVinOfReservedTilesAtTime(int dt) {
-    Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-    if (ridToTid != null) {
-      return Collections.unmodifiableSet(ridToTid.keySet());
+    Set<Integer> rids = new HashSet<Integer>();
+    Grid grid = getGrid(dt);
+    if (grid != null) {
+      for(int i = 0; i < grid.numOfRids; i++) {
+        rids.add(grid.ridList[i]);
+      }
+    }
+    return rids;
+  }
+
+
+  /////////////////////////////////
+  // PROTECTED METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of time slices in the ring buffer.
+   *
+   * @return the number of time slices in the ring buffer; zero if the ring
+   *         buffer is not used
+   */
+  protected int getHorizon() {
+    return horizon;
+  }
+
+  /**
+   * Called whenever a tile becomes reserved at a discrete time.  Subclasses
+   * can override this to keep their own view of the reservations.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   */
+  protected void tileReserved(int dt, int tid) {
+    // do nothing
+  }
+
+  /**
+   * Called whenever a tile is no longer reserved at a discrete time, either
+   * because the reservation has been cancelled or because the time has been
+   * cleaned up.
+   *
+   * @param dt   the discrete time
+   * @param tid  the tile ID
+   */
+  protected void tileFreed(int dt, int tid) {
+    // do nothing
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of words needed for a set of tile IDs.
+   *
+   * @param numOfTiles  the number of tiles
+   * @return the number of words
+   */
+  private static int calcNumOfWords(int numOfTiles) {
+    return (numOfTiles + 63) >>> 6;
+  }
+
+  /**
+   * Whether any tile in a set of tiles has been reserved in a grid.
+   *
+   * @param grid     the grid
+   * @param tileSet  the set of tile IDs
+   * @return whether any tile in the set has been reserved
+   */
+  private static boolean isAnyReserved(Grid grid, long[] tileSet) {
+    long[] occupied = grid.occupied;
+    for(int i = 0; i < tileSet.length; i++) {
+      if ((occupied[i] & tileSet[i]) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the slot of a discrete time in the ring buffer.
+   *
+   * @param dt  the discrete time
+   * @return the slot of the discrete time
+   */
+  private int calcSlot(int dt) {
+    int slot = dt % horizon;
+    return (slot < 0) ? slot + horizon : slot;
+  }
+
+  /**
+   * Get the grid at a given discrete time.
+   *
+   * @param dt  the discrete time
+   * @return the grid; null if there is no grid at the discrete time
+   */
+  private Grid getGrid(int dt) {
+    if (horizon > 0) {
+      int slot = calcSlot(dt);
+      if (ringTimes[slot] == dt) {
+        return ring[slot];
+      }
+      if (grids.isEmpty()) {
+        return null;
+      }
+    }
+    return grids.get(dt);
+  }
+
+  /**
+   * Create an empty grid at a given discrete time at which there is no grid.
+   *
+   * @param dt  the discrete time
+   * @return the grid
+   */
+  private Grid createGrid(int dt) {
+    Grid grid;
+    if (horizon > 0 && ringTimes[calcSlot(dt)] == EMPTY_SLOT) {
+      int slot = calcSlot(dt);
+      if (ring[slot] == null) {
+        ring[slot] = new Grid(numOfTiles, tileToCell, cellSizes);
+      } else {
+        ring[slot].clear();
+      }
+      grid = ring[slot];
+      ringTimes[slot] = dt;
     } else {
-      return new HashSet<Integer>(); // return an empty list
+      grid = new Grid(numOfTiles, tileToCell, cellSizes);
+      grids.put(dt, grid);
     }
+    if (numOfGrids == 0) {
+      firstGridTime = dt;
+      lastGridTime = dt;
+    } else {
+      firstGridTime = Math.min(firstGridTime, dt);
+      lastGridTime = Math.max(lastGridTime, dt);
+    }
+    numOfGrids++;
+    return grid;
+  }
+
+  /**
+   * Remove the grid at a given discrete time.
+   *
+   * @param dt  the discrete time
+   */
+  private void removeGrid(int dt) {
+    Grid grid = getGrid(dt);
+    if (grid == null) {
+      return;
+    }
+    // remove the reserved tiles from the index
+    long[] occupied = grid.occupied;
+    for(int i = 0; i < occupied.length; i++) {
+      long word = occupied[i];
+      while(word != 0L) {
+        int tid = (i << 6) + Long.numberOfTrailingZeros(word);
+        tileRuns[tid].remove(dt);
+        tileFreed(dt, tid);
+        word &= word - 1;
+      }
+    }
+    if (horizon > 0) {
+      int slot = calcSlot(dt);
+      if (ringTimes[slot] == dt) {
+        ringTimes[slot] = EMPTY_SLOT;
+        numOfGrids--;
+        return;
+      }
+    }
+    if (grids.remove(dt) != null) {
+      numOfGrids--;
+    }
+  }
+
+  /**
+   * Add the expiry of a reservation to the expiry heap.
+   *
+   * @param lastDt  the last discrete time of the reservation
+   * @param rid     the reservation ID
+   */
+  private void addExpiry(int lastDt, int rid) {
+    if (expiryHeapSize == expiryHeap.length) {
+      expiryHeap = Arrays.copyOf(expiryHeap, expiryHeapSize * 2);
+    }
+    long entry = ((long)lastDt << 32) | (rid & 0xFFFFFFFFL);
+    int i = expiryHeapSize++;
+    while(i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (expiryHeap[parent] <= entry) {
+        break;
+      }
+      expiryHeap[i] = expiryHeap[parent];
+      i = parent;
+    }
+    expiryHeap[i] = entry;
+  }
+
+  /**
+   * Remove the earliest expiry from the expiry heap.
+   */
+  private void removeExpiry() {
+    long entry = expiryHeap[--expiryHeapSize];
+    int i = 0;
+    while(true) {
+      int child = 2 * i + 1;
+      if (child >= expiryHeapSize) {
+        break;
+      }
+      if (child + 1 < expiryHeapSize &&
+          expiryHeap[child + 1] < expiryHeap[child]) {
+        child++;
+      }
+      if (entry <= expiryHeap[child]) {
+        break;
+      }
+      expiryHeap[i] = expiryHeap[child];
+      i = child;
+    }
+    expiryHeap[i] = entry;
+  }
+
+  /**
+   * Find the first discrete time, no earlier than a given discrete time, at
+   * which there is a grid.
+   *
+   * @param dt  the discrete time
+   * @return the first discrete time at which there is a grid; undefined if
+   *         there is no grid
+   */
+  private int findNextGridTime(int dt) {
+    if (numOfGrids == 0) {
+      return dt;
+    }
+    Integer nextTableTime = grids.ceilingKey(dt);
+    int last = (nextTableTime != null) ? nextTableTime : lastGridTime;
+    if (horizon > 0) {
+      for(int t = dt; t < last; t++) {
+        if (ringTimes[calcSlot(t)] == t) {
+          return t;
+        }
+      }
+    }
+    return last;
   }
 
 
@@ -432,55 +1296,93 @@ public class ReservationArray {
 
   /**
    * Check whether the array are consistent
+   *
+   * @return true; a RuntimeException is thrown if the array is inconsistent
    */
-  private boolean checkConsistency() {
-    for(int dt : grids.keySet()) {
-      int[] tids = grids.get(dt);
+  protected boolean checkConsistency() {
+    int count = 0;
+    int numOfTimeTiles = 0;
+    for(int dt = firstGridTime; numOfGrids > 0 && dt <= lastGridTime; dt++) {
+      Grid grid = getGrid(dt);
+      if (grid == null) {
+        continue;
+      }
+      count++;
+      int reserved = 0;
       for(int tid=0; tid < numOfTiles; tid++) {
-        int rid = tids[tid];
+        int rid = grid.rids[tid];
+        if ((rid >= 0) != ((grid.occupied[tid >>> 6] & (1L << tid)) != 0L)) {
+          throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                     "grids > occupied");
+        }
+        if ((rid >= 0) != (tileRuns[tid].findRunEnd(dt) >= dt)) {
+          throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                     "grids > tileRuns");
+        }
         if (rid >= 0) {
-          assert timeToRidToTid.get(dt) != null;
-          assert timeToRidToTid.get(dt).get(rid) != null;
-          if (!timeToRidToTid.get(dt).get(rid).contains(tid)) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                       "grids > timeToRidToTid");
-          }
-          assert ridToTimeToTid.get(rid) != null;
-          assert ridToTimeToTid.get(rid).get(dt) != null;
-          if (!ridToTimeToTid.get(rid).get(dt).contains(tid)) {
+          reserved++;
+          numOfTimeTiles++;
+          if (!ridToReservation.containsKey(rid)) {
             throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                       "grids > ridToTimeToTid");
+                                       "grids > ridToReservation");
           }
         }
       }
-    }
-
-    for(int dt : timeToRidToTid.keySet()) {
-      Map<Integer,Set<Integer>> ridToTid = timeToRidToTid.get(dt);
-      for(int rid : ridToTid.keySet()) {
-        for(int tid : ridToTid.get(rid)) {
-          if (grids.get(dt)[tid] != rid) {
+      for(int i = 0; i < grid.numOfRids; i++) {
+        reserved -= grid.ridCounts[i];
+      }
+      if (reserved != 0) {
+        throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                   "grids > ridCounts");
+      }
+      if (tileToCell != null) {
+        int[] cellCounts = new int[cellSizes.length];
+        for(int tid=0; tid < numOfTiles; tid++) {
+          if (grid.rids[tid] >= 0) {
+            cellCounts[tileToCell[tid]]++;
+          }
+        }
+        for(int cell = 0; cell < cellSizes.length; cell++) {
+          long bit = 1L << cell;
+          if (cellCounts[cell] != grid.cellCounts[cell] ||
+              (cellCounts[cell] > 0) !=
+                ((grid.cellOccupied[cell >>> 6] & bit) != 0L) ||
+              (cellCounts[cell] == cellSizes[cell]) !=
+                ((grid.cellFull[cell >>> 6] & bit) != 0L)) {
             throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                        "timeToRidToTid > grids");
-
+                                       "grids > cellCounts");
           }
         }
       }
     }
+    if (count != numOfGrids) {
+      throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                 "numOfGrids");
+    }
 
-    for(int rid : ridToTimeToTid.keySet()) {
-      NavigableMap<Integer,Set<Integer>> timeToTid = ridToTimeToTid.get(rid);
-      for(int dt : timeToTid.keySet()) {
-        for(int tid : timeToTid.get(dt)) {
-          if (grids.get(dt)[tid] != rid) {
-            throw new RuntimeException("ReservationArray::checkConsistency():" +
-                                        "ridToTimeToTid > grids");
+    for(TileRuns runs : tileRuns) {
+      for(int i = runs.head; i < runs.head + runs.size; i++) {
+        numOfTimeTiles -= runs.ends[i] - runs.starts[i] + 1;
+      }
+    }
+    if (numOfTimeTiles != 0) {
+      throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                 "tileRuns > grids");
+    }
 
-          }
+    for(int rid : ridToReservation.keySet()) {
+      Reservation reservation = ridToReservation.get(rid);
+      for(int i = 0; i < reservation.size; i++) {
+        if (reservation.dts[i] < cleanUpTime) {
+          continue;  // the time-tile has expired
+        }
+        Grid grid = getGrid(reservation.dts[i]);
+        if (grid == null || grid.rids[reservation.tids[i]] != rid) {
+          throw new RuntimeException("ReservationArray::checkConsistency():" +
+                                     "ridToReservation > grids");
         }
       }
     }
     return true;
   }
 }
-
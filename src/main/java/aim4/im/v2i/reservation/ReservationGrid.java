@@ -30,10 +30,13 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package aim4.im.v2i.reservation;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
 import aim4.config.Constants;
+import aim4.util.TiledArea;
+import aim4.util.TiledArea.Tile;
 
 /**
  * The reservation grid.
@@ -45,10 +48,16 @@ public class ReservationGrid extends ReservationArray {
   /////////////////////////////////
 
   /**
-   * The period of time between two clean up of the tile reservation
-   * tables.
+   * The number of time slices in the ring buffer in addition to those
+   * needed for the horizon.
    */
-  private static final int TILE_RESERVATION_TABLE_CLEAN_UP_PERIOD = 30;
+  private static final int RING_BUFFER_SLACK = 30;
+
+  /**
+   * The number of time tiles along each side of a coarse cell, by which
+   * the queries skip the time tiles of the empty parts of the grid.
+   */
+  public static final int COARSE_CELL_SIZE = 4;
 
   /////////////////////////////////
   // NESTED CLASSES
@@ -113,19 +122,76 @@ public class ReservationGrid extends ReservationArray {
   /////////////////////////////////
 
   /**
-   * Create a reservation grid.
+   * Create a reservation grid whose time tiles are numbered row by row,
+   * as by {@link #calcTileId(int, int)}.
    *
    * @param xNum          the number of time tiles in the x direction
    * @param yNum          the number of time tiles in the y direction
    * @param gridTimeStep  the time step.
    */
   public ReservationGrid(int xNum, int yNum, double gridTimeStep) {
-    super(xNum * yNum);
+    super(xNum * yNum, 0, calcTileToCell(xNum, yNum));
     this.xNum = xNum;
     this.yNum = yNum;
     this.gridTimeStep = gridTimeStep;
   }
 
+  /**
+   * Create a reservation grid whose time slices are kept in a ring buffer
+   * long enough for the reservations within a given horizon.  The time
+   * tiles are numbered row by row, as by {@link #calcTileId(int, int)}.
+   *
+   * @param xNum          the number of time tiles in the x direction
+   * @param yNum          the number of time tiles in the y direction
+   * @param gridTimeStep  the time step.
+   * @param horizon       the maximum time, in seconds, between the current
+   *                      time and the end of any reservation
+   */
+  public ReservationGrid(int xNum, int yNum, double gridTimeStep,
+                         double horizon) {
+    super(xNum * yNum, (int) Math.ceil(horizon / gridTimeStep)
+                       + RING_BUFFER_SLACK,
+          calcTileToCell(xNum, yNum));
+    this.xNum = xNum;
+    this.yNum = yNum;
+    this.gridTimeStep = gridTimeStep;
+  }
+
+  /**
+   * Create a reservation grid of the tiles of a tiled area without a ring
+   * buffer, whose time slices are allocated only when they are reserved.
+   * The time tiles have the IDs of the tiles.
+   *
+   * @param tiledArea     the tiled area
+   * @param gridTimeStep  the time step.
+   */
+  public ReservationGrid(TiledArea tiledArea, double gridTimeStep) {
+    super(tiledArea.getNumberOfTiles(), 0, calcTileToCell(tiledArea));
+    this.xNum = tiledArea.getXNum();
+    this.yNum = tiledArea.getYNum();
+    this.gridTimeStep = gridTimeStep;
+  }
+
+  /**
+   * Create a reservation grid of the tiles of a tiled area, whose time
+   * slices are kept in a ring buffer long enough for the reservations
+   * within a given horizon.  The time tiles have the IDs of the tiles.
+   *
+   * @param tiledArea     the tiled area
+   * @param gridTimeStep  the time step.
+   * @param horizon       the maximum time, in seconds, between the current
+   *                      time and the end of any reservation
+   */
+  public ReservationGrid(TiledArea tiledArea, double gridTimeStep,
+                         double horizon) {
+    super(tiledArea.getNumberOfTiles(),
+          (int) Math.ceil(horizon / gridTimeStep) + RING_BUFFER_SLACK,
+          calcTileToCell(tiledArea));
+    this.xNum = tiledArea.getXNum();
+    this.yNum = tiledArea.getYNum();
+    this.gridTimeStep = gridTimeStep;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -136,11 +202,8 @@ public class ReservationGrid extends ReservationArray {
    * @param currentTime the current time
    */
   public void cleanUp(double currentTime) {
-    // clean up
-    int currentDiscreteTime = calcDiscreteTime(currentTime);
-    if (currentDiscreteTime % TILE_RESERVATION_TABLE_CLEAN_UP_PERIOD == 0) {
-      cleanUp(currentDiscreteTime);
-    }
+    // the clean up only retires what has expired, so do it at every step
+    cleanUp(calcDiscreteTime(currentTime));
   }
 
   /**
@@ -283,4 +346,62 @@ public class ReservationGrid extends ReservationArray {
     return super.getVinOfReservedTilesAtTime(calcDiscreteTime(time));
   }
 
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Group the time tiles into square coarse cells of
+   * {@link #COARSE_CELL_SIZE} time tiles along each side.
+   *
+   * @param xNum  the number of time tiles in the x direction
+   * @param yNum  the number of time tiles in the y direction
+   * @return the coarse cell of each time tile
+   */
+  private static int[] calcTileToCell(int xNum, int yNum) {
+    int cellXNum = (xNum + COARSE_CELL_SIZE - 1) / COARSE_CELL_SIZE;
+    int[] tileToCell = new int[xNum * yNum];
+    for(int tid = 0; tid < tileToCell.length; tid++) {
+      int cellX = (tid % xNum) / COARSE_CELL_SIZE;
+      int cellY = (tid / xNum) / COARSE_CELL_SIZE;
+      tileToCell[tid] = cellX + cellY * cellXNum;
+    }
+    return tileToCell;
+  }
+
+  /**
+   * Group the tiles of a tiled area into square coarse cells of
+   * {@link #COARSE_CELL_SIZE} tiles along each side, by the coordinates of
+   * the tiles.  The tiled area numbers only the tiles that intersect its
+   * area, column by column, so the cells that hold some of these tiles are
+   * numbered compactly, in the order of their first tiles, and no cell is
+   * empty.
+   *
+   * @param tiledArea  the tiled area
+   * @return the coarse cell of each tile
+   */
+  private static int[] calcTileToCell(TiledArea tiledArea) {
+    int cellXNum =
+      (tiledArea.getXNum() + COARSE_CELL_SIZE - 1) / COARSE_CELL_SIZE;
+    int cellYNum =
+      (tiledArea.getYNum() + COARSE_CELL_SIZE - 1) / COARSE_CELL_SIZE;
+    // the compact number of each cell of the bounding box; -1 if none
+    int[] cellNumbers = new int[cellXNum * cellYNum];
+    Arrays.fill(cellNumbers, -1);
+    int numOfCells = 0;
+    int[] tileToCell = new int[tiledArea.getNumberOfTiles()];
+    for(int tid = 0; tid < tileToCell.length; tid++) {
+      Tile tile = tiledArea.getTileById(tid);
+      int cellX = tile.getX() / COARSE_CELL_SIZE;
+      int cellY = tile.getY() / COARSE_CELL_SIZE;
+      int cell = cellX + cellY * cellXNum;
+      if (cellNumbers[cell] < 0) {
+        cellNumbers[cell] = numOfCells++;
+      }
+      tileToCell[tid] = cellNumbers[cell];
+    }
+    return tileToCell;
+  }
+
 }
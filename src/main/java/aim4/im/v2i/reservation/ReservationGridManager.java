@@ -35,20 +35,35 @@ import java.awt.geom.Area;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import aim4.config.Constants;
 import aim4.config.Debug;
+import aim4.config.SimConfig;
+import aim4.conflictPoint.ConflictPointGeneratorSimple;
 import aim4.driver.CrashTestDummy;
 import aim4.driver.Driver;
 import aim4.im.Intersection;
+import aim4.im.TrackModel;
 import aim4.im.v2i.reservation.ReservationGrid.TimeTile;
 import aim4.map.Road;
 import aim4.map.lane.Lane;
@@ -70,10 +85,67 @@ public class ReservationGridManager implements
                        ReservationGridManager.Plan,
                        Integer> {
 
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The width, in meters per second, of the arrival velocity buckets by
+   * which the swept footprints are cached.
+   */
+  public static final double FOOTPRINT_VELOCITY_BUCKET_SIZE = 1.0;
+
+  /**
+   * The maximum number of swept footprints cached for each vehicle
+   * specification on top of the precomputed ones.  The least recently used
+   * footprint is evicted first.
+   */
+  public static final int FOOTPRINT_CACHE_CAPACITY = 2048;
+
+  /**
+   * The half width, in meters, of the square around a conflict point by
+   * which the tiles that cover the point are found.
+   */
+  private static final double CONFLICT_POINT_MARGIN = 0.01;
+
+  /**
+   * The sine of the smallest angle at which two paths must cross to make a
+   * conflict point.  The paths that merge at smaller angles are kept apart
+   * by the conflict points at which the lanes exit the intersection.
+   */
+  private static final double MIN_CROSSING_ANGLE_SINE = 0.25;
+
+  /**
+   * The length, in seconds, of the time windows by which the active
+   * movements are indexed.
+   */
+  private static final double MOVEMENT_WINDOW_SIZE = 1.0;
+
   /////////////////////////////////
   // NESTED CLASSES
   /////////////////////////////////
 
+  /**
+   * What the reservation grid manager reserves for a vehicle.
+   */
+  public static enum ReservationMode {
+    /**
+     * The tiles covered by the vehicle at the discrete time steps of the
+     * reservation grid.
+     */
+    TIME_TILES,
+    /**
+     * The tiles covered by the vehicle for time intervals in continuous
+     * time.
+     */
+    CONTINUOUS_TIME,
+    /**
+     * Time intervals in continuous time at the conflict points of the
+     * intersection only.
+     */
+    CONFLICT_POINTS
+  }
+
   /**
    * The configuration of the reservation grid manager.
    */
@@ -86,6 +158,10 @@ public class ReservationGridManager implements
      * The length of a discrete time step in the grid
      */
     private double gridTimeStep;
+    /**
+     * The length of a step of the internal simulation
+     */
+    private double internalSimulationTimeStep;
     /**
      * The size of the static buffer, in meters, used by this policy.
      */
@@ -106,12 +182,42 @@ public class ReservationGridManager implements
      * The granularity.
      */
     private double granularity;
+    /**
+     * What is reserved for a vehicle.
+     */
+    private ReservationMode reservationMode;
+
+    /**
+     * Create a configuration object.  The internal simulation advances by
+     * the grid time step.
+     *
+     * @param timeStep The simulation time step 
+     * @param gridTimeStep The length of a descrete time step in the grid
+     * @param staticBufferSize
+     * @param internalTileTimeBufferSize
+     * @param edgeTileTimeBufferSize
+     * @param isEdgeTileTimeBufferEnabled
+     * @param granularity The Granularity of the reservation grid
+     */
+    public Config(double timeStep,
+                  double gridTimeStep,
+                  double staticBufferSize,
+                  double internalTileTimeBufferSize,
+                  double edgeTileTimeBufferSize,
+                  boolean isEdgeTileTimeBufferEnabled,
+                  double granularity) {
+      this(timeStep, gridTimeStep, gridTimeStep, staticBufferSize,
+           internalTileTimeBufferSize, edgeTileTimeBufferSize,
+           isEdgeTileTimeBufferEnabled, granularity);
+    }
 
     /**
      * Create a configuration object.
      *
      * @param timeStep The simulation time step 
      * @param gridTimeStep The length of a descrete time step in the grid
+     * @param internalSimulationTimeStep The length of a step of the
+     *                                   internal simulation
      * @param staticBufferSize
      * @param internalTileTimeBufferSize
      * @param edgeTileTimeBufferSize
@@ -120,18 +226,50 @@ public class ReservationGridManager implements
      */
     public Config(double timeStep,
                   double gridTimeStep,
+                  double internalSimulationTimeStep,
                   double staticBufferSize,
                   double internalTileTimeBufferSize,
                   double edgeTileTimeBufferSize,
                   boolean isEdgeTileTimeBufferEnabled,
                   double granularity) {
+      this(timeStep, gridTimeStep, internalSimulationTimeStep,
+           staticBufferSize, internalTileTimeBufferSize,
+           edgeTileTimeBufferSize, isEdgeTileTimeBufferEnabled, granularity,
+           ReservationMode.TIME_TILES);
+    }
+
+    /**
+     * Create a configuration object.
+     *
+     * @param timeStep The simulation time step 
+     * @param gridTimeStep The length of a descrete time step in the grid
+     * @param internalSimulationTimeStep The length of a step of the
+     *                                   internal simulation
+     * @param staticBufferSize
+     * @param internalTileTimeBufferSize
+     * @param edgeTileTimeBufferSize
+     * @param isEdgeTileTimeBufferEnabled
+     * @param granularity The Granularity of the reservation grid
+     * @param reservationMode What is reserved for a vehicle
+     */
+    public Config(double timeStep,
+                  double gridTimeStep,
+                  double internalSimulationTimeStep,
+                  double staticBufferSize,
+                  double internalTileTimeBufferSize,
+                  double edgeTileTimeBufferSize,
+                  boolean isEdgeTileTimeBufferEnabled,
+                  double granularity,
+                  ReservationMode reservationMode) {
       this.timeStep = timeStep;
       this.gridTimeStep = gridTimeStep;
+      this.internalSimulationTimeStep = internalSimulationTimeStep;
       this.staticBufferSize = staticBufferSize;
       this.internalTileTimeBufferSize = internalTileTimeBufferSize;
       this.edgeTileTimeBufferSize = edgeTileTimeBufferSize;
       this.isEdgeTileTimeBufferEnabled = isEdgeTileTimeBufferEnabled;
       this.granularity = granularity;
+      this.reservationMode = reservationMode;
     }
 
     /**
@@ -152,6 +290,15 @@ public class ReservationGridManager implements
       return gridTimeStep;
     }
 
+    /**
+     * Get the time step of the internal simulation.
+     *
+     * @return the time step of the internal simulation
+     */
+    public double getInternalSimulationTimeStep() {
+      return internalSimulationTimeStep;
+    }
+
     /**
      * Get the static buffer size.
      *
@@ -196,6 +343,15 @@ public class ReservationGridManager implements
     public double getGranularity() {
       return granularity;
     }
+
+    /**
+     * Get what is reserved for a vehicle.
+     *
+     * @return the reservation mode
+     */
+    public ReservationMode getReservationMode() {
+      return reservationMode;
+    }
   }
 
   /**
@@ -340,6 +496,12 @@ public class ReservationGridManager implements
 	
 	private List<TileTimeFrame> tileList;
 
+    /**
+     * The time intervals reserved in continuous time; null if the time
+     * tiles are reserved in the reservation grid.
+     */
+    private ReservationIntervals.IntervalList intervalList;
+
     /**
      * Create the plan for the reservation.
      *
@@ -419,6 +581,16 @@ public class ReservationGridManager implements
       return workingList;
     }
 
+    /**
+     * Get the time intervals reserved in continuous time.
+     *
+     * @return the time intervals; null if the time tiles are reserved in
+     *         the reservation grid
+     */
+    public ReservationIntervals.IntervalList getIntervalList() {
+      return intervalList;
+    }
+
     /**
      * Get the acceleration profile.
      *
@@ -541,6 +713,44 @@ public class ReservationGridManager implements
     }
 
   }
+  /**
+   * The key of a swept footprint in the cache of a pre-made plan.  The key
+   * is mutable so that looking up the cache does not allocate one; the keys
+   * of the entries in the cache are never changed.
+   */
+  private static final class FootprintKey {
+    /** The packed key */
+    private long value;
+
+    /**
+     * Create a key.
+     *
+     * @param value  the packed key, see
+     *               {@link ReservationGridManager#calcFootprintKey(int, int,
+     *               int, boolean)}
+     */
+    FootprintKey(long value) {
+      this.value = value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return (int) (value ^ (value >>> 32));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof FootprintKey &&
+             ((FootprintKey) obj).value == value;
+    }
+  }
+
   /**
    * stores a set of tile ids linked to a particular position
    * @author Alexander
@@ -549,6 +759,16 @@ public class ReservationGridManager implements
   public class TileTimeFrame{
 	  List<Tile> tiles;
 	  Point2D pos;
+	  /** The distance travelled along the path from the entry point */
+	  double distance;
+	  /** The tile set of the tiles with the edge tile time buffer */
+	  long[] edgeTileSet;
+	  /** The tile set of the tiles with the internal tile time buffer */
+	  long[] internalTileSet;
+	  /** The coarse cells of the tiles with the edge tile time buffer */
+	  long[] edgeCellSet;
+	  /** The coarse cells of the tiles with the internal tile time buffer */
+	  long[] internalCellSet;
 	  
 	  //constructors
 	  /**
@@ -559,6 +779,20 @@ public class ReservationGridManager implements
 	  TileTimeFrame(Point2D position, List<Tile> tiles){
 		  this.tiles = tiles;
 		  this.pos = position;
+		  initTileSets();
+	  }
+	  /**
+	   * Populates instance of TileTimeFrame
+	   * @param position
+	   * @param distance the distance travelled along the path from the entry
+	   *                 point
+	   * @param tiles
+	   */
+	  TileTimeFrame(Point2D position, double distance, List<Tile> tiles){
+		  this.tiles = tiles;
+		  this.pos = position;
+		  this.distance = distance;
+		  initTileSets();
 	  }
 	  /**
 	   * Populates instance of TileTimeFrame
@@ -569,6 +803,24 @@ public class ReservationGridManager implements
 	  TileTimeFrame(double x, double y, List<Tile> tiles){
 		  this.tiles = tiles;
 		  this.pos = new Point2D.Double(x, y);
+		  initTileSets();
+	  }
+	  /**
+	   * Pack the tiles into tile sets by the size of their time buffers, so
+	   * that a query can check them without allocating anything.
+	   */
+	  private void initTileSets(){
+		  edgeTileSet = reservationGrid.createTileSet();
+		  internalTileSet = reservationGrid.createTileSet();
+		  for(Tile tile : tiles) {
+			  if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
+				  ReservationGrid.addToTileSet(edgeTileSet, tile.getId());
+			  } else {
+				  ReservationGrid.addToTileSet(internalTileSet, tile.getId());
+			  }
+		  }
+		  edgeCellSet = reservationGrid.createCellSet(edgeTileSet);
+		  internalCellSet = reservationGrid.createCellSet(internalTileSet);
 	  }
 	  
 	  //public methods
@@ -578,6 +830,9 @@ public class ReservationGridManager implements
 	  public List<Tile> getTiles(){
 		  return tiles;
 	  }
+	  public double getDistance(){
+		  return distance;
+	  }
 	  
 	  public double getDistanceFromPoint(Point2D point){
 		  return pos.distance(point);
@@ -602,39 +857,102 @@ public class ReservationGridManager implements
 	   */
 	  public ReservationGridManager gridMgmt;
 	  /**
-	   * List of Plans created for the vehicle specification, each Plan in this list is related to a 
-	   * Query object in the {@link #queries queries list} at the same index.
+	   * The specification of the vehicle sent in requests.
 	   */
-	  public ArrayList<Plan> plans;
-	  
+	  private VehicleSpecForRequestMsg testVehicle;
+	  /**
+	   * The swept footprints of the vehicle, keyed by
+	   * {@link ReservationGridManager#calcFootprintKey(int, int, int, boolean)}
+	   * and kept in order of access, so that the least recently used one is
+	   * evicted when the cache is full.
+	   */
+	  private LinkedHashMap<FootprintKey,List<TileTimeFrame>> footprints;
+	  /**
+	   * The key with which the footprints are looked up.
+	   */
+	  private FootprintKey probeKey = new FootprintKey(0);
+	  /**
+	   * The footprints that are being simulated in the precomputation pool,
+	   * in the order in which they were submitted; null if there are none.
+	   */
+	  private LinkedHashMap<Long,ForkJoinTask<List<TileTimeFrame>>> pendingFootprints;
 	  /**
-	   * List of Queries created for the vehicle specification, each Query in this list is related to a 
-	   * Plan object in the {@link #plans plans list} at the same index.
+	   * The footprints of the other velocity buckets that are being simulated
+	   * in the precomputation pool in the background, which requests do not
+	   * wait for; null if there are none.
 	   */
-	  public ArrayList<Query> queries;
+	  private LinkedHashMap<Long,ForkJoinTask<List<TileTimeFrame>>> backgroundFootprints;
+	  /**
+	   * The number of footprints found in the cache.
+	   */
+	  private int hits;
+	  /**
+	   * The number of footprints that had to be simulated.
+	   */
+	  private int misses;
 	  
 	  /**
 	   * Create a set of generic vehicle plans for a specific combination of vehicle and intersection.
 	   * @param vehicleSpec The vehicle specification this set of generic plans is generated from
 	   * @param reservationGridManager The reservation grid manager / intersection that this set of plans is generated from
+	   * @param isFullyPrecomputed Whether the footprints of every velocity bucket are precomputed,
+	   *                           rather than simulated when they are first requested
+	   */
+	  public PlanStore(VehicleSpec vehicleSpec, ReservationGridManager reservationGridManager,
+			  boolean isFullyPrecomputed){
+		  vehicle = vehicleSpec;
+		  gridMgmt = reservationGridManager;
+		  testVehicle = new VehicleSpecForRequestMsg(vehicle);
+		  footprints = createFootprintCache();
+		  generatePlans(isFullyPrecomputed);
+	  }
+	  /**
+	   * Create a set of generic vehicle plans from footprints loaded from a
+	   * {@link FootprintLibrary}.
+	   * @param vehicleSpec The vehicle specification this set of generic plans is generated from
+	   * @param reservationGridManager The reservation grid manager / intersection that this set of plans is generated from
+	   * @param loadedFootprints The footprints of the vehicle on this intersection
 	   */
-	  public PlanStore(VehicleSpec vehicleSpec, ReservationGridManager reservationGridManager){
+	  public PlanStore(VehicleSpec vehicleSpec, ReservationGridManager reservationGridManager,
+			  Map<Long,List<TileTimeFrame>> loadedFootprints){
 		  vehicle = vehicleSpec;
 		  gridMgmt = reservationGridManager;
-		  plans = new ArrayList<Plan>();
-		  queries = new ArrayList<Query>();
-		  generatePlans();
+		  testVehicle = new VehicleSpecForRequestMsg(vehicle);
+		  footprints = createFootprintCache();
+		  for(Map.Entry<Long,List<TileTimeFrame>> e : loadedFootprints.entrySet()){
+			  footprints.put(new FootprintKey(e.getKey()), e.getValue());
+		  }
 	  }
+	/**
+	 * create an empty footprint cache that evicts the least recently used
+	 * footprint when it is full
+	 * @return the footprint cache
+	 */
+	private LinkedHashMap<FootprintKey,List<TileTimeFrame>> createFootprintCache() {
+		return new LinkedHashMap<FootprintKey,List<TileTimeFrame>>(16, 0.75f, true) {
+		      private static final long serialVersionUID = 1L;
+		      @Override
+		      protected boolean removeEldestEntry(
+		          Map.Entry<FootprintKey,List<TileTimeFrame>> eldest) {
+		        return size() > FOOTPRINT_CACHE_CAPACITY;
+		      }
+		    };
+	}
 	/**
 	 * generate a set of generic plans for this vehicle on this intersection
+	 * @param isFullyPrecomputed Whether the footprints of the velocity buckets up to the
+	 *                           maximum arrival velocity are precomputed too, as many
+	 *                           as fit in the footprint cache
 	 * @author Alexander Humphry
 	 */
-	private void generatePlans() {
-		//TODO generate plans for vehicle
-		double currentTime = gridMgmt.currentTime;
-		double maxVelocity = this.vehicle.getMaxVelocity()*0.14;
-		VehicleSpecForRequestMsg testVehicle = new VehicleSpecForRequestMsg(vehicle);
-		Query q;
+	private void generatePlans(boolean isFullyPrecomputed) {
+		ForkJoinPool pool = getPrecomputationPool();
+		if(pool != null){
+			pendingFootprints = new LinkedHashMap<Long,ForkJoinTask<List<TileTimeFrame>>>();
+		}
+		int velocityBucket =
+		  calcVelocityBucket(this.vehicle.getMaxVelocity()*0.14);
+		List<Lane[]> lanePairs = new ArrayList<Lane[]>();
 		List<Road> entryRoads = gridMgmt.intersection.getEntryRoads();
 		List<Road> exitRoads = gridMgmt.intersection.getExitRoads();
 		int turnCode = 3;
@@ -655,13 +973,46 @@ public class ReservationGridManager implements
 						if(entryRoad.getName().equals(exitRoad.getName()) && exitLane.getId() != entryLane.getId()) continue;
 						//if(!CorrectTurn(entryRoad,exitRoad,turnCode)) continue;
 						
-						q = new ReservationGridManager.Query(0, currentTime, maxVelocity, entryLane.getId(), exitLane.getId(), testVehicle, maxVelocity*1.1, false);
-						queries.add(q);
-						plans.add(gridMgmt.query(q,true));
+						lanePairs.add(new Lane[] { entryLane, exitLane });
+						long key = calcFootprintKey(entryLane.getId(), exitLane.getId(), velocityBucket, false);
+						if(pool == null){
+							footprints.put(new FootprintKey(key), simulateFootprint(entryLane, exitLane, velocityBucket, false));
+						} else {
+							pendingFootprints.put(key,
+							  pool.submit(new FootprintTask(entryLane, exitLane, velocityBucket, false)));
+						}
 					}
 				}
 			}
 		}
+		if(!isFullyPrecomputed) return;
+		// the arrival velocity is limited by the vehicle and the speed limits
+		double maxArrivalVelocity = 0.0;
+		for(Lane entryLane : gridMgmt.intersection.getEntryLanes()){
+			maxArrivalVelocity = Math.max(maxArrivalVelocity, entryLane.getSpeedLimit());
+		}
+		int maxVelocityBucket =
+		  calcVelocityBucket(Math.min(vehicle.getMaxVelocity(), maxArrivalVelocity));
+		if(pool != null){
+			backgroundFootprints = new LinkedHashMap<Long,ForkJoinTask<List<TileTimeFrame>>>();
+		}
+		// the policies request reservations that permit acceleration, so
+		// only those footprints are precomputed, and no more than the cache
+		// holds besides the footprints above
+		int room = FOOTPRINT_CACHE_CAPACITY - lanePairs.size();
+		for(int bucket = 0; bucket <= maxVelocityBucket; bucket++){
+			for(Lane[] lanePair : lanePairs){
+				if(room-- <= 0) return;
+				long key = calcFootprintKey(lanePair[0].getId(), lanePair[1].getId(), bucket, true);
+				if(pool == null){
+					footprints.put(new FootprintKey(key),
+					  simulateFootprint(lanePair[0], lanePair[1], bucket, true));
+				} else {
+					backgroundFootprints.put(key,
+					  pool.submit(new FootprintTask(lanePair[0], lanePair[1], bucket, true)));
+				}
+			}
+		}
 	}
 	private boolean CorrectTurn(Road entry, Road exit, Lane entryLane){
 		//Codes
@@ -702,19 +1053,103 @@ public class ReservationGridManager implements
 		return false;
 	}
 	/**
-	 * retrieves a plan based on an arrival and departure lane id
-	 * @author Alexander Humphry
-	 * @param arrivalLaneId
-	 * @param departureLaneId
-	 * @return
+	 * Wait for the footprints submitted to the precomputation pool and add
+	 * them to the cache, in the order in which they were submitted.
 	 */
-	private Plan getPlan(int arrivalLaneId, int departureLaneId){
-		for(Plan plan : plans){
-			if(plan.getArrivalLane().getId() == arrivalLaneId && plan.getDepartureLane().getId() == departureLaneId){
-				return plan;
+	private void awaitFootprints(){
+		if(pendingFootprints != null){
+			for(Map.Entry<Long,ForkJoinTask<List<TileTimeFrame>>> e : pendingFootprints.entrySet()){
+				footprints.put(new FootprintKey(e.getKey()), e.getValue().join());
 			}
+			pendingFootprints = null;
+		}
+	}
+	/**
+	 * Move the footprints that the background precomputation has finished
+	 * into the cache, in the order in which they were submitted, so that
+	 * the cache bounds them too.
+	 */
+	private void drainBackgroundFootprints(){
+		if(backgroundFootprints == null){
+			return;
+		}
+		Iterator<Map.Entry<Long,ForkJoinTask<List<TileTimeFrame>>>> it =
+		  backgroundFootprints.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<Long,ForkJoinTask<List<TileTimeFrame>>> e = it.next();
+			if(!e.getValue().isDone()){
+				return;
+			}
+			footprints.put(new FootprintKey(e.getKey()), e.getValue().join());
+			it.remove();
+		}
+		backgroundFootprints = null;
+	}
+	/**
+	 * Get the footprints that are being simulated in the precomputation
+	 * pool, both those that requests wait for and those in the background.
+	 * @return the tasks simulating the footprints, keyed by
+	 *         {@link ReservationGridManager#calcFootprintKey(int, int, int, boolean)}
+	 */
+	Map<Long,ForkJoinTask<List<TileTimeFrame>>> getPrecomputedFootprintTasks(){
+		Map<Long,ForkJoinTask<List<TileTimeFrame>>> result =
+		  new LinkedHashMap<Long,ForkJoinTask<List<TileTimeFrame>>>();
+		if(pendingFootprints != null){
+			result.putAll(pendingFootprints);
+		}
+		if(backgroundFootprints != null){
+			result.putAll(backgroundFootprints);
+		}
+		return result;
+	}
+	/**
+	 * A task that simulates the footprint of a pair of lanes in the
+	 * precomputation pool.
+	 */
+	private class FootprintTask implements Callable<List<TileTimeFrame>> {
+		/** The arrival lane */
+		private Lane arrivalLane;
+		/** The departure lane */
+		private Lane departureLane;
+		/** The velocity bucket */
+		private int velocityBucket;
+		/** Whether the vehicle accelerates */
+		private boolean isAccelerating;
+
+		/**
+		 * Create a task that simulates the footprint of a pair of lanes.
+		 * @param arrivalLane
+		 * @param departureLane
+		 * @param velocityBucket the velocity bucket
+		 * @param isAccelerating Whether acceleration of the vehicle over the intersection is permitted
+		 */
+		FootprintTask(Lane arrivalLane, Lane departureLane, int velocityBucket,
+				boolean isAccelerating){
+			this.arrivalLane = arrivalLane;
+			this.departureLane = departureLane;
+			this.velocityBucket = velocityBucket;
+			this.isAccelerating = isAccelerating;
+		}
+
+		@Override
+		public List<TileTimeFrame> call(){
+			return simulateFootprint(arrivalLane, departureLane, velocityBucket, isAccelerating);
 		}
-		return null;
+	}
+	/**
+	 * Drive a test vehicle through the intersection at the reference
+	 * velocity of a velocity bucket to find its swept footprint.
+	 * @param arrivalLane
+	 * @param departureLane
+	 * @param velocityBucket the velocity bucket
+	 * @param isAccelerating Whether acceleration of the vehicle over the intersection is permitted
+	 * @return the swept footprint
+	 */
+	private List<TileTimeFrame> simulateFootprint(Lane arrivalLane, Lane departureLane,
+			int velocityBucket, boolean isAccelerating){
+		double velocity = (velocityBucket + 0.5) * FOOTPRINT_VELOCITY_BUCKET_SIZE;
+		return gridMgmt.findFootprintBySimulation(testVehicle, arrivalLane, departureLane,
+				velocity, velocity*1.1, isAccelerating);
 	}
 	/**
 	   * Compute the acceleration profile.
@@ -760,96 +1195,504 @@ public class ReservationGridManager implements
 	    return accelerationProfile;
 	  }
 	/**
-	 * Retrieves a plan based on an arrival and departure lane id.
-	 * @param vin The vin of the specific reserving vehicle
-	 * @param arrivalLaneId
-	 * @param departureLaneId
-	 * @param arrivalTime
+	 * Retrieves the swept footprint for a pair of lanes and an arrival
+	 * velocity.  A footprint that is not in the cache is taken from the
+	 * background precomputation if it is done there, and simulated
+	 * otherwise; the request never waits for the background.
+	 * @param arrivalLane
+	 * @param departureLane
 	 * @param arrivalVelocity
 	 * @param isAccelerating Whether acceleration of the vehicle over the intersection is permitted
-	 * @return The relevant base plan for modification
+	 * @return The swept footprint, in order of distance
 	 */
-	public Plan retrieveCurrentPlan(int vin, int arrivalLaneId, int departureLaneId, double arrivalTime, double arrivalVelocity, boolean isAccelerating){
-		Plan basePlan = getPlan(arrivalLaneId, departureLaneId);
-		
-		return basePlan;//.getNewPlan(this.getVehicleSpec(), arrivalTime, arrivalVelocity, vin, isAccelerating);
+	public List<TileTimeFrame> retrieveFootprint(Lane arrivalLane, Lane departureLane,
+			double arrivalVelocity, boolean isAccelerating){
+		awaitFootprints();
+		drainBackgroundFootprints();
+		int velocityBucket = calcVelocityBucket(arrivalVelocity);
+		long key = calcFootprintKey(arrivalLane.getId(), departureLane.getId(),
+				velocityBucket, isAccelerating);
+		probeKey.value = key;
+		List<TileTimeFrame> footprint = footprints.get(probeKey);
+		if(footprint != null){
+			hits++;
+			return footprint;
+		}
+		ForkJoinTask<List<TileTimeFrame>> task =
+		  (backgroundFootprints == null) ? null : backgroundFootprints.remove(key);
+		if(task != null && task.isDone()){
+			hits++;
+			footprint = task.join();
+		} else {
+			misses++;
+			footprint = simulateFootprint(arrivalLane, departureLane, velocityBucket, isAccelerating);
+		}
+		footprints.put(new FootprintKey(key), footprint);
+		return footprint;
 	}
 	public VehicleSpec getVehicleSpec(){
 		return vehicle;
 	}
+	/**
+	 * Get the cached footprints, least recently used first.
+	 * @return the cached footprints, keyed by
+	 *         {@link ReservationGridManager#calcFootprintKey(int, int, int, boolean)}
+	 */
+	Map<Long,List<TileTimeFrame>> getFootprints(){
+		awaitFootprints();
+		Map<Long,List<TileTimeFrame>> result = new LinkedHashMap<Long,List<TileTimeFrame>>();
+		for(Map.Entry<FootprintKey,List<TileTimeFrame>> e : footprints.entrySet()){
+			result.put(e.getKey().value, e.getValue());
+		}
+		return result;
+	}
+	/**
+	 * Get the number of footprints found in the cache.
+	 * @return the number of cache hits
+	 */
+	public int getHits(){
+		return hits;
+	}
+	/**
+	 * Get the number of footprints that were not in the cache.
+	 * @return the number of cache misses
+	 */
+	public int getMisses(){
+		return misses;
+	}
   }
 
-
-  /////////////////////////////////
-  // PRIVATE FIELDS
-  /////////////////////////////////
-
-  // TODO: replace config with other things
-
   /**
-   * The configuration of this reservation grid manager.
+   * The index of the movements that hold reservations in each time window.
+   * A movement is a pair of an entry lane and an exit lane of the
+   * intersection, numbered densely over these pairs.  The index also
+   * keeps the envelope of each movement, the set of all the tiles that
+   * have ever been reserved for the movement.  The index is read by the
+   * queries and written by the reservations, which may happen on different
+   * threads, so its methods are synchronized.
    */
-  public Config config;
+  private static class ActiveMovements {
 
-  /**
-   * The size of the static buffer, in meters, used by this policy.
-   */
-  public double staticBufferSize;
-  /**
-   * Whether or not the edge tile time buffer is enabled.
-   */
-  private boolean isEdgeTileTimeBufferEnabled;
-  /**
-   * The size of the time buffer, in time steps, used for internal tiles.
-   */
-  private int internalTileTimeBufferSteps;
-  /**
-   * The size of the time buffer, in time steps, used for edge tiles.
-   */
-  private int edgeTileTimeBufferSteps;
-  /**
-   * The current time.
-   */
-  private double currentTime;
-  /**
-   * The intersection
-   */
-  private Intersection intersection;
-  /**
-   * The tiled area of the intersection
-   */
-  private TiledArea tiledArea;
-  /**
-   * The reservation System
-   */
-  private ReservationGrid reservationGrid;
-  /**
-   * The statistic collector
-   */
-  private StatCollector<ReservationGridManager> statCollector;
-  
-  /**
-   * a collection of pre made reservation plans for different vehicles on this reservation grid
-   */
-  private ArrayList<PlanStore> preMadePlans;
+    /**
+     * The movements that hold reservations in a time window.
+     */
+    private static class Window {
+      /** The number of reservations of each movement */
+      final int[] counts;
+      /** The movements whose counts are positive, in no particular order */
+      final int[] active;
+      /** The position of each movement in active; -1 if it is not there */
+      final int[] positions;
+      /** The number of movements in active */
+      int numOfActive;
+      /** The reservations whose last time window is this one */
+      int[] expiringRids = new int[4];
+      /** The number of reservations in expiringRids */
+      int numOfExpiringRids;
+
+      /**
+       * Create an empty time window.
+       *
+       * @param numOfMovements  the number of movements
+       */
+      Window(int numOfMovements) {
+        counts = new int[numOfMovements];
+        active = new int[numOfMovements];
+        positions = new int[numOfMovements];
+        Arrays.fill(positions, -1);
+      }
 
+      /**
+       * Add a reservation of a movement.
+       *
+       * @param movement  the movement
+       */
+      void increment(int movement) {
+        if (counts[movement]++ == 0) {
+          positions[movement] = numOfActive;
+          active[numOfActive++] = movement;
+        }
+      }
 
-  /////////////////////////////////
-  // CONSTRUCTORS
-  /////////////////////////////////
+      /**
+       * Remove a reservation of a movement.
+       *
+       * @param movement  the movement
+       */
+      void decrement(int movement) {
+        if (--counts[movement] == 0) {
+          // move the last active movement into the hole
+          int pos = positions[movement];
+          int last = active[--numOfActive];
+          active[pos] = last;
+          positions[last] = pos;
+          positions[movement] = -1;
+        }
+      }
 
-  /**
-   * Create a reservation grid manager.
-   *
-   * @param config           the configuration of the grid manager
-   * @param intersection     the intersection
-   * @param tiledArea        the tiled area
-   * @param reservationGrid  the reservation grid
-   */
-  public ReservationGridManager(Config config,
-                                Intersection intersection,
-                                TiledArea tiledArea,
-                                ReservationGrid reservationGrid) {
+      /**
+       * Add a reservation whose last time window is this one.
+       *
+       * @param rid  the reservation ID
+       */
+      void addExpiringRid(int rid) {
+        if (numOfExpiringRids == expiringRids.length) {
+          expiringRids = Arrays.copyOf(expiringRids, numOfExpiringRids * 2);
+        }
+        expiringRids[numOfExpiringRids++] = rid;
+      }
+    }
+
+    /** The number of discrete times in a time window */
+    private final int windowSteps;
+    /** The index of each entry lane, keyed by lane ID; -1 if none */
+    private final int[] entryIndices;
+    /** The index of each exit lane, keyed by lane ID; -1 if none */
+    private final int[] exitIndices;
+    /** The number of exit lanes */
+    private final int numOfExitLanes;
+    /** The ID of the arrival lane of each movement */
+    private final int[] arrivalLaneIds;
+    /** The ID of the departure lane of each movement */
+    private final int[] departureLaneIds;
+    /**
+     * The movements that hold reservations in each time window, keyed by
+     * the index of the window.
+     */
+    private final NavigableMap<Integer,Window> windows =
+      new TreeMap<Integer,Window>();
+    /**
+     * The movement and the first and last time windows of each
+     * reservation, keyed by the reservation ID.
+     */
+    private final Map<Integer,int[]> ridToRecord =
+      new HashMap<Integer,int[]>();
+    /**
+     * The envelope of each movement; null if the movement has never been
+     * reserved.
+     */
+    private final long[][] envelopes;
+
+    /**
+     * Create an empty index of active movements.
+     *
+     * @param windowSteps  the number of discrete times in a time window
+     * @param entryLanes   the entry lanes of the intersection
+     * @param exitLanes    the exit lanes of the intersection
+     * @param numOfLaneIds the number of lane IDs
+     */
+    ActiveMovements(int windowSteps, List<Lane> entryLanes,
+                    List<Lane> exitLanes, int numOfLaneIds) {
+      this.windowSteps = windowSteps;
+      this.entryIndices = new int[numOfLaneIds];
+      this.exitIndices = new int[numOfLaneIds];
+      Arrays.fill(entryIndices, -1);
+      Arrays.fill(exitIndices, -1);
+      for(int i = 0; i < entryLanes.size(); i++) {
+        entryIndices[entryLanes.get(i).getId()] = i;
+      }
+      for(int i = 0; i < exitLanes.size(); i++) {
+        exitIndices[exitLanes.get(i).getId()] = i;
+      }
+      this.numOfExitLanes = exitLanes.size();
+      int numOfMovements = entryLanes.size() * exitLanes.size();
+      this.arrivalLaneIds = new int[numOfMovements];
+      this.departureLaneIds = new int[numOfMovements];
+      for(int i = 0; i < entryLanes.size(); i++) {
+        for(int j = 0; j < exitLanes.size(); j++) {
+          arrivalLaneIds[i * numOfExitLanes + j] = entryLanes.get(i).getId();
+          departureLaneIds[i * numOfExitLanes + j] = exitLanes.get(j).getId();
+        }
+      }
+      this.envelopes = new long[numOfMovements][];
+    }
+
+    /**
+     * Get the movement of a pair of lanes.
+     *
+     * @param arrivalLaneId    the ID of the arrival lane
+     * @param departureLaneId  the ID of the departure lane
+     * @return the movement; -1 if the lanes are not an entry lane and an
+     *         exit lane of the intersection
+     */
+    int calcMovement(int arrivalLaneId, int departureLaneId) {
+      int entryIndex = entryIndices[arrivalLaneId];
+      int exitIndex = exitIndices[departureLaneId];
+      if (entryIndex < 0 || exitIndex < 0) {
+        return -1;
+      }
+      return entryIndex * numOfExitLanes + exitIndex;
+    }
+
+    /**
+     * Get the time window of a discrete time.
+     *
+     * @param dt  the discrete time
+     * @return the index of the time window
+     */
+    int calcWindow(int dt) {
+      return (int) Math.floor((double) dt / windowSteps);
+    }
+
+    /**
+     * Record a reservation.
+     *
+     * @param rid          the reservation ID
+     * @param movement     the movement of the reservation
+     * @param workingList  the time-tiles of the reservation
+     * @param tileSet      an empty tile set for the envelope
+     */
+    synchronized void add(int rid, int movement,
+                          List<TimeTile> workingList, long[] tileSet) {
+      if (workingList.isEmpty()) {
+        return;
+      }
+      if (envelopes[movement] == null) {
+        envelopes[movement] = tileSet;
+      }
+      int firstDt = Integer.MAX_VALUE;
+      int lastDt = Integer.MIN_VALUE;
+      for(TimeTile tt : workingList) {
+        firstDt = Math.min(firstDt, tt.getDiscreteTime());
+        lastDt = Math.max(lastDt, tt.getDiscreteTime());
+        ReservationGrid.addToTileSet(envelopes[movement], tt.getTileId());
+      }
+      int firstWindow = calcWindow(firstDt);
+      int lastWindow = calcWindow(lastDt);
+      for(int w = firstWindow; w <= lastWindow; w++) {
+        Window window = windows.get(w);
+        if (window == null) {
+          window = new Window(envelopes.length);
+          windows.put(w, window);
+        }
+        window.increment(movement);
+      }
+      windows.get(lastWindow).addExpiringRid(rid);
+      ridToRecord.put(rid, new int[] { movement, firstWindow, lastWindow });
+    }
+
+    /**
+     * Remove a reservation.
+     *
+     * @param rid  the reservation ID
+     */
+    synchronized void remove(int rid) {
+      int[] record = ridToRecord.remove(rid);
+      if (record != null) {
+        for(int w = record[1]; w <= record[2]; w++) {
+          Window window = windows.get(w);
+          if (window != null) {
+            window.decrement(record[0]);
+          }
+        }
+      }
+    }
+
+    /**
+     * Remove the time windows that end before a given discrete time, and
+     * the reservations whose last time windows they are.
+     *
+     * @param dt  the discrete time
+     */
+    synchronized void cleanUp(int dt) {
+      Map<Integer,Window> expired = windows.headMap(calcWindow(dt));
+      for(Map.Entry<Integer,Window> e : expired.entrySet()) {
+        Window window = e.getValue();
+        for(int i = 0; i < window.numOfExpiringRids; i++) {
+          int rid = window.expiringRids[i];
+          int[] record = ridToRecord.get(rid);
+          if (record != null && record[2] == e.getKey()) {
+            ridToRecord.remove(rid);
+          }  // else the reservation has been removed
+        }
+      }
+      expired.clear();
+    }
+
+    /**
+     * Whether a movement is compatible with every movement that holds a
+     * reservation in the time windows of the given discrete times.  The
+     * movements are compatible if their trajectories do not conflict in
+     * the track model and if none of the tiles of the footprint is in the
+     * envelope of the other movement.
+     *
+     * @param movement        the movement
+     * @param firstDt         the first discrete time
+     * @param lastDt          the last discrete time
+     * @param footprintTiles  the tiles of the footprint of the movement
+     * @param trackModel      the track model
+     * @return whether the movement is compatible with all the active
+     *         movements
+     */
+    synchronized boolean isCompatible(int movement, int firstDt, int lastDt,
+                                      long[] footprintTiles,
+                                      TrackModel trackModel) {
+      if (movement < 0) {
+        return false;
+      }
+      int arrivalLaneId = arrivalLaneIds[movement];
+      int departureLaneId = departureLaneIds[movement];
+      for(Window window : windows.subMap(calcWindow(firstDt), true,
+                                         calcWindow(lastDt), true)
+                                 .values()) {
+        for(int k = 0; k < window.numOfActive; k++) {
+          int m = window.active[k];
+          if (trackModel.trajectoriesConflict(arrivalLaneId,
+                                              departureLaneId,
+                                              arrivalLaneIds[m],
+                                              departureLaneIds[m])) {
+            return false;
+          }
+          long[] envelope = envelopes[m];
+          for(int i = 0; i < envelope.length; i++) {
+            if ((envelope[i] & footprintTiles[i]) != 0L) {
+              return false;
+            }
+          }
+        }
+      }
+      return true;
+    }
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  // TODO: replace config with other things
+
+  /**
+   * The configuration of this reservation grid manager.
+   */
+  public Config config;
+
+  /**
+   * The size of the static buffer, in meters, used by this policy.
+   */
+  public double staticBufferSize;
+  /**
+   * Whether or not the edge tile time buffer is enabled.
+   */
+  private boolean isEdgeTileTimeBufferEnabled;
+  /**
+   * The size of the time buffer, in time steps, used for internal tiles.
+   */
+  private int internalTileTimeBufferSteps;
+  /**
+   * The size of the time buffer, in time steps, used for edge tiles.
+   */
+  private int edgeTileTimeBufferSteps;
+  /**
+   * The length of a step of the internal simulation, in seconds.
+   */
+  private double internalSimulationTimeStep;
+  /**
+   * The number of grid time steps in a step of the internal simulation.
+   */
+  private double gridStepsPerInternalStep;
+  /**
+   * The current time.
+   */
+  private double currentTime;
+  /**
+   * The intersection
+   */
+  private Intersection intersection;
+  /**
+   * The tiled area of the intersection
+   */
+  private TiledArea tiledArea;
+  /**
+   * The reservation System
+   */
+  private ReservationGrid reservationGrid;
+  /**
+   * The reservations in continuous time; null if the reservations are made
+   * in the reservation grid.
+   */
+  private ReservationIntervals reservationIntervals;
+  /**
+   * The tiles that cover each conflict point, indexed by the conflict
+   * points at which the reservation intervals are made; null if the
+   * intervals are made at the tiles.
+   */
+  private int[][] conflictPointTiles;
+  /**
+   * Whether each tile covers a conflict point; null if the reservation
+   * intervals are made at the tiles.
+   */
+  private boolean[] isConflictPointTile;
+  /**
+   * The track model by which the queries skip the tile checks when no
+   * conflicting movement holds a reservation around their times; null if
+   * the tiles are always checked.
+   */
+  private TrackModel trackModel;
+  /**
+   * The movements that hold reservations in each time window; null if
+   * there is no track model.
+   */
+  private ActiveMovements activeMovements;
+  /**
+   * The statistic collector
+   */
+  private StatCollector<ReservationGridManager> statCollector;
+  
+  /**
+   * a collection of pre made reservation plans for different vehicles on this reservation grid,
+   * keyed by the ID of the vehicle specification
+   */
+  private Map<Integer,PlanStore> preMadePlans;
+
+  /**
+   * Whether the pre-made plans have been precomputed.
+   */
+  private boolean arePlansPrecomputed;
+
+  /**
+   * Whether the footprints of every velocity bucket are precomputed.
+   */
+  private boolean isFullyPrecomputed;
+
+  /**
+   * The worker pool shared by all reservation grid managers to precompute
+   * their pre-made plans; null if they are precomputed on the constructing
+   * thread.
+   */
+  private static ForkJoinPool precomputationPool;
+
+  /**
+   * The tasks in the precomputation pool that save footprint libraries,
+   * which the runners wait for before they exit.
+   */
+  private static final List<ForkJoinTask<?>> librarySaveTasks =
+    new ArrayList<ForkJoinTask<?>>();
+
+  /**
+   * The entry and exit lanes of the intersection, indexed by lane ID.  The
+   * queries look up their lanes here rather than in the map's lane registry
+   * so that the intersection managers can act in parallel.
+   */
+  private Lane[] idToLane;
+
+
+  /////////////////////////////////
+  // CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a reservation grid manager.
+   *
+   * @param config           the configuration of the grid manager
+   * @param intersection     the intersection
+   * @param tiledArea        the tiled area
+   * @param reservationGrid  the reservation grid
+   */
+  public ReservationGridManager(Config config,
+                                Intersection intersection,
+                                TiledArea tiledArea,
+                                ReservationGrid reservationGrid) {
     this(0.0, config, intersection, tiledArea, reservationGrid);
   }
 
@@ -871,20 +1714,88 @@ public class ReservationGridManager implements
     this.config = config;
     this.staticBufferSize = config.getStaticBufferSize();
     this.isEdgeTileTimeBufferEnabled = config.getIsEdgeTileTimeBufferEnabled();
+    this.internalSimulationTimeStep = config.getInternalSimulationTimeStep();
+    this.gridStepsPerInternalStep =
+      internalSimulationTimeStep / config.getGridTimeStep();
+    // A step of the internal simulation longer than a grid time step skips
+    // the grid time steps between its samples, so the time buffers are
+    // widened to cover them.
+    double skippedTime =
+      Math.max(0.0, internalSimulationTimeStep - config.getGridTimeStep());
     this.internalTileTimeBufferSteps =
-      (int) (config.getInternalTileTimeBufferSize() / config.getGridTimeStep());
+      calcTimeBufferSteps(config.getInternalTileTimeBufferSize() + skippedTime,
+                          config.getGridTimeStep());
     this.edgeTileTimeBufferSteps =
-      (int) (config.getEdgeTileTimeBufferSize() / config.getGridTimeStep());
+      calcTimeBufferSteps(config.getEdgeTileTimeBufferSize() + skippedTime,
+                          config.getGridTimeStep());
 
     this.intersection = intersection;
     this.tiledArea = tiledArea;
     this.reservationGrid = reservationGrid;
     this.statCollector = new VinHistoryStatCollector();
+    int maxLaneId = -1;
+    for(Lane lane : intersection.getLanes()) {
+      maxLaneId = Math.max(maxLaneId, lane.getId());
+    }
+    this.idToLane = new Lane[maxLaneId + 1];
+    for(Lane lane : intersection.getEntryLanes()) {
+      idToLane[lane.getId()] = lane;
+    }
+    for(Lane lane : intersection.getExitLanes()) {
+      idToLane[lane.getId()] = lane;
+    }
+    switch(config.getReservationMode()) {
+    case CONFLICT_POINTS:
+      initConflictPoints();
+      this.reservationIntervals =
+        new ReservationIntervals(conflictPointTiles.length);
+      break;
+    case CONTINUOUS_TIME:
+      this.reservationIntervals =
+        new ReservationIntervals(tiledArea.getNumberOfTiles());
+      break;
+    default:
+      break;
+    }
     
     //TODO insert calculation function for 
-    preMadePlans = new ArrayList<PlanStore>();
+    preMadePlans = new HashMap<Integer,PlanStore>();
+    FootprintLibrary library = null;
+    Map<Integer,Map<Long,List<TileTimeFrame>>> loadedFootprints = null;
+    if (SimConfig.FOOTPRINT_LIBRARY_DIR != null) {
+      library = new FootprintLibrary(new File(SimConfig.FOOTPRINT_LIBRARY_DIR),
+                                     intersection, config, tiledArea);
+      loadedFootprints = library.load(this);
+    }
+    // Simulating the footprints of every velocity bucket up front costs
+    // more than simulating the few that are requested, unless they are
+    // saved for later runs, so it is done only when asked for.
+    ForkJoinPool pool = getPrecomputationPool();
+    isFullyPrecomputed =
+      (SimConfig.FULL_FOOTPRINT_PRECOMPUTATION || library != null);
     for(int i = 0; i < VehicleSpecDatabase.getNumOfSpec(); i++){
-    	preMadePlans.add(new PlanStore(VehicleSpecDatabase.getVehicleSpecById(i), this));
+    	VehicleSpec spec = VehicleSpecDatabase.getVehicleSpecById(i);
+    	if (loadedFootprints != null && loadedFootprints.containsKey(i)) {
+    	  preMadePlans.put(i, new PlanStore(spec, this, loadedFootprints.get(i)));
+    	} else {
+    	  preMadePlans.put(i, new PlanStore(spec, this, isFullyPrecomputed));
+    	}
+    }
+    if (library != null && loadedFootprints == null) {
+      if (pool == null) {
+        // the footprints have been precomputed on this thread
+        try {
+          library.save(preMadePlans);
+        } catch(IOException e) {
+          System.err.println("Cannot write the footprint library " +
+                             library.getFile() + ": " + e.getMessage());
+        }
+      } else {
+        ForkJoinTask<?> task = pool.submit(new SaveLibraryTask(library));
+        synchronized(librarySaveTasks) {
+          librarySaveTasks.add(task);
+        }
+      }
     }
   }
 
@@ -900,10 +1811,42 @@ public class ReservationGridManager implements
    */
   public void act(double timeStep) {
     reservationGrid.cleanUp(currentTime);
+    if (activeMovements != null) {
+      activeMovements.cleanUp(reservationGrid.calcDiscreteTime(currentTime));
+    }
+    if (reservationIntervals != null) {
+      reservationIntervals.cleanUp(currentTime);
+    }
     if (statCollector != null) statCollector.collect(this);
     currentTime += timeStep;
   }
 
+  /**
+   * Set the track model by which the queries skip the tile checks.  A
+   * query checks no tiles if the trajectory of its movement conflicts with
+   * none of the movements holding reservations around its times in the
+   * track model, and if its footprint shares no tiles with the tiles ever
+   * reserved for those movements.  The tracks of the track model are only
+   * lines, so the tiles must be compared too.
+   *
+   * @param trackModel  the track model; null if the tiles are always
+   *                    checked
+   */
+  public void setTrackModel(TrackModel trackModel) {
+    this.trackModel = trackModel;
+    if (trackModel != null) {
+      activeMovements =
+        new ActiveMovements(
+          (int) Math.round(MOVEMENT_WINDOW_SIZE
+                           / reservationGrid.getGridTimeStep()),
+          intersection.getEntryLanes(),
+          intersection.getExitLanes(),
+          idToLane.length);
+    } else {
+      activeMovements = null;
+    }
+  }
+
   /**
    * Get the configuration.
    *
@@ -922,6 +1865,123 @@ public class ReservationGridManager implements
     return tiledArea;
   }
 
+  /**
+   * Get the reserved time intervals.
+   *
+   * @return the reserved time intervals; null if the reservation mode
+   *         reserves time tiles
+   */
+  public ReservationIntervals getReservationIntervals() {
+    return reservationIntervals;
+  }
+
+  /**
+   * Wait for the pre-made plans to be precomputed.
+   */
+  public void awaitPlans() {
+    if (arePlansPrecomputed) {
+      return;
+    }
+    for(PlanStore planStore : preMadePlans.values()) {
+      planStore.awaitFootprints();
+    }
+    arePlansPrecomputed = true;
+  }
+
+  /**
+   * Wait for the footprint libraries that are being saved in the
+   * precomputation pool.  The threads of the pool do not keep the virtual
+   * machine alive, so a runner calls this before it exits.
+   */
+  public static void awaitFootprintLibraries() {
+    while(true) {
+      ForkJoinTask<?> task;
+      synchronized(librarySaveTasks) {
+        if (librarySaveTasks.isEmpty()) {
+          return;
+        }
+        task = librarySaveTasks.remove(0);
+      }
+      task.join();
+    }
+  }
+
+  /**
+   * A task that saves the footprints of the pre-made plans to the
+   * footprint library once the precomputation pool has simulated all of
+   * them, so that the footprints precomputed in the background are saved
+   * without holding up the requests.
+   */
+  private class SaveLibraryTask implements Runnable {
+    /** The footprint library */
+    private FootprintLibrary library;
+    /** The tasks simulating the footprints, keyed by vehicle spec ID */
+    private Map<Integer,Map<Long,ForkJoinTask<List<TileTimeFrame>>>> tasks;
+
+    /**
+     * Create a task that saves the footprints being precomputed now.
+     *
+     * @param library  the footprint library
+     */
+    SaveLibraryTask(FootprintLibrary library) {
+      this.library = library;
+      this.tasks = new HashMap<Integer,Map<Long,ForkJoinTask<List<TileTimeFrame>>>>();
+      for(Map.Entry<Integer,PlanStore> e : preMadePlans.entrySet()) {
+        tasks.put(e.getKey(), e.getValue().getPrecomputedFootprintTasks());
+      }
+    }
+
+    @Override
+    public void run() {
+      Map<Integer,Map<Long,List<TileTimeFrame>>> footprints =
+        new HashMap<Integer,Map<Long,List<TileTimeFrame>>>();
+      for(Map.Entry<Integer,Map<Long,ForkJoinTask<List<TileTimeFrame>>>> e :
+            tasks.entrySet()) {
+        Map<Long,List<TileTimeFrame>> f =
+          new LinkedHashMap<Long,List<TileTimeFrame>>();
+        for(Map.Entry<Long,ForkJoinTask<List<TileTimeFrame>>> t :
+              e.getValue().entrySet()) {
+          f.put(t.getKey(), t.getValue().join());
+        }
+        footprints.put(e.getKey(), f);
+      }
+      try {
+        library.saveFootprints(footprints);
+      } catch(IOException e) {
+        System.err.println("Cannot write the footprint library " +
+                           library.getFile() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Get the number of swept footprints found in the caches of the pre-made
+   * plans.
+   *
+   * @return the number of cache hits
+   */
+  public int getPlanCacheHits() {
+    int hits = 0;
+    for(PlanStore planStore : preMadePlans.values()) {
+      hits += planStore.getHits();
+    }
+    return hits;
+  }
+
+  /**
+   * Get the number of swept footprints that were not in the caches of the
+   * pre-made plans and had to be simulated.
+   *
+   * @return the number of cache misses
+   */
+  public int getPlanCacheMisses() {
+    int misses = 0;
+    for(PlanStore planStore : preMadePlans.values()) {
+      misses += planStore.getMisses();
+    }
+    return misses;
+  }
+
   /**
    * Get the statistic collector.
    *
@@ -948,43 +2008,20 @@ public class ReservationGridManager implements
   @Override
   public Plan query(Query q, boolean init) {
     // Position the Vehicle to be ready to start the simulation
-    Lane arrivalLane =
-      Debug.currentMap.getLaneRegistry().get(q.getArrivalLaneId());
-    Lane departureLane =
-      Debug.currentMap.getLaneRegistry().get(q.getDepartureLaneId());
-    // Create a test vehicle to use in the internal simulation
-    // A.H - modify spawn spec for vehicles with tile sequences at start 
-    BasicAutoVehicle testVehicle =
-      createTestVehicle(q.getSpec(),
-                        q.getArrivalVelocity(),
-                        q.getMaxTurnVelocity(),
-                        arrivalLane);
-
-    // Create a dummy driver to steer it
-    Driver dummy = new CrashTestDummy(testVehicle, arrivalLane, departureLane);
+    Lane arrivalLane = getLane(q.getArrivalLaneId());
+    Lane departureLane = getLane(q.getDepartureLaneId());
 
-    // assign the drive to the vehicle
-    // testVehicle.setDriver(dummy);  // TODO fix this later.
+    if (reservationIntervals != null && !init) {
+      return queryIntervals(q, arrivalLane, departureLane);
+    }
 
     // Keep track of the TileTimes that will make up this reservation
     // A.H - take precalculated time tiles and fill in ref times, return
     FindTileTimesBySimulationResult fResult = null;
     if(init){
-    	fResult  = findTileTimesBySimulation(testVehicle,
-                                  dummy,
-                                  q.getArrivalTime(),
-                                  q.isAccelerating());
+    	fResult = findTileTimesBySimulation(q, arrivalLane, departureLane);
     } else {
-    	//TODO build in ability to accelerate
-    	fResult = this.getPlanStore(q,arrivalLane,departureLane,testVehicle,
-                dummy);
-    	
-    	/*FindTileTimesBySimulationResult fResult1  = findTileTimesBySimulation(testVehicle,
-                dummy,
-                q.getArrivalTime(),
-                q.isAccelerating()
-                );
-    	fResult.getExitTime();*/
+    	fResult = this.getPlanStore(q,arrivalLane,departureLane);
     }
     if (fResult != null) {
       List<TimeTile> workingList = fResult.getWorkingList();
@@ -1003,7 +2040,7 @@ public class ReservationGridManager implements
       return new Plan(q.getVin(),
                       exitTime,
                       q.getArrivalTime(),
-                      testVehicle.gaugeVelocity(),
+                      fResult.getExitVelocity(),
                       workingList,
                       tileTimeFrameList,
                       accelerationProfile,
@@ -1015,43 +2052,291 @@ public class ReservationGridManager implements
     }
   }
 
+  /**
+   * Find a list of unreserved tile-times by driving a test vehicle through
+   * the intersection.
+   *
+   * @param q              the query
+   * @param arrivalLane    the arrival lane
+   * @param departureLane  the departure lane
+   * @return the tile-times; null if the trajectory hits some reserved tiles
+   */
+  private FindTileTimesBySimulationResult findTileTimesBySimulation(
+                                            Query q,
+                                            Lane arrivalLane,
+                                            Lane departureLane) {
+    // Create a test vehicle to use in the internal simulation
+    // A.H - modify spawn spec for vehicles with tile sequences at start 
+    BasicAutoVehicle testVehicle =
+      createTestVehicle(q.getSpec(),
+                        q.getArrivalVelocity(),
+                        q.getMaxTurnVelocity(),
+                        arrivalLane);
+
+    // Create a dummy driver to steer it
+    Driver dummy = new CrashTestDummy(testVehicle, arrivalLane, departureLane);
+
+    // assign the drive to the vehicle
+    // testVehicle.setDriver(dummy);  // TODO fix this later.
+
+    return findTileTimesBySimulation(testVehicle,
+                                     dummy,
+                                     q.getArrivalTime(),
+                                     q.isAccelerating());
+  }
+
   private FindTileTimesBySimulationResult getPlanStore(Query q, Lane arrivalLane,
-		Lane departureLane, BasicAutoVehicle testVehicle, Driver dummy) {
-	PlanStore protoPlan = null;
-	for(PlanStore plan : this.preMadePlans){
-		if(plan.vehicle.getName().equals(q.getSpec().getName())){
-			protoPlan = plan;
-		}
-	}
-	// if no spec available, return null
-	// in future, add spec to plan generator queue at this if then return null
-	if(protoPlan == null){
-		return null;
+		Lane departureLane) {
+	List<TileTimeFrame> footprint = retrieveFootprint(q, arrivalLane, departureLane);
+	if(footprint == null){
+		// the spec is not registered; simulate the traversal instead
+		return findTileTimesBySimulation(q, arrivalLane, departureLane);
 	}
 	
-	Plan plan = protoPlan.retrieveCurrentPlan(q.getVin(), arrivalLane.getId(), departureLane.getId()
-			, q.getArrivalTime(), q.getArrivalVelocity(), q.isAccelerating());
-	
-	FindTileTimesBySimulationResult result = findTileTimesBySimulation(testVehicle,
-            dummy,
-            q.getArrivalTime(),
-            q.isAccelerating(),
-            plan.getTileFrameList());
-	
-	/*FindTileTimesBySimulationResult result = new FindTileTimesBySimulationResult(
-			protoPlan.retrieveCurrentPlan(vin, arrivalLane.getId(), departureLane.getId()
-					, arrivalTime, arrivalVelocity, isAccelerating).getWorkingList()
-					, arrivalVelocity);*/
-	
-	return result;
+	return findTileTimesByFootprint(footprint,
+	                                q.getArrivalTime(),
+	                                q.getArrivalVelocity(),
+	                                q.getMaxTurnVelocity(),
+	                                q.getSpec().getMaxAcceleration(),
+	                                q.isAccelerating(),
+	                                !isCompatible(q, footprint));
 }
 
+  /**
+   * Whether the movement of a query is compatible with every movement that
+   * holds a reservation around the times at which the query would occupy
+   * its footprint, so that the tiles need not be checked.
+   *
+   * @param q          the query
+   * @param footprint  the swept footprint of the query
+   * @return whether the tiles need not be checked
+   */
+  private boolean isCompatible(Query q, List<TileTimeFrame> footprint) {
+    if (activeMovements == null || footprint.isEmpty()) {
+      return false;
+    }
+    boolean isAccelerating = q.isAccelerating() &&
+                             q.getArrivalVelocity() < q.getMaxTurnVelocity() &&
+                             q.getSpec().getMaxAcceleration() > 0.0;
+    if (q.getArrivalVelocity() <= 0.0 && !isAccelerating) {
+      return false;
+    }
+    double traversalTime =
+      calcTraversalTime(footprint.get(footprint.size() - 1).getDistance(),
+                        q.getArrivalVelocity(),
+                        q.getMaxTurnVelocity(),
+                        q.getSpec().getMaxAcceleration(),
+                        isAccelerating);
+    // the discrete times of the time-tiles, with their time buffers and
+    // a margin for the rounding of the traversal and its last step
+    int maxBufferSteps =
+      Math.max(edgeTileTimeBufferSteps, internalTileTimeBufferSteps);
+    int firstDt = reservationGrid.calcDiscreteTime(q.getArrivalTime())
+                  - maxBufferSteps;
+    int lastDt = reservationGrid.calcDiscreteTime(q.getArrivalTime()
+                                                  + traversalTime)
+                 + maxBufferSteps + 1
+                 + (int) Math.ceil(Math.max(1.0, gridStepsPerInternalStep));
+    long[] footprintTiles = reservationGrid.createTileSet();
+    for(TileTimeFrame frame : footprint) {
+      for(int i = 0; i < footprintTiles.length; i++) {
+        footprintTiles[i] |= frame.edgeTileSet[i] | frame.internalTileSet[i];
+      }
+    }
+    return activeMovements.isCompatible(
+             activeMovements.calcMovement(q.getArrivalLaneId(),
+                                          q.getDepartureLaneId()),
+             firstDt, lastDt, footprintTiles, trackModel);
+  }
+
+  /**
+   * Retrieve the swept footprint of a query from the pre-made plans.
+   * The pre-made plans are shared by the queries, which may run
+   * concurrently, so the retrieval is synchronized.
+   *
+   * @param q              the query
+   * @param arrivalLane    the arrival lane
+   * @param departureLane  the departure lane
+   * @return the swept footprint; null if the vehicle specification of the
+   *         query is not registered
+   */
+  private synchronized List<TileTimeFrame> retrieveFootprint(
+                                           Query q,
+                                           Lane arrivalLane,
+                                           Lane departureLane) {
+    awaitPlans();
+    int specId =
+      VehicleSpecDatabase.getIdByName((String)q.getSpec().getName());
+    if (specId < 0) {
+      return null;
+    }
+    PlanStore protoPlan = preMadePlans.get(specId);
+    if (protoPlan == null) {
+      // the spec was registered after this manager was created
+      protoPlan =
+        new PlanStore(VehicleSpecDatabase.getVehicleSpecById(specId), this,
+                      isFullyPrecomputed);
+      preMadePlans.put(specId, protoPlan);
+    }
+    return protoPlan.retrieveFootprint(arrivalLane, departureLane,
+                                       q.getArrivalVelocity(),
+                                       q.isAccelerating());
+  }
+
+  /**
+   * Find the earliest arrival time, no earlier than the arrival time of a
+   * query, at which the vehicle can traverse the intersection without
+   * hitting any reserved tile.  Delaying the arrival by whole grid time
+   * steps delays every time-tile of the swept footprint by the same number
+   * of discrete times, so the time-tiles are collected once and the
+   * reservation array finds the earliest start at which they fit.
+   *
+   * @param q                  the query
+   * @param latestArrivalTime  the latest arrival time to try
+   * @return the earliest arrival time; -1.0 if the footprint does not fit
+   *         before the latest arrival time
+   */
+  public double findEarliestArrivalTime(Query q, double latestArrivalTime) {
+    Lane arrivalLane = getLane(q.getArrivalLaneId());
+    Lane departureLane = getLane(q.getDepartureLaneId());
+    if (reservationIntervals != null) {
+      // the intervals are continuous, so the delay jumps straight past the
+      // conflicting reservations
+      FindTileIntervalsResult iResult =
+        findTileIntervalsByFootprint(
+          retrieveContinuousFootprint(q, arrivalLane, departureLane),
+          q.getArrivalTime(),
+          q.getArrivalVelocity(),
+          q.getMaxTurnVelocity(),
+          q.getSpec().getMaxAcceleration(),
+          q.isAccelerating());
+      if (iResult == null) {
+        return -1.0;
+      }
+      double delay =
+        reservationIntervals.findEarliestDelay(iResult.getIntervalList(),
+                                               latestArrivalTime
+                                               - q.getArrivalTime());
+      return Double.isNaN(delay) ? -1.0 : q.getArrivalTime() + delay;
+    }
+    List<TileTimeFrame> footprint =
+      retrieveFootprint(q, arrivalLane, departureLane);
+    if (footprint == null) {
+      return -1.0;
+    }
+    FindTileTimesBySimulationResult result =
+      findTileTimesByFootprint(footprint,
+                               q.getArrivalTime(),
+                               q.getArrivalVelocity(),
+                               q.getMaxTurnVelocity(),
+                               q.getSpec().getMaxAcceleration(),
+                               q.isAccelerating(),
+                               false);
+    if (result == null) {
+      return -1.0;  // the vehicle would never leave the intersection
+    }
+    List<TimeTile> workingList = result.getWorkingList();
+    int size = workingList.size();
+    int arrivalDt = reservationGrid.calcDiscreteTime(q.getArrivalTime());
+    int[] dtOffsets = new int[size];
+    int[] tids = new int[size];
+    for(int i = 0; i < size; i++) {
+      TimeTile tt = workingList.get(i);
+      dtOffsets[i] = tt.getDiscreteTime() - arrivalDt;
+      tids[i] = tt.getTileId();
+    }
+    double gridTimeStep = reservationGrid.getGridTimeStep();
+    int latestDelay =
+      (int)Math.floor((latestArrivalTime - q.getArrivalTime()) / gridTimeStep);
+    int delay = 0;
+    while(true) {
+      int startDt = reservationGrid.findEarliestStartTime(arrivalDt + delay,
+                                                         arrivalDt
+                                                         + latestDelay,
+                                                         dtOffsets, tids,
+                                                         size);
+      if (startDt < 0) {
+        return -1.0;
+      }
+      delay = startDt - arrivalDt;
+      double arrivalTime = q.getArrivalTime() + delay * gridTimeStep;
+      // confirm the arrival time, in case rounding shifts the time-tiles
+      if (findTileTimesByFootprint(footprint,
+                                   arrivalTime,
+                                   q.getArrivalVelocity(),
+                                   q.getMaxTurnVelocity(),
+                                   q.getSpec().getMaxAcceleration(),
+                                   q.isAccelerating(),
+                                   true) != null) {
+        return arrivalTime;
+      }
+      delay++;
+    }
+  }
+
 /**
+   * Make a query in continuous time.  The swept footprint is turned into
+   * the [enter, exit) time interval during which each tile is occupied,
+   * and the intervals are checked against the reserved intervals.
+   *
+   * @param q              the query
+   * @param arrivalLane    the arrival lane
+   * @param departureLane  the departure lane
+   * @return the plan; null if some interval has been reserved
+   */
+  private Plan queryIntervals(Query q, Lane arrivalLane, Lane departureLane) {
+    FindTileIntervalsResult iResult =
+      findTileIntervalsByFootprint(
+        retrieveContinuousFootprint(q, arrivalLane, departureLane),
+        q.getArrivalTime(),
+        q.getArrivalVelocity(),
+        q.getMaxTurnVelocity(),
+        q.getSpec().getMaxAcceleration(),
+        q.isAccelerating());
+    if (iResult == null ||
+        reservationIntervals.isReserved(iResult.getIntervalList())) {
+      return null;
+    }
+    Queue<double[]> accelerationProfile =
+      calcAccelerationProfile(q.getArrivalTime(),
+                              q.getArrivalVelocity(),
+                              q.getMaxTurnVelocity(),
+                              q.getSpec().getMaxAcceleration(),
+                              iResult.getExitTime(),
+                              q.isAccelerating());
+    Plan plan = new Plan(q.getVin(),
+                         iResult.getExitTime(),
+                         q.getArrivalTime(),
+                         iResult.getExitVelocity(),
+                         new ArrayList<TimeTile>(),
+                         new ArrayList<TileTimeFrame>(),
+                         accelerationProfile,
+                         arrivalLane,
+                         departureLane,
+                         this);
+    plan.intervalList = iResult.getIntervalList();
+    return plan;
+  }
+
+  /**
    * {@inheritDoc}
    */
   @Override
   public Integer accept(Plan plan) {
-    boolean b = reservationGrid.reserve(plan.getVin(), plan.getWorkingList());
+    boolean b;
+    if (plan.getIntervalList() != null) {
+      b = reservationIntervals.reserve(plan.getVin(), plan.getIntervalList());
+    } else {
+      b = reservationGrid.reserve(plan.getVin(), plan.getWorkingList());
+      if (activeMovements != null) {
+        activeMovements.add(plan.getVin(),
+                            activeMovements.calcMovement(
+                              plan.getArrivalLane().getId(),
+                              plan.getDepartureLane().getId()),
+                            plan.getWorkingList(),
+                            reservationGrid.createTileSet());
+      }
+    }
     assert b;
     return plan.getVin();
   }
@@ -1062,6 +2347,12 @@ public class ReservationGridManager implements
   @Override
   public void cancel(Integer reservationId) {
     reservationGrid.cancel(reservationId);  // reservationId == vin
+    if (activeMovements != null) {
+      activeMovements.remove(reservationId);
+    }
+    if (reservationIntervals != null) {
+      reservationIntervals.cancel(reservationId);
+    }
   }
 
 
@@ -1069,6 +2360,21 @@ public class ReservationGridManager implements
   // PRIVATE FIELDS
   /////////////////////////////////
 
+  /**
+   * Get the lane with the given ID.
+   *
+   * @param laneId  the ID of the lane
+   * @return the lane
+   */
+  private Lane getLane(int laneId) {
+    Lane lane = (0 <= laneId && laneId < idToLane.length) ? idToLane[laneId]
+                                                           : null;
+    if (lane == null) {
+      lane = Debug.currentMap.getLaneRegistry().get(laneId);
+    }
+    return lane;
+  }
+
   /**
    * Create a test vehicle to use in the internal simulation.
    *
@@ -1126,39 +2432,104 @@ public class ReservationGridManager implements
     List<TileTimeFrame> frameWorkingList;
     
     /** The exit time */
-    double exitTime;
+    double exitTime;
+
+    /** The exit velocity */
+    double exitVelocity;
+
+    /**
+     * Create a record for holding the result of the time tiles found
+     * by the internal simulation.
+     *
+     * @param workingList   the time tiles
+     * @param exitTime      the exit time
+     * @param exitVelocity  the exit velocity
+     */
+    public FindTileTimesBySimulationResult(List<TimeTile> workingList,
+                                           double exitTime,
+                                           double exitVelocity) {
+      this.workingList = workingList;
+      this.exitTime = exitTime;
+      this.exitVelocity = exitVelocity;
+      this.frameWorkingList = new ArrayList<TileTimeFrame>();
+    }
+    public FindTileTimesBySimulationResult(List<TimeTile> workingList, List<TileTimeFrame> frameWorkingList,
+            double exitTime, double exitVelocity) {
+    	this.workingList = workingList;
+		this.exitTime = exitTime;
+		this.exitVelocity = exitVelocity;
+		this.frameWorkingList = frameWorkingList;
+	}
+
+    /**
+     * Get the time tiles.
+     *
+     * @return the time tiles
+     */
+    public List<TimeTile> getWorkingList() {
+      return workingList;
+    }
+    
+    public List<TileTimeFrame> getFrameBasedWorkingList(){
+    	return frameWorkingList;
+    }
+
+    /**
+     * Get the exit time.
+     *
+     * @return the exit time
+     */
+    public double getExitTime() {
+      return exitTime;
+    }
+
+    /**
+     * Get the exit velocity.
+     *
+     * @return the exit velocity
+     */
+    public double getExitVelocity() {
+      return exitVelocity;
+    }
+
+  }
+
+  /**
+   * The record for holding the time intervals of the tiles found from a
+   * swept footprint.
+   */
+  private static class FindTileIntervalsResult {
+    /** The time intervals */
+    private ReservationIntervals.IntervalList intervalList;
+
+    /** The exit time */
+    private double exitTime;
+
+    /** The exit velocity */
+    private double exitVelocity;
 
     /**
-     * Create a record for holding the result of the time tiles found
-     * by the internal simulation.
+     * Create a record for holding the time intervals of the tiles.
      *
-     * @param workingList  the time tiles
-     * @param exitTime     the exit time
+     * @param intervalList  the time intervals
+     * @param exitTime      the exit time
+     * @param exitVelocity  the exit velocity
      */
-    public FindTileTimesBySimulationResult(List<TimeTile> workingList,
-                                           double exitTime) {
-      this.workingList = workingList;
+    FindTileIntervalsResult(ReservationIntervals.IntervalList intervalList,
+                            double exitTime,
+                            double exitVelocity) {
+      this.intervalList = intervalList;
       this.exitTime = exitTime;
-      this.frameWorkingList = new ArrayList<TileTimeFrame>();
+      this.exitVelocity = exitVelocity;
     }
-    public FindTileTimesBySimulationResult(List<TimeTile> workingList, List<TileTimeFrame> frameWorkingList,
-            double exitTime) {
-    	this.workingList = workingList;
-		this.exitTime = exitTime;
-		this.frameWorkingList = frameWorkingList;
-	}
 
     /**
-     * Get the time tiles.
+     * Get the time intervals.
      *
-     * @return the time tiles
+     * @return the time intervals
      */
-    public List<TimeTile> getWorkingList() {
-      return workingList;
-    }
-    
-    public List<TileTimeFrame> getFrameBasedWorkingList(){
-    	return frameWorkingList;
+    ReservationIntervals.IntervalList getIntervalList() {
+      return intervalList;
     }
 
     /**
@@ -1166,11 +2537,20 @@ public class ReservationGridManager implements
      *
      * @return the exit time
      */
-    public double getExitTime() {
+    double getExitTime() {
       return exitTime;
     }
 
+    /**
+     * Get the exit velocity.
+     *
+     * @return the exit velocity
+     */
+    double getExitVelocity() {
+      return exitVelocity;
+    }
   }
+
   /**
    * Find a list of unreserved tiletimes by simulation
    *
@@ -1203,143 +2583,833 @@ public class ReservationGridManager implements
 
     // The list of tile-times that will make up this reservation
     List<TimeTile> workingList = new ArrayList<TimeTile>();
+    // The buffer for the IDs of the tiles occupied at each step
+    int[] occupiedIds = new int[tiledArea.getNumberOfTiles()];
 
     // A discrete representation of the time throughout the internal simulation
     // Notice that currentIntTime != arrivalTime
     //TODO use this for descrete time
-    int currentIntTime = reservationGrid.calcDiscreteTime(arrivalTime);
+    int arrivalIntTime = reservationGrid.calcDiscreteTime(arrivalTime);
+    int currentIntTime = arrivalIntTime;
+    // The number of steps of the internal simulation so far
+    int numOfSteps = 0;
     // The duration in the current time interval
     double currentDuration = reservationGrid.calcRemainingTime(arrivalTime);
     
-    //test
-    Point2D vehiclePos = new Point2D.Double(0.0,0.0);
+    // The distance travelled along the path
+    double distance = 0.0;
+    Point2D vehiclePos = testVehicle.getPosition();
     // drive the test vehicle until it leaves the intersection
     while(VehicleUtil.intersects(testVehicle, areaPlus)) {
-      moveTestVehicle(testVehicle, dummy, currentDuration, accelerating);
-      vehiclePos = testVehicle.gaugePosition();
-      // Find out which tiles are occupied by the vehicle
-      currentIntTime++;  // Record that we've moved forward one time step
-      List<Tile> occupied;
-    	  occupied =
-	        tiledArea.findOccupiedTiles(testVehicle.getShape(staticBufferSize));
+      // Find out which tiles are occupied by the vehicle during the step
+      List<Tile> occupied = new ArrayList<Tile>();
+      int numOfSubSteps = calcNumOfSubSteps(currentDuration);
+      for(int i = 0; i < numOfSubSteps; i++) {
+        moveTestVehicle(testVehicle, dummy, currentDuration / numOfSubSteps,
+                        accelerating);
+        distance += vehiclePos.distance(testVehicle.getPosition());
+        vehiclePos = testVehicle.getPosition();
+        addOccupiedTiles(testVehicle, occupiedIds, occupied);
+      }
+      // Record that we've moved forward one step
+      numOfSteps++;
+      currentIntTime = arrivalIntTime + calcGridSteps(numOfSteps);
+      currentFrame =
+        new TileTimeFrame(testVehicle.gaugePosition(), distance, occupied);
       // Make sure none of these tiles are reserved by someone else already
-      for(Tile tile : occupied) {
+      if (!isFree(currentFrame, currentIntTime)) {
+        return null; // Failure! Just bail!
+      }
+      addTimeTiles(occupied, currentIntTime, workingList);
+      posBasedTiles.add(currentFrame);
+      currentDuration = internalSimulationTimeStep;
+    }
+    return new FindTileTimesBySimulationResult(workingList,
+    										   posBasedTiles,
+                                               reservationGrid
+                                               .calcTime(currentIntTime),
+                                               testVehicle.gaugeVelocity());
+  }
+  
+  /**
+   * Find the swept footprint of a vehicle by driving a test vehicle through
+   * the intersection.  Unlike the internal simulation of a query, the
+   * reservations are not checked, so the footprint can be found at any
+   * time.
+   *
+   * @param spec             the specification of the vehicle
+   * @param arrivalLane      the arrival lane
+   * @param departureLane    the departure lane
+   * @param arrivalVelocity  the arrival velocity of the vehicle
+   * @param maxTurnVelocity  the maximum velocity of the vehicle
+   * @param accelerating     whether or not to accelerate to the maximum
+   *                         velocity during the traversal
+   *
+   * @return the tiles occupied by the vehicle at every step of the internal
+   *         simulation, in order of distance
+   */
+  private List<TileTimeFrame> findFootprintBySimulation(
+                                VehicleSpecForRequestMsg spec,
+                                Lane arrivalLane,
+                                Lane departureLane,
+                                double arrivalVelocity,
+                                double maxTurnVelocity,
+                                boolean accelerating) {
+    BasicAutoVehicle testVehicle =
+      createTestVehicle(spec, arrivalVelocity, maxTurnVelocity, arrivalLane);
+    Driver dummy = new CrashTestDummy(testVehicle, arrivalLane, departureLane);
+
+    List<TileTimeFrame> footprint = new ArrayList<TileTimeFrame>();
+    Area areaPlus = intersection.getAreaPlus();
+    // The buffer for the IDs of the tiles occupied at each step
+    int[] occupiedIds = new int[tiledArea.getNumberOfTiles()];
+    double distance = 0.0;
+    Point2D vehiclePos = testVehicle.getPosition();
+    // drive the test vehicle until it leaves the intersection
+    int numOfSubSteps = calcNumOfSubSteps(internalSimulationTimeStep);
+    while(VehicleUtil.intersects(testVehicle, areaPlus)) {
+      List<Tile> occupied = new ArrayList<Tile>();
+      for(int i = 0; i < numOfSubSteps; i++) {
+        moveTestVehicle(testVehicle, dummy,
+                        internalSimulationTimeStep / numOfSubSteps,
+                        accelerating);
+        distance += vehiclePos.distance(testVehicle.getPosition());
+        vehiclePos = testVehicle.getPosition();
+        addOccupiedTiles(testVehicle, occupiedIds, occupied);
+      }
+      footprint.add(new TileTimeFrame(vehiclePos, distance, occupied));
+    }
+    return footprint;
+  }
+
+  /**
+   * Get the worker pool in which the pre-made plans are precomputed.  The
+   * pool is created when it is first needed, with
+   * {@link SimConfig#PRECOMPUTATION_THREADS} threads.
+   *
+   * @return the worker pool; null if the pre-made plans should be
+   *         precomputed on the constructing thread
+   */
+  private static synchronized ForkJoinPool getPrecomputationPool() {
+    if (SimConfig.PRECOMPUTATION_THREADS <= 1) {
+      return null;
+    }
+    if (precomputationPool == null ||
+        precomputationPool.getParallelism() !=
+          SimConfig.PRECOMPUTATION_THREADS) {
+      if (precomputationPool != null) {
+        precomputationPool.shutdown();
+      }
+      precomputationPool = new ForkJoinPool(SimConfig.PRECOMPUTATION_THREADS);
+    }
+    return precomputationPool;
+  }
+
+  /**
+   * Get the velocity bucket of an arrival velocity.
+   *
+   * @param arrivalVelocity  the arrival velocity
+   * @return the velocity bucket
+   */
+  private static int calcVelocityBucket(double arrivalVelocity) {
+    return Math.max(0,
+      (int) Math.floor(arrivalVelocity / FOOTPRINT_VELOCITY_BUCKET_SIZE));
+  }
+
+  /**
+   * Get the key of a swept footprint in the cache of a pre-made plan.
+   *
+   * @param arrivalLaneId    the ID of the arrival lane
+   * @param departureLaneId  the ID of the departure lane
+   * @param velocityBucket   the velocity bucket of the arrival velocity
+   * @param accelerating     whether or not the vehicle accelerates
+   * @return the key
+   */
+  private static long calcFootprintKey(int arrivalLaneId,
+                                       int departureLaneId,
+                                       int velocityBucket,
+                                       boolean accelerating) {
+    return ((long) arrivalLaneId << 40)
+           | ((long) (departureLaneId & 0xFFFFFF) << 16)
+           | ((velocityBucket & 0x7FFF) << 1)
+           | (accelerating ? 1 : 0);
+  }
 
-        // Figure out how large of a time buffer to use, based on whether or
-        // not this is an edge tile
-        int buffer;
-        if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
-          buffer = edgeTileTimeBufferSteps;
+  /**
+   * Find a list of unreserved tile-times from the swept footprint of a
+   * pre-made plan.  The footprint is indexed by the distance travelled
+   * along the path, so only the timing has to be worked out: the distance
+   * travelled at every step of the internal simulation follows from the
+   * arrival velocity and the acceleration, and the tiles of the frame
+   * nearest to that distance are checked at the grid time step in which
+   * the step ends.  No vehicle is simulated.
+   * <p>
+   * The traversal is walked twice.  The first walk only checks the tile
+   * sets of the frames against the reservation grid, so that a rejected
+   * query allocates nothing; the second walk, made only if every frame is
+   * free, collects the tile-times.  If the reservations are not checked,
+   * only the second walk is made.
+   *
+   * @param frames           the swept footprint, in order of distance
+   * @param arrivalTime      the arrival time of the vehicle
+   * @param arrivalVelocity  the arrival velocity of the vehicle
+   * @param maxVelocity      the maximum velocity of the vehicle
+   * @param maxAcceleration  the maximum acceleration of the vehicle
+   * @param accelerating     whether or not to accelerate to the maximum
+   *                         velocity during the traversal
+   * @param isReservationChecked  whether or not to check the tile-times
+   *                              against the reservation grid
+   *
+   * @return A list of tiles that can be reserved by the vehicle. If returns
+   *         null, the trajectory hits some reserved tiles and the reservation
+   *         fails.
+   */
+  private FindTileTimesBySimulationResult
+            findTileTimesByFootprint(List<TileTimeFrame> frames,
+                                     double arrivalTime,
+                                     double arrivalVelocity,
+                                     double maxVelocity,
+                                     double maxAcceleration,
+                                     boolean accelerating,
+                                     boolean isReservationChecked) {
+    if (frames.isEmpty()) {
+      return null;
+    }
+    boolean isAccelerating = accelerating && arrivalVelocity < maxVelocity &&
+                             maxAcceleration > 0.0;
+    if (arrivalVelocity <= 0.0 && !isAccelerating) {
+      return null;  // the vehicle would never leave the intersection
+    }
+    double totalDistance = frames.get(frames.size() - 1).getDistance();
+
+    // The list of tile-times that will make up this reservation; null
+    // during the first walk
+    List<TimeTile> workingList =
+      isReservationChecked ? null : new ArrayList<TimeTile>();
+    for(int walk = 0; walk < 2; walk++) {
+      boolean isAcceleratingNow = isAccelerating;
+      // A discrete representation of the time throughout the traversal
+      // Notice that currentIntTime != arrivalTime
+      int arrivalIntTime = reservationGrid.calcDiscreteTime(arrivalTime);
+      int currentIntTime = arrivalIntTime;
+      // The number of steps of the traversal so far
+      int numOfSteps = 0;
+      // The duration in the current time interval
+      double currentDuration = reservationGrid.calcRemainingTime(arrivalTime);
+
+      double velocity = arrivalVelocity;
+      double distance = 0.0;
+      int index = 0;
+      int lastIndex = -1;
+      while(true) {
+        // Advance the vehicle by the duration
+        if (isAcceleratingNow) {
+          double accelDuration =
+            Math.min(currentDuration,
+                     (maxVelocity - velocity) / maxAcceleration);
+          distance += velocity * accelDuration
+                      + 0.5 * maxAcceleration * accelDuration * accelDuration;
+          velocity += maxAcceleration * accelDuration;
+          if (accelDuration < currentDuration) {
+            velocity = maxVelocity;
+            isAcceleratingNow = false;
+            distance += velocity * (currentDuration - accelDuration);
+          }
         } else {
-          buffer = internalTileTimeBufferSteps;
+          distance += velocity * currentDuration;
         }
-        int tileId = tile.getId();
-        for(int t = currentIntTime - buffer; t <= currentIntTime + buffer; t++){
-          // If the tile is already reserved and it isn't by us, we've failed
-          if (!reservationGrid.isReserved(t, tileId)) {
-            workingList.add(reservationGrid.new TimeTile(t, tile.getId()));
+        // Record that we've moved forward one step
+        numOfSteps++;
+        currentIntTime = arrivalIntTime + calcGridSteps(numOfSteps);
+        // Find the frame nearest to the distance
+        while(index + 1 < frames.size() &&
+              frames.get(index + 1).getDistance() <= distance) {
+          index++;
+        }
+        if (index + 1 < frames.size() &&
+            frames.get(index + 1).getDistance() - distance <
+            distance - frames.get(index).getDistance()) {
+          index++;
+        }
+        // The frames of steps longer than a grid time step hold the tiles
+        // swept during the steps, so the frames skipped since the last step,
+        // if the vehicle is faster than the footprint, are taken too
+        int firstIndex = (gridStepsPerInternalStep > 1.0)
+                         ? Math.min(lastIndex + 1, index)
+                         : index;
+        for(int i = firstIndex; i <= index; i++) {
+          TileTimeFrame frame = frames.get(i);
+          if (workingList == null) {
+            // Make sure none of these tiles are reserved by someone else
+            if (!isFree(frame, currentIntTime)) {
+              return null; // Failure! Just bail!
+            }
           } else {
-            return null; // Failure! Just bail!
+            addTimeTiles(frame.getTiles(), currentIntTime, workingList);
           }
         }
+        lastIndex = index;
+        if (distance >= totalDistance) {
+          break;  // the vehicle has left the intersection
+        }
+        currentDuration = internalSimulationTimeStep;
       }
-      currentFrame = new TileTimeFrame(testVehicle.gaugePosition(), occupied);
-      posBasedTiles.add(currentFrame);
-      currentDuration = reservationGrid.getGridTimeStep();
+
+      if (workingList != null) {
+        return new FindTileTimesBySimulationResult(workingList,
+                                                   reservationGrid
+                                                   .calcTime(currentIntTime),
+                                                   velocity);
+      }
+      // Every frame is free; walk again to collect the tile-times
+      workingList = new ArrayList<TimeTile>();
     }
-    vehiclePos.getX();
-    return new FindTileTimesBySimulationResult(workingList,
-    										   posBasedTiles,
-                                               reservationGrid
-                                               .calcTime(currentIntTime));
+    throw new RuntimeException("Error in footprint: the tile-times were "
+                               + "not collected");
+  }
+
+  /**
+   * Find the conflict points of the intersection and the tiles that cover
+   * them.  The points at which the paths of the movements cross are found
+   * by the conflict point generator, whose paths are ideal lines and arcs,
+   * and by tracing the paths that the vehicles actually drive.  The points
+   * at which the lanes enter and exit the intersection are conflict points
+   * too, so that the vehicles that follow or merge into one another are
+   * kept apart.  The points covered by the same tiles would always be
+   * occupied at the same times, so only one of them is kept.
+   */
+  private void initConflictPoints() {
+    List<Point2D> points = new ArrayList<Point2D>();
+    List<Point2D> crossings =
+      new ConflictPointGeneratorSimple().generateConflictPoints(intersection,
+                                                                false);
+    if (crossings != null) {
+      points.addAll(crossings);
+    }
+    for(Lane lane : intersection.getEntryLanes()) {
+      points.add(intersection.getEntryPoint(lane));
+    }
+    for(Lane lane : intersection.getExitLanes()) {
+      points.add(intersection.getExitPoint(lane));
+    }
+    points.addAll(findPathCrossings());
+    List<List<Integer>> tileSets = new ArrayList<List<Integer>>();
+    for(Point2D p : points) {
+      tileSets.add(findConflictPointTiles(p));
+    }
+    isConflictPointTile = new boolean[tiledArea.getNumberOfTiles()];
+    Set<List<Integer>> distinctTileSets = new HashSet<List<Integer>>();
+    List<int[]> pointTiles = new ArrayList<int[]>();
+    for(List<Integer> tileSet : tileSets) {
+      // skip the points outside the intersection and the duplicates
+      if (tileSet.isEmpty() || !distinctTileSets.add(tileSet)) {
+        continue;
+      }
+      int[] tids = new int[tileSet.size()];
+      for(int i = 0; i < tids.length; i++) {
+        tids[i] = tileSet.get(i);
+        isConflictPointTile[tids[i]] = true;
+      }
+      pointTiles.add(tids);
+    }
+    conflictPointTiles = pointTiles.toArray(new int[pointTiles.size()][]);
+  }
+
+  /**
+   * Find the tiles that cover a conflict point.
+   *
+   * @param p  the conflict point
+   * @return the IDs of the tiles in ascending order; empty if the point is
+   *         outside the intersection
+   */
+  private List<Integer> findConflictPointTiles(Point2D p) {
+    List<Tile> tiles = tiledArea.findOccupiedTiles(
+      new Rectangle2D.Double(p.getX() - CONFLICT_POINT_MARGIN,
+                             p.getY() - CONFLICT_POINT_MARGIN,
+                             2.0 * CONFLICT_POINT_MARGIN,
+                             2.0 * CONFLICT_POINT_MARGIN));
+    List<Integer> tileSet = new ArrayList<Integer>(tiles.size());
+    for(Tile tile : tiles) {
+      tileSet.add(tile.getId());
+    }
+    Collections.sort(tileSet);
+    return tileSet;
+  }
+
+  /**
+   * Find the points at which the paths of the movements from different
+   * arrival lanes cross.  The paths are traced by driving a test vehicle of
+   * every vehicle specification through the intersection, in the movements
+   * for which the pre-made plans are made.  Only the segments of the paths
+   * that pass through the same tile are tested for a crossing.  The paths
+   * of a movement differ a little from one specification to another, so
+   * the points at which two movements cross are averaged into one.
+   *
+   * @return the points at which the paths cross
+   */
+  private List<Point2D> findPathCrossings() {
+    List<Point2D[]> paths = new ArrayList<Point2D[]>();
+    List<Integer> pathLaneIds = new ArrayList<Integer>();
+    List<Integer> pathMovements = new ArrayList<Integer>();
+    for(int i = 0; i < VehicleSpecDatabase.getNumOfSpec(); i++) {
+      VehicleSpec vehicleSpec = VehicleSpecDatabase.getVehicleSpecById(i);
+      VehicleSpecForRequestMsg spec =
+        new VehicleSpecForRequestMsg(vehicleSpec);
+      double velocity =
+        (calcVelocityBucket(vehicleSpec.getMaxVelocity() * 0.14) + 0.5)
+        * FOOTPRINT_VELOCITY_BUCKET_SIZE;
+      for(Road entryRoad : intersection.getEntryRoads()) {
+        for(Lane entryLane : entryRoad.getLanes()) {
+          for(Road exitRoad : intersection.getExitRoads()) {
+            if (entryRoad.getDual() == exitRoad) {
+              continue;
+            }
+            for(Lane exitLane : exitRoad.getLanes()) {
+              if (entryRoad.getName().equals(exitRoad.getName()) &&
+                  exitLane.getId() != entryLane.getId()) {
+                continue;
+              }
+              List<TileTimeFrame> frames =
+                findFootprintBySimulation(spec, entryLane, exitLane,
+                                          velocity, velocity * 1.1, false);
+              Point2D[] path = new Point2D[frames.size() + 1];
+              path[0] = intersection.getEntryPoint(entryLane);
+              for(int j = 0; j < frames.size(); j++) {
+                path[j + 1] = frames.get(j).getPosition();
+              }
+              paths.add(path);
+              pathLaneIds.add(entryLane.getId());
+              pathMovements.add(entryLane.getId() * idToLane.length
+                                + exitLane.getId());
+            }
+          }
+        }
+      }
+    }
+    // the segments of the paths, as pairs of path and segment indices,
+    // that start in each tile
+    List<List<int[]>> tileSegments = new ArrayList<List<int[]>>();
+    for(int tid = 0; tid < tiledArea.getNumberOfTiles(); tid++) {
+      tileSegments.add(new ArrayList<int[]>());
+    }
+    for(int i = 0; i < paths.size(); i++) {
+      Point2D[] path = paths.get(i);
+      for(int j = 0; j + 1 < path.length; j++) {
+        for(int tid : findConflictPointTiles(path[j])) {
+          tileSegments.get(tid).add(new int[] { i, j });
+        }
+      }
+    }
+    // the sum of the coordinates and the number of the crossing points of
+    // each pair of movements
+    Map<Long,double[]> crossingSums = new LinkedHashMap<Long,double[]>();
+    long numOfMovements = (long)idToLane.length * idToLane.length;
+    for(List<int[]> segments : tileSegments) {
+      for(int a = 0; a < segments.size(); a++) {
+        int[] sa = segments.get(a);
+        for(int b = a + 1; b < segments.size(); b++) {
+          int[] sb = segments.get(b);
+          if (pathLaneIds.get(sa[0]).equals(pathLaneIds.get(sb[0]))) {
+            continue;
+          }
+          Point2D p = calcCrossingPoint(paths.get(sa[0])[sa[1]],
+                                        paths.get(sa[0])[sa[1] + 1],
+                                        paths.get(sb[0])[sb[1]],
+                                        paths.get(sb[0])[sb[1] + 1]);
+          if (p != null) {
+            int ma = pathMovements.get(sa[0]);
+            int mb = pathMovements.get(sb[0]);
+            long key = Math.min(ma, mb) * numOfMovements + Math.max(ma, mb);
+            double[] sum = crossingSums.get(key);
+            if (sum == null) {
+              sum = new double[3];
+              crossingSums.put(key, sum);
+            }
+            sum[0] += p.getX();
+            sum[1] += p.getY();
+            sum[2]++;
+          }
+        }
+      }
+    }
+    List<Point2D> crossings = new ArrayList<Point2D>(crossingSums.size());
+    for(double[] sum : crossingSums.values()) {
+      crossings.add(new Point2D.Double(sum[0] / sum[2], sum[1] / sum[2]));
+    }
+    return crossings;
+  }
+
+  /**
+   * Calculate the point at which two line segments cross.
+   *
+   * @param a1  the start point of the first segment
+   * @param a2  the end point of the first segment
+   * @param b1  the start point of the second segment
+   * @param b2  the end point of the second segment
+   * @return the point at which the segments cross; null if they do not
+   *         cross or if they are nearly parallel
+   */
+  private static Point2D calcCrossingPoint(Point2D a1, Point2D a2,
+                                           Point2D b1, Point2D b2) {
+    double ax = a2.getX() - a1.getX();
+    double ay = a2.getY() - a1.getY();
+    double bx = b2.getX() - b1.getX();
+    double by = b2.getY() - b1.getY();
+    double denominator = ax * by - ay * bx;
+    if (Math.abs(denominator) <=
+          MIN_CROSSING_ANGLE_SINE * Math.hypot(ax, ay) * Math.hypot(bx, by)) {
+      return null;
+    }
+    double cx = b1.getX() - a1.getX();
+    double cy = b1.getY() - a1.getY();
+    double s = (cx * by - cy * bx) / denominator;
+    double t = (cx * ay - cy * ax) / denominator;
+    if (s < 0.0 || s > 1.0 || t < 0.0 || t > 1.0) {
+      return null;
+    }
+    return new Point2D.Double(a1.getX() + s * ax, a1.getY() + s * ay);
+  }
+
+  /**
+   * Get the swept footprint of a query for a reservation in continuous
+   * time.  A vehicle whose specification is not registered has no pre-made
+   * plans, so its footprint is simulated.
+   *
+   * @param q              the query
+   * @param arrivalLane    the arrival lane
+   * @param departureLane  the departure lane
+   * @return the swept footprint
+   */
+  private List<TileTimeFrame> retrieveContinuousFootprint(Query q,
+                                                          Lane arrivalLane,
+                                                          Lane departureLane) {
+    List<TileTimeFrame> footprint =
+      retrieveFootprint(q, arrivalLane, departureLane);
+    if (footprint == null) {
+      footprint = findFootprintBySimulation(q.getSpec(),
+                                            arrivalLane,
+                                            departureLane,
+                                            q.getArrivalVelocity(),
+                                            q.getMaxTurnVelocity(),
+                                            q.isAccelerating());
+    }
+    return footprint;
+  }
+
+  /**
+   * Find the time interval during which each tile of a swept footprint is
+   * occupied.  The time at which the vehicle reaches every frame follows
+   * from the arrival velocity and the acceleration.  A tile is occupied
+   * from the frame before the first frame containing it to the frame after
+   * the last one, widened by the time buffer of the tile.
+   *
+   * @param frames           the swept footprint, in order of distance
+   * @param arrivalTime      the arrival time of the vehicle
+   * @param arrivalVelocity  the arrival velocity of the vehicle
+   * @param maxVelocity      the maximum velocity of the vehicle
+   * @param maxAcceleration  the maximum acceleration of the vehicle
+   * @param accelerating     whether or not to accelerate to the maximum
+   *                         velocity during the traversal
+   *
+   * @return the time intervals of the tiles; null if the vehicle would
+   *         never leave the intersection
+   */
+  private FindTileIntervalsResult
+            findTileIntervalsByFootprint(List<TileTimeFrame> frames,
+                                         double arrivalTime,
+                                         double arrivalVelocity,
+                                         double maxVelocity,
+                                         double maxAcceleration,
+                                         boolean accelerating) {
+    if (frames.isEmpty()) {
+      return null;
+    }
+    boolean isAccelerating = accelerating && arrivalVelocity < maxVelocity &&
+                             maxAcceleration > 0.0;
+    if (arrivalVelocity <= 0.0 && !isAccelerating) {
+      return null;  // the vehicle would never leave the intersection
+    }
+    int numOfFrames = frames.size();
+    double[] times = new double[numOfFrames];
+    for(int i = 0; i < numOfFrames; i++) {
+      times[i] = arrivalTime +
+                 calcTraversalTime(frames.get(i).getDistance(),
+                                   arrivalVelocity,
+                                   maxVelocity,
+                                   maxAcceleration,
+                                   isAccelerating);
+    }
+    // the first and the last frames at which each tile is occupied
+    int numOfTiles = tiledArea.getNumberOfTiles();
+    int[] firstFrames = new int[numOfTiles];
+    int[] lastFrames = new int[numOfTiles];
+    Arrays.fill(firstFrames, -1);
+    List<Tile> tiles = new ArrayList<Tile>();
+    for(int i = 0; i < numOfFrames; i++) {
+      for(Tile tile : frames.get(i).getTiles()) {
+        int tid = tile.getId();
+        if (isConflictPointTile != null && !isConflictPointTile[tid]) {
+          continue;
+        }
+        if (firstFrames[tid] < 0) {
+          firstFrames[tid] = i;
+          tiles.add(tile);
+        }
+        lastFrames[tid] = i;
+      }
+    }
+    ReservationIntervals.IntervalList intervals =
+      new ReservationIntervals.IntervalList();
+    if (conflictPointTiles != null) {
+      addConflictPointIntervals(intervals, firstFrames, lastFrames, times,
+                                arrivalTime);
+      tiles.clear();
+    }
+    for(Tile tile : tiles) {
+      double buffer;
+      if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
+        buffer = config.getEdgeTileTimeBufferSize();
+      } else {
+        buffer = config.getInternalTileTimeBufferSize();
+      }
+      int first = firstFrames[tile.getId()];
+      int last = lastFrames[tile.getId()];
+      double enter = (first > 0) ? times[first - 1] : arrivalTime;
+      double exit = times[Math.min(last + 1, numOfFrames - 1)];
+      intervals.add(tile.getId(), enter - buffer, exit + buffer);
+    }
+    double totalDistance = frames.get(numOfFrames - 1).getDistance();
+    double exitVelocity = isAccelerating
+      ? Math.min(maxVelocity,
+                 Math.sqrt(arrivalVelocity * arrivalVelocity
+                           + 2.0 * maxAcceleration * totalDistance))
+      : arrivalVelocity;
+    return new FindTileIntervalsResult(intervals,
+                                       times[numOfFrames - 1],
+                                       exitVelocity);
+  }
+
+  /**
+   * Add the time interval during which each conflict point is occupied.  A
+   * conflict point is occupied while the swept footprint covers any of the
+   * tiles around it, so the interval spans the length of the vehicle and
+   * the static buffer, and it is widened by the time buffer of the tiles.
+   *
+   * @param intervals    the time intervals to which to add
+   * @param firstFrames  the first frame at which each tile is occupied; -1
+   *                     if it is not occupied
+   * @param lastFrames   the last frame at which each tile is occupied
+   * @param times        the time at which the vehicle reaches every frame
+   * @param arrivalTime  the arrival time of the vehicle
+   */
+  private void addConflictPointIntervals(
+                 ReservationIntervals.IntervalList intervals,
+                 int[] firstFrames,
+                 int[] lastFrames,
+                 double[] times,
+                 double arrivalTime) {
+    for(int pid = 0; pid < conflictPointTiles.length; pid++) {
+      int first = Integer.MAX_VALUE;
+      int last = -1;
+      boolean isEdge = false;
+      for(int tid : conflictPointTiles[pid]) {
+        if (firstFrames[tid] >= 0) {
+          first = Math.min(first, firstFrames[tid]);
+          last = Math.max(last, lastFrames[tid]);
+          isEdge |= tiledArea.getTileById(tid).isEdgeTile();
+        }
+      }
+      if (last < 0) {
+        continue;  // the vehicle does not pass the conflict point
+      }
+      double buffer;
+      if (isEdgeTileTimeBufferEnabled && isEdge) {
+        buffer = config.getEdgeTileTimeBufferSize();
+      } else {
+        buffer = config.getInternalTileTimeBufferSize();
+      }
+      double enter = (first > 0) ? times[first - 1] : arrivalTime;
+      double exit = times[Math.min(last + 1, times.length - 1)];
+      intervals.add(pid, enter - buffer, exit + buffer);
+    }
+  }
+
+  /**
+   * Calculate the time a vehicle takes to travel a given distance, starting
+   * at the arrival velocity and accelerating, if it does, at the maximum
+   * acceleration until it reaches the maximum velocity.
+   *
+   * @param distance         the distance
+   * @param arrivalVelocity  the arrival velocity of the vehicle
+   * @param maxVelocity      the maximum velocity of the vehicle
+   * @param maxAcceleration  the maximum acceleration of the vehicle
+   * @param isAccelerating   whether or not the vehicle accelerates
+   * @return the time to travel the distance
+   */
+  private static double calcTraversalTime(double distance,
+                                          double arrivalVelocity,
+                                          double maxVelocity,
+                                          double maxAcceleration,
+                                          boolean isAccelerating) {
+    if (!isAccelerating) {
+      return distance / arrivalVelocity;
+    }
+    double accelDistance =
+      (maxVelocity * maxVelocity - arrivalVelocity * arrivalVelocity)
+      / (2.0 * maxAcceleration);
+    if (distance <= accelDistance) {
+      return (Math.sqrt(arrivalVelocity * arrivalVelocity
+                        + 2.0 * maxAcceleration * distance)
+              - arrivalVelocity) / maxAcceleration;
+    } else {
+      return (maxVelocity - arrivalVelocity) / maxAcceleration
+             + (distance - accelDistance) / maxVelocity;
+    }
+  }
+  /**
+   * Calculate the number of grid time steps that cover a time buffer.  The
+   * number is rounded up, so that the time buffer does not shrink when it
+   * is not a whole number of grid time steps.
+   *
+   * @param bufferSize    the size of the time buffer, in seconds
+   * @param gridTimeStep  the grid time step
+   * @return the number of grid time steps
+   */
+  private static int calcTimeBufferSteps(double bufferSize,
+                                         double gridTimeStep) {
+    return (int) Math.ceil(bufferSize / gridTimeStep
+                           - Constants.DOUBLE_EQUAL_PRECISION);
+  }
+
+  /**
+   * Calculate the number of grid time steps from the discrete arrival time
+   * to the end of a number of steps of the internal simulation.  The first
+   * step ends at the grid time step after the arrival time, and every later
+   * step lasts the time step of the internal simulation.
+   *
+   * @param numOfSteps  the number of steps of the internal simulation
+   * @return the number of grid time steps
+   */
+  private int calcGridSteps(int numOfSteps) {
+    return 1 + (int) Math.floor((numOfSteps - 1) * gridStepsPerInternalStep
+                                + Constants.DOUBLE_EQUAL_PRECISION);
+  }
+
+
+  /**
+   * Calculate the number of sub-steps into which a step of the internal
+   * simulation is split.  A step longer than a grid time step is split into
+   * sub-steps no longer than a grid time step, and the tiles occupied at
+   * every sub-step are taken for the step, so that the step does not skip
+   * the tiles swept by the vehicle between its samples.
+   *
+   * @param duration  the duration of the step
+   * @return the number of sub-steps
+   */
+  private int calcNumOfSubSteps(double duration) {
+    return Math.max(1,
+                    (int) Math.ceil(duration
+                                    / reservationGrid.getGridTimeStep()
+                                    - Constants.DOUBLE_EQUAL_PRECISION));
+  }
+
+  /**
+   * Add the tiles occupied by the test vehicle to a list of tiles, unless
+   * they are in the list already.
+   *
+   * @param testVehicle  the test vehicle
+   * @param occupiedIds  the buffer for the IDs of the occupied tiles
+   * @param occupied     the list of tiles
+   */
+  private void addOccupiedTiles(BasicAutoVehicle testVehicle,
+                                int[] occupiedIds,
+                                List<Tile> occupied) {
+    int numOfOccupied =
+      tiledArea.findOccupiedTileIds(calcCornerPoints(testVehicle),
+                                    occupiedIds);
+    for(int i = 0; i < numOfOccupied; i++) {
+      Tile tile = tiledArea.getTileById(occupiedIds[i]);
+      if (!occupied.contains(tile)) {
+        occupied.add(tile);
+      }
+    }
+  }
+
+  /**
+   * Get the corner points of the test vehicle, enlarged by the static
+   * buffer.  The points are rounded to single precision, like those of
+   * the shape of the vehicle, so that the same tiles are found.
+   *
+   * @param testVehicle  the test vehicle
+   * @return the corner points of the test vehicle
+   */
+  private Point2D[] calcCornerPoints(BasicAutoVehicle testVehicle) {
+    Point2D[] corners =
+      testVehicle.getSpec().getCornerPoints(staticBufferSize,
+                                            testVehicle.getPosition(),
+                                            testVehicle.getHeading());
+    for(Point2D p : corners) {
+      p.setLocation((float)p.getX(), (float)p.getY());
+    }
+    return corners;
+  }
+
+  /**
+   * Check whether the tiles occupied by the test vehicle at a discrete time,
+   * together with their time buffers, are free.  The tiles are packed into
+   * tile sets by the size of their time buffers, so that each time slice is
+   * checked a word at a time, and the coarse cells of the tiles are checked
+   * before the tiles themselves.
+   *
+   * @param frame           the tiles occupied by the test vehicle
+   * @param currentIntTime  the discrete time
+   *
+   * @return whether none of the time-tiles has been reserved
+   */
+  private boolean isFree(TileTimeFrame frame, int currentIntTime) {
+    int edgeBuffer = isEdgeTileTimeBufferEnabled ? edgeTileTimeBufferSteps
+                                                 : internalTileTimeBufferSteps;
+    int maxBuffer = Math.max(edgeBuffer, internalTileTimeBufferSteps);
+    for(int d = -maxBuffer; d <= maxBuffer; d++) {
+      int t = currentIntTime + d;
+      int absD = Math.abs(d);
+      if ((absD <= edgeBuffer &&
+           reservationGrid.isReserved(t, frame.edgeTileSet,
+                                      frame.edgeCellSet)) ||
+          (absD <= internalTileTimeBufferSteps &&
+           reservationGrid.isReserved(t, frame.internalTileSet,
+                                      frame.internalCellSet))) {
+        return false;
+      }
+    }
+    return true;
   }
-  
-  private FindTileTimesBySimulationResult findTileTimesBySimulation(BasicAutoVehicle testVehicle,
-          Driver dummy,
-          double arrivalTime,
-          boolean accelerating,
-          List<TileTimeFrame> tileTimeFrame) {
-	  
-	  //time tile frame initialization
-	  double dist = -1;
-	  double tempDist = 0;
-	  int index = 0;
-	  
-	  //get best starting index on tileTimeFrame array
-	  for(int i = Math.min(tileTimeFrame.size() - 2, 4); i >= 0; i--){
-		  //initialise dist
-		  if(dist == -1){
-			  dist = testVehicle.getPosition().distance(tileTimeFrame.get(i+1).getPosition());
-		  }
-		  tempDist = testVehicle.getPosition().distance(tileTimeFrame.get(i).getPosition());
-		  //compare distance with next point
-		  if(dist > tempDist){
-			  dist = tempDist;
-			  index = i;
-		  }
-	  }
-	  
-	// The area of the intersection
-	    Area areaPlus = intersection.getAreaPlus();
-	    // The following must be true because the test vehicle
-	    // starts at the entry point of the intersection.
-	    assert areaPlus.contains(testVehicle.getPointAtMiddleFront(
-	             Constants.DOUBLE_EQUAL_PRECISION));
-
-	    // The list of tile-times that will make up this reservation
-	    List<TimeTile> workingList = new ArrayList<TimeTile>();
-
-	    // A discrete representation of the time throughout the internal simulation
-	    // Notice that currentIntTime != arrivalTime
-	    //TODO use this for descrete time
-	    int currentIntTime = reservationGrid.calcDiscreteTime(arrivalTime);
-	    // The duration in the current time interval
-	    double currentDuration = reservationGrid.calcRemainingTime(arrivalTime);
-	    
-	    // drive the test vehicle until it leaves the intersection
-	    while(VehicleUtil.intersects(testVehicle, areaPlus)) {
-	      moveTestVehicle(testVehicle, dummy, currentDuration, accelerating);
-	      //note: tile steps assumed to be taken with fasted possible traversal speed
-	      //find if this or the next tile set is closest
-	      for(int j = index + 1; j < tileTimeFrame.size(); j++){
-	    	  dist = testVehicle.getPosition().distance(tileTimeFrame.get(j-1).getPosition());
-	    	  tempDist = testVehicle.getPosition().distance(tileTimeFrame.get(j).getPosition());
-		      if(dist < tempDist){
-		    	  index = j - 1;
-		    	  break;
-		      }
-	      }
-	      // Find out which tiles are occupied by the vehicle
-	      currentIntTime++;  // Record that we've moved forward one time step
-	      List<Tile> occupied = tileTimeFrame.get(index).getTiles();
-	      // Make sure none of these tiles are reserved by someone else already
-	      for(Tile tile : occupied) {
-
-	        // Figure out how large of a time buffer to use, based on whether or
-	        // not this is an edge tile
-	        int buffer;
-	        if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
-	          buffer = edgeTileTimeBufferSteps;
-	        } else {
-	          buffer = internalTileTimeBufferSteps;
-	        }
-	        int tileId = tile.getId();
-	        //TODO A.H - take time from here
-	        for(int t = currentIntTime - buffer; t <= currentIntTime + buffer; t++){
-	          // If the tile is already reserved and it isn't by us, we've failed
-	          if (!reservationGrid.isReserved(t, tileId)) {
-	            workingList.add(reservationGrid.new TimeTile(t, tile.getId()));
-	          } else {
-	            return null; // Failure! Just bail!
-	          }
-	        }
-	      }
-	      currentDuration = reservationGrid.getGridTimeStep();
-	    }
 
-	    return new FindTileTimesBySimulationResult(workingList,
-	                                               reservationGrid
-	                                               .calcTime(currentIntTime));
+  /**
+   * Add the time-tiles of the tiles occupied by the test vehicle at a
+   * discrete time, together with their time buffers, to the working list.
+   *
+   * @param occupied        the tiles occupied by the test vehicle
+   * @param currentIntTime  the discrete time
+   * @param workingList     the list of time-tiles of the reservation
+   */
+  private void addTimeTiles(List<Tile> occupied,
+                            int currentIntTime,
+                            List<TimeTile> workingList) {
+    for(Tile tile : occupied) {
+      // Figure out how large of a time buffer to use, based on whether or
+      // not this is an edge tile
+      int buffer;
+      if (isEdgeTileTimeBufferEnabled && tile.isEdgeTile()) {
+        buffer = edgeTileTimeBufferSteps;
+      } else {
+        buffer = internalTileTimeBufferSteps;
+      }
+      int tileId = tile.getId();
+      for(int t = currentIntTime - buffer; t <= currentIntTime + buffer; t++){
+        workingList.add(reservationGrid.new TimeTile(t, tileId));
+      }
+    }
   }
 
   /**
@@ -1432,7 +3502,20 @@ public class ReservationGridManager implements
    */
   public List<? extends Shape> getDebugShapes() {
 	  List<Path2D> reservedShapes = new ArrayList<Path2D>();
-    for(int i : reservationGrid.getReservedTilesAtTime(currentTime)) {
+    List<Integer> reservedTiles = (reservationIntervals != null)
+      ? reservationIntervals.getReservedTilesAtTime(currentTime)
+      : reservationGrid.getReservedTilesAtTime(currentTime);
+    if (conflictPointTiles != null) {
+      // show the tiles around the reserved conflict points
+      List<Integer> pointTiles = new ArrayList<Integer>();
+      for(int pid : reservedTiles) {
+        for(int tid : conflictPointTiles[pid]) {
+          pointTiles.add(tid);
+        }
+      }
+      reservedTiles = pointTiles;
+    }
+    for(int i : reservedTiles) {
     	if(i >= tiledArea.getNumberOfTiles()){
     		break;
     	}
@@ -0,0 +1,590 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The reservations of the tiles of an intersection in continuous time.
+ * Instead of a time-tile for every discrete time a tile is occupied, a
+ * reservation holds one [enter, exit) time interval per tile.  The
+ * intervals of each tile do not overlap, so they are kept sorted by their
+ * enter times and a conflict test is a binary search for the one interval
+ * that could overlap.  Unlike {@link ReservationArray}, the memory used by a
+ * reservation does not depend on a time step.
+ */
+public class ReservationIntervals {
+
+  /////////////////////////////////
+  // PUBLIC NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The [enter, exit) time intervals of a set of tiles, packed into parallel
+   * arrays.
+   */
+  public static class IntervalList {
+    /**
+     * The tile IDs.
+     */
+    private int[] tids = new int[16];
+    /**
+     * The times at which the tiles are entered.
+     */
+    private double[] enters = new double[16];
+    /**
+     * The times at which the tiles are left.
+     */
+    private double[] exits = new double[16];
+    /**
+     * The number of intervals.
+     */
+    private int size;
+    /**
+     * The latest time at which a tile is left.
+     */
+    private double lastExit = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Add a time interval.
+     *
+     * @param tid    the tile ID
+     * @param enter  the time at which the tile is entered
+     * @param exit   the time at which the tile is left
+     */
+    public void add(int tid, double enter, double exit) {
+      if (size == tids.length) {
+        tids = Arrays.copyOf(tids, size * 2);
+        enters = Arrays.copyOf(enters, size * 2);
+        exits = Arrays.copyOf(exits, size * 2);
+      }
+      tids[size] = tid;
+      enters[size] = enter;
+      exits[size] = exit;
+      size++;
+      if (exit > lastExit) {
+        lastExit = exit;
+      }
+    }
+
+    /**
+     * Get the number of intervals.
+     *
+     * @return the number of intervals
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Get the latest time at which a tile of this list is left.
+     *
+     * @return the latest exit time; negative infinity if the list is empty
+     */
+    public double getLastExitTime() {
+      return lastExit;
+    }
+
+    /**
+     * Get the tile ID of an interval.
+     *
+     * @param i  the index of the interval
+     * @return the tile ID
+     */
+    public int getTileId(int i) {
+      return tids[i];
+    }
+
+    /**
+     * Get the time at which the tile of an interval is entered.
+     *
+     * @param i  the index of the interval
+     * @return the enter time
+     */
+    public double getEnterTime(int i) {
+      return enters[i];
+    }
+
+    /**
+     * Get the time at which the tile of an interval is left.
+     *
+     * @param i  the index of the interval
+     * @return the exit time
+     */
+    public double getExitTime(int i) {
+      return exits[i];
+    }
+
+    /**
+     * Convert this list to a string representation.
+     */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("[");
+      for(int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        sb.append(String.format("TI(%d,%.3f,%.3f)",
+                                tids[i], enters[i], exits[i]));
+      }
+      return sb.append("]").toString();
+    }
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The reserved intervals of a tile, sorted by their enter times.
+   */
+  private static class TileIntervals {
+    /**
+     * The enter times of the intervals.
+     */
+    double[] enters = new double[4];
+    /**
+     * The exit times of the intervals.
+     */
+    double[] exits = new double[4];
+    /**
+     * The reservation IDs of the intervals.
+     */
+    int[] rids = new int[4];
+    /**
+     * The index of the first interval; the intervals before it have expired.
+     */
+    int head;
+    /**
+     * The number of intervals.
+     */
+    int size;
+
+    /**
+     * Find the last interval that is entered before a given time.
+     *
+     * @param time  the time
+     * @return the index of the interval; head - 1 if there is no such
+     *         interval
+     */
+    int findBefore(double time) {
+      int lo = head;
+      int hi = head + size - 1;
+      while(lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        if (enters[mid] < time) {
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return hi;
+    }
+
+    /**
+     * Find the exit time of the interval overlapping a given interval.
+     * Since the intervals do not overlap one another, only the last
+     * interval entered before the given interval is left can overlap it.
+     *
+     * @param enter  the enter time of the given interval
+     * @param exit   the exit time of the given interval
+     * @return the exit time of the overlapping interval; NaN if no interval
+     *         overlaps the given interval
+     */
+    double findOverlapExit(double enter, double exit) {
+      int i = findBefore(exit);
+      return (i >= head && exits[i] > enter) ? exits[i] : Double.NaN;
+    }
+
+    /**
+     * Insert an interval that overlaps no other interval.
+     *
+     * @param enter  the enter time
+     * @param exit   the exit time
+     * @param rid    the reservation ID
+     */
+    void insert(double enter, double exit, int rid) {
+      int i = findBefore(enter) + 1;
+      if (head + size == enters.length) {
+        if (head > 0) {
+          // reclaim the space of the expired intervals
+          System.arraycopy(enters, head, enters, 0, size);
+          System.arraycopy(exits, head, exits, 0, size);
+          System.arraycopy(rids, head, rids, 0, size);
+          i -= head;
+          head = 0;
+        } else {
+          enters = Arrays.copyOf(enters, size * 2);
+          exits = Arrays.copyOf(exits, size * 2);
+          rids = Arrays.copyOf(rids, size * 2);
+        }
+      }
+      System.arraycopy(enters, i, enters, i + 1, head + size - i);
+      System.arraycopy(exits, i, exits, i + 1, head + size - i);
+      System.arraycopy(rids, i, rids, i + 1, head + size - i);
+      enters[i] = enter;
+      exits[i] = exit;
+      rids[i] = rid;
+      size++;
+    }
+
+    /**
+     * Remove the interval of a reservation entered at a given time.
+     *
+     * @param enter  the enter time
+     * @param rid    the reservation ID
+     */
+    void remove(double enter, int rid) {
+      int i = findBefore(enter) + 1;
+      if (i < head + size && enters[i] == enter && rids[i] == rid) {
+        System.arraycopy(enters, i + 1, enters, i, head + size - i - 1);
+        System.arraycopy(exits, i + 1, exits, i, head + size - i - 1);
+        System.arraycopy(rids, i + 1, rids, i, head + size - i - 1);
+        size--;
+      }  // else the interval has expired
+    }
+
+    /**
+     * Remove the intervals that are left no later than a given time.
+     *
+     * @param time  the time
+     */
+    void removeBefore(double time) {
+      while(size > 0 && exits[head] <= time) {
+        head++;
+        size--;
+      }
+    }
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /**
+   * The reserved intervals of each tile, indexed by the tile ID.
+   */
+  private final TileIntervals[] tileIntervals;
+
+  /**
+   * A mapping from reservation IDs to the intervals of the reservations.
+   */
+  private final Map<Integer,IntervalList> ridToReservation;
+
+  /**
+   * A binary min-heap of the last exit times of the reservations.  An entry
+   * is stale if the reservation has been cancelled since it was added.
+   */
+  private double[] expiryTimes;
+
+  /**
+   * The reservation IDs of the entries of the expiry heap.
+   */
+  private int[] expiryRids;
+
+  /**
+   * The number of entries in the expiry heap.
+   */
+  private int expiryHeapSize;
+
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create a new reservation system.
+   *
+   * @param numOfTiles  The number of tiles in the intersection
+   */
+  public ReservationIntervals(int numOfTiles) {
+    tileIntervals = new TileIntervals[numOfTiles];
+    for(int tid = 0; tid < numOfTiles; tid++) {
+      tileIntervals[tid] = new TileIntervals();
+    }
+    ridToReservation = new HashMap<Integer,IntervalList>();
+    expiryTimes = new double[16];
+    expiryRids = new int[16];
+    expiryHeapSize = 0;
+  }
+
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Get the number of tiles
+   */
+  public int getNumberOfTiles() {
+    return tileIntervals.length;
+  }
+
+  /**
+   * Whether a tile has been reserved at any time in a given interval.
+   *
+   * @param tid    the tile ID
+   * @param enter  the start of the interval
+   * @param exit   the end of the interval
+   * @return whether the tile has been reserved in the interval
+   */
+  public boolean isReserved(int tid, double enter, double exit) {
+    return !Double.isNaN(tileIntervals[tid].findOverlapExit(enter, exit));
+  }
+
+  /**
+   * Whether any interval of a list has been reserved.
+   *
+   * @param intervals  the list of intervals
+   * @return whether any interval of the list has been reserved
+   */
+  public boolean isReserved(IntervalList intervals) {
+    for(int i = 0; i < intervals.size; i++) {
+      if (isReserved(intervals.tids[i], intervals.enters[i],
+                     intervals.exits[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check whether a given reservation ID exists
+   *
+   * @param rid  the reservation ID
+   * @return whether the reservation ID exists
+   */
+  public boolean hasReservation(int rid) {
+    return ridToReservation.containsKey(rid);
+  }
+
+  /**
+   * Find the earliest delay with which a list of intervals can be reserved.
+   * Whenever a delayed interval overlaps a reserved one, the delay jumps to
+   * the end of the reserved interval.
+   *
+   * @param intervals    the list of intervals
+   * @param latestDelay  the latest delay
+   * @return the earliest delay; NaN if there is none no later than the
+   *         latest delay
+   */
+  public double findEarliestDelay(IntervalList intervals,
+                                  double latestDelay) {
+    int size = intervals.size;
+    double delay = 0.0;
+    // the number of intervals in a row known to be free at the delay
+    int numOfFree = 0;
+    for(int i = 0; numOfFree < size; i = (i + 1) % size) {
+      double enter = intervals.enters[i] + delay;
+      double overlapExit =
+        tileIntervals[intervals.tids[i]]
+          .findOverlapExit(enter, intervals.exits[i] + delay);
+      if (Double.isNaN(overlapExit)) {
+        numOfFree++;
+      } else {
+        delay += overlapExit - enter;
+        if (delay > latestDelay) {
+          return Double.NaN;
+        }
+        numOfFree = 1;
+      }
+    }
+    return delay;
+  }
+
+  /**
+   * Make the reservation of a list of intervals with a given reservation id.
+   * If the reservation is not successful, no interval will be reserved.
+   *
+   * @param rid        the reservation ID
+   * @param intervals  the list of intervals
+   * @return whether the reservation is successful
+   */
+  public boolean reserve(int rid, IntervalList intervals) {
+    if (ridToReservation.containsKey(rid) || isReserved(intervals)) {
+      return false;
+    }
+    for(int i = 0; i < intervals.size; i++) {
+      tileIntervals[intervals.tids[i]].insert(intervals.enters[i],
+                                              intervals.exits[i],
+                                              rid);
+    }
+    ridToReservation.put(rid, intervals);
+    addExpiry(intervals.lastExit, rid);
+    return true;
+  }
+
+  /**
+   * Cancel a reservation
+   *
+   * @param rid  the reservation ID
+   * @return whether the cancellation is successful
+   */
+  public boolean cancel(int rid) {
+    IntervalList intervals = ridToReservation.remove(rid);
+    if (intervals != null) {
+      for(int i = 0; i < intervals.size; i++) {
+        tileIntervals[intervals.tids[i]].remove(intervals.enters[i], rid);
+      }
+      return true;
+    } else {
+      return false; // the rid is not found
+    }
+  }
+
+  /**
+   * Remove the reservations whose intervals all end no later than a given
+   * time.  Only the reservations that have expired since the last clean-up
+   * and their tiles are visited, so this can be called at every time step.
+   * The intervals that have ended in the tiles of those reservations are
+   * removed too; an interval that has ended never overlaps a query for a
+   * later time, so the others can wait for their own reservations.
+   *
+   * @param time  the time
+   */
+  public void cleanUp(double time) {
+    while(expiryHeapSize > 0 && expiryTimes[0] <= time) {
+      int rid = expiryRids[0];
+      removeExpiry();
+      IntervalList intervals = ridToReservation.get(rid);
+      if (intervals != null && intervals.lastExit <= time) {
+        ridToReservation.remove(rid);
+        for(int i = 0; i < intervals.size; i++) {
+          tileIntervals[intervals.tids[i]].removeBefore(time);
+        }
+      }  // else the entry is stale
+    }
+  }
+
+  /**
+   * Get the set of all reserved tiles at a given time.
+   *
+   * @param time  the time
+   * @return the list of tile IDs that are reserved at the given time.
+   */
+  public List<Integer> getReservedTilesAtTime(double time) {
+    List<Integer> tids = new ArrayList<Integer>();
+    for(int tid = 0; tid < tileIntervals.length; tid++) {
+      if (isReserved(tid, time, Math.nextUp(time))) {
+        tids.add(tid);
+      }
+    }
+    return tids;
+  }
+
+  /**
+   * Get the number of reservations.
+   *
+   * @return the number of reservations
+   */
+  public int getNumOfReservations() {
+    return ridToReservation.size();
+  }
+
+  /**
+   * Get the number of reserved intervals, including those that have ended
+   * but are still kept in their tiles.
+   *
+   * @return the number of reserved intervals
+   */
+  public int getNumOfIntervals() {
+    int n = 0;
+    for(TileIntervals ti : tileIntervals) {
+      n += ti.size;
+    }
+    return n;
+  }
+
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Add the expiry of a reservation to the expiry heap.
+   *
+   * @param lastExit  the last exit time of the reservation
+   * @param rid       the reservation ID
+   */
+  private void addExpiry(double lastExit, int rid) {
+    if (expiryHeapSize == expiryTimes.length) {
+      expiryTimes = Arrays.copyOf(expiryTimes, expiryHeapSize * 2);
+      expiryRids = Arrays.copyOf(expiryRids, expiryHeapSize * 2);
+    }
+    int i = expiryHeapSize++;
+    while(i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (expiryTimes[parent] <= lastExit) {
+        break;
+      }
+      expiryTimes[i] = expiryTimes[parent];
+      expiryRids[i] = expiryRids[parent];
+      i = parent;
+    }
+    expiryTimes[i] = lastExit;
+    expiryRids[i] = rid;
+  }
+
+  /**
+   * Remove the earliest expiry from the expiry heap.
+   */
+  private void removeExpiry() {
+    int last = --expiryHeapSize;
+    double time = expiryTimes[last];
+    int rid = expiryRids[last];
+    int i = 0;
+    while(true) {
+      int child = 2 * i + 1;
+      if (child >= expiryHeapSize) {
+        break;
+      }
+      if (child + 1 < expiryHeapSize &&
+          expiryTimes[child + 1] < expiryTimes[child]) {
+        child++;
+      }
+      if (time <= expiryTimes[child]) {
+        break;
+      }
+      expiryTimes[i] = expiryTimes[child];
+      expiryRids[i] = expiryRids[child];
+      i = child;
+    }
+    expiryTimes[i] = time;
+    expiryRids[i] = rid;
+  }
+}
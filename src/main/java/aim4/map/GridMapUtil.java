@@ -548,10 +548,19 @@ public class GridMapUtil {
    * @param layout       the map
    * @param currentTime  the current time
    * @param config       the reservation grid manager configuration
+   * @throws IllegalArgumentException if the configuration reserves time
+   *         intervals rather than time tiles, since the stop sign request
+   *         handlers read the last reserved time from the reservation grid
    */
   public static void setApproxStopSignManagers(GridMap layout,
                                                double currentTime,
                                          ReservationGridManager.Config config) {
+    if (config.getReservationMode() !=
+          ReservationGridManager.ReservationMode.TIME_TILES) {
+      throw new IllegalArgumentException(
+        "The stop sign managers cannot use the reservation mode " +
+        config.getReservationMode());
+    }
     layout.removeAllManagers();
     for(int column = 0; column < layout.getColumns(); column++) {
       for(int row = 0; row < layout.getRows(); row++) {
@@ -38,6 +38,15 @@ import aim4.config.Constants;
  */
 public class Reject extends I2VMessage {
 
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The earliest arrival time of a reject message that does not offer one.
+   */
+  public static final double NO_EARLIEST_ARRIVAL_TIME = -1.0;
+
   /////////////////////////////////
   // NESTED CLASSES
   /////////////////////////////////
@@ -109,6 +118,13 @@ public class Reject extends I2VMessage {
    */
   private Reason reason;
 
+  /**
+   * The earliest arrival time at which the intersection manager could find a
+   * clear path for the rejected request, as a counter-offer;
+   * {@link #NO_EARLIEST_ARRIVAL_TIME} if there is none.
+   */
+  private double earliestArrivalTime;
+
 
   /////////////////////////////////
   // CLASS CONSTRUCTORS
@@ -133,13 +149,46 @@ public class Reject extends I2VMessage {
                 int requestId,
                 double nextAllowedCommunication,
                 Reason reason) {
+    this(sourceID, destinationID, requestId, nextAllowedCommunication, reason,
+         NO_EARLIEST_ARRIVAL_TIME);
+  }
+
+  /**
+   * Constructor with specific reason for rejection, limit on when
+   * the next acceptable transmission is, and a counter-offer of the
+   * earliest arrival time.
+   *
+   * @param sourceID                 the ID number of the IntersectionManager
+   *                                 sending this message
+   * @param destinationID            the ID number of the Vehicle to which
+   *                                 this message is being sent
+   * @param requestId                the request id of the request message
+   *                                 this reject message corresponds to
+   * @param nextAllowedCommunication the time after which communication will
+   *                                 accepted by the IntersectionManager
+   * @param reason                   the reason this Reject message is being
+   *                                 sent
+   * @param earliestArrivalTime      the earliest arrival time at which the
+   *                                 IntersectionManager could find a clear
+   *                                 path; {@link #NO_EARLIEST_ARRIVAL_TIME}
+   *                                 if there is none
+   */
+  public Reject(int sourceID, int destinationID,
+                int requestId,
+                double nextAllowedCommunication,
+                Reason reason,
+                double earliestArrivalTime) {
     // Set the source and destination
     super(sourceID, destinationID);
     this.requestId = requestId;
     this.nextAllowedCommunication = nextAllowedCommunication;
     this.reason = reason;
+    this.earliestArrivalTime = earliestArrivalTime;
     messageType = Type.REJECT;
     size += Constants.ENUM_SIZE + Constants.DOUBLE_SIZE;
+    if (hasEarliestArrivalTime()) {
+      size += Constants.DOUBLE_SIZE;
+    }
   }
 
   /////////////////////////////////
@@ -176,6 +225,26 @@ public class Reject extends I2VMessage {
     return reason;
   }
 
+  /**
+   * Whether this Reject message offers an earliest arrival time.
+   *
+   * @return whether this Reject message offers an earliest arrival time
+   */
+  public boolean hasEarliestArrivalTime() {
+    return earliestArrivalTime >= 0.0;
+  }
+
+  /**
+   * Get the earliest arrival time at which the IntersectionManager could
+   * find a clear path for the rejected request.
+   *
+   * @return the earliest arrival time; {@link #NO_EARLIEST_ARRIVAL_TIME} if
+   *         there is none
+   */
+  public double getEarliestArrivalTime() {
+    return earliestArrivalTime;
+  }
+
   /////////////////////////////////
   // PUBLIC METHODS
   /////////////////////////////////
@@ -189,6 +258,9 @@ public class Reject extends I2VMessage {
            + ", requestID=" + requestId
            + ", nextcomm:" + String.format("%.2f", nextAllowedCommunication)
            + ", reason:" + reason
+           + (hasEarliestArrivalTime()
+              ? ", earliest:" + String.format("%.2f", earliestArrivalTime)
+              : "")
            + ")";
   }
 
@@ -41,12 +41,11 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import aim4.UDP.SimulatorSerialiser;
 import aim4.config.Debug;
@@ -111,6 +110,106 @@ public class AutoDriverOnlySimulator implements Simulator {
     }
   }
 
+  /**
+   * A task that lets the drivers of a range of vehicles act.  A driver only
+   * reads its vehicle's sensors and writes to its vehicle's outbox, so the
+   * drivers of different vehicles can act in parallel.
+   */
+  private static class DriverActTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of vehicles below which a task is not split further */
+    private static final int THRESHOLD = 8;
+
+    /** The vehicles */
+    private final VehicleSimView[] vehicles;
+    /** The index of the first vehicle */
+    private final int from;
+    /** The index after the last vehicle */
+    private final int to;
+
+    /**
+     * Create a task that lets the drivers of a range of vehicles act.
+     *
+     * @param vehicles  the vehicles
+     * @param from      the index of the first vehicle
+     * @param to        the index after the last vehicle
+     */
+    DriverActTask(VehicleSimView[] vehicles, int from, int to) {
+      this.vehicles = vehicles;
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for(int i = from; i < to; i++) {
+          vehicles[i].getDriver().act();
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new DriverActTask(vehicles, from, mid),
+                  new DriverActTask(vehicles, mid, to));
+      }
+    }
+  }
+
+  /**
+   * A task that lets a range of intersection managers act.  Each
+   * intersection manager owns its reservation grid, policy and outbox, so
+   * different intersection managers can act in parallel.
+   */
+  private static class IntersectionManagerActTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The intersection managers */
+    private final IntersectionManager[] ims;
+    /** The index of the first intersection manager */
+    private final int from;
+    /** The index after the last intersection manager */
+    private final int to;
+    /** The time step */
+    private final double timeStep;
+
+    /**
+     * Create a task that lets a range of intersection managers act.
+     *
+     * @param ims       the intersection managers
+     * @param from      the index of the first intersection manager
+     * @param to        the index after the last intersection manager
+     * @param timeStep  the time step
+     */
+    IntersectionManagerActTask(IntersectionManager[] ims, int from, int to,
+                               double timeStep) {
+      this.ims = ims;
+      this.from = from;
+      this.to = to;
+      this.timeStep = timeStep;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void compute() {
+      if (to - from <= 1) {
+        for(int i = from; i < to; i++) {
+          ims[i].act(timeStep);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new IntersectionManagerActTask(ims, from, mid, timeStep),
+                  new IntersectionManagerActTask(ims, mid, to, timeStep));
+      }
+    }
+  }
+
   /////////////////////////////////
   // PRIVATE FIELDS
   /////////////////////////////////
@@ -119,6 +218,20 @@ public class AutoDriverOnlySimulator implements Simulator {
   private BasicMap basicMap;
   /** All active vehicles, in form of a map from VINs to vehicle objects. */
   private Map<Integer,VehicleSimView> vinToVehicles;
+  /** The order of the active vehicles on the lanes */
+  private LaneVehicleIndex laneVehicleIndex;
+  /** The bounding boxes of the active vehicles */
+  private VehicleSpatialIndex vehicleSpatialIndex;
+  /**
+   * The pool of threads on which the drivers act; null if the drivers act
+   * on the simulation thread.
+   */
+  private ForkJoinPool driverPool;
+  /**
+   * The pool of threads on which the intersection managers act; null if the
+   * intersection managers act on the simulation thread.
+   */
+  private ForkJoinPool imPool;
   /** The current time */
   private double currentTime;
   /** The number of completed vehicles */
@@ -147,8 +260,25 @@ public class AutoDriverOnlySimulator implements Simulator {
    * @param basicMap             the map of the simulation
    */
   public AutoDriverOnlySimulator(BasicMap basicMap) {
+    this(basicMap, true);
+  }
+
+  /**
+   * Create an instance of the simulator.
+   *
+   * @param basicMap             the map of the simulation
+   * @param isSimCreatorLinked   whether the simulator exchanges vehicle
+   *                             states with the SimCreator simulators over
+   *                             UDP; headless batch runs should turn it off
+   */
+  public AutoDriverOnlySimulator(BasicMap basicMap,
+                                 boolean isSimCreatorLinked) {
     this.basicMap = basicMap;
     this.vinToVehicles = new HashMap<Integer,VehicleSimView>();
+    this.laneVehicleIndex = new LaneVehicleIndex(basicMap);
+    this.vehicleSpatialIndex =
+      new VehicleSpatialIndex(basicMap.getDimensions(),
+                              VehicleSpatialIndex.DEFAULT_CELL_SIZE);
 
     currentTime = 0.0;
     numOfCompletedVehicles = 0;
@@ -169,9 +299,14 @@ public class AutoDriverOnlySimulator implements Simulator {
     //simSerialiser.setVinToVehicles(timeStep,vinToVehicles);
     
     
-    simSerializer = new SimulatorSerialiser(this,2502, "192.168.1.143");
-    
     simCreatorConnections = new ArrayList<SimulatorSerialiser>();
+    if (!isSimCreatorLinked) {
+      simSerializer = null;
+      hasRun = true;
+      return;
+    }
+
+    simSerializer = new SimulatorSerialiser(this,2502, "192.168.1.143");
     
     simCreatorConnections.add(new SimulatorSerialiser(this,2504, "192.168.0.4",SimulatorSerialiser.ODPair.SOUTH_NORTH)); //sim3
     simCreatorConnections.add(new SimulatorSerialiser(this,2506, "192.168.0.5",SimulatorSerialiser.ODPair.WEST_NORTH)); //sim4
@@ -206,6 +341,39 @@ public class AutoDriverOnlySimulator implements Simulator {
   // PUBLIC METHODS
   /////////////////////////////////
 
+  // settings
+
+  /**
+   * Set the number of threads on which the drivers act.  With more than one
+   * thread the drivers act in parallel; the messages they send are still
+   * delivered in the same order, so the results are identical to those of
+   * a single thread.
+   *
+   * @param numOfThreads  the number of threads
+   */
+  public synchronized void setNumOfDriverThreads(int numOfThreads) {
+    if (driverPool != null) {
+      driverPool.shutdown();
+    }
+    driverPool = (numOfThreads > 1) ? new ForkJoinPool(numOfThreads) : null;
+  }
+
+  /**
+   * Set the number of threads on which the intersection managers act.  With
+   * more than one thread the intersection managers act in parallel; their
+   * outboxes are still delivered in the order of the intersection managers
+   * in the map, so the results are identical to those of a single thread.
+   *
+   * @param numOfThreads  the number of threads
+   */
+  public synchronized void setNumOfIntersectionManagerThreads(
+                             int numOfThreads) {
+    if (imPool != null) {
+      imPool.shutdown();
+    }
+    imPool = (numOfThreads > 1) ? new ForkJoinPool(numOfThreads) : null;
+  }
+
   // the main loop
 
   /**
@@ -397,6 +565,8 @@ public class AutoDriverOnlySimulator implements Simulator {
     }
 
     vinToVehicles.put(vehicle.getVIN(), vehicle);
+    laneVehicleIndex.updateVehicle(vehicle);
+    vehicleSpatialIndex.updateVehicle(vehicle);
   }
 
 
@@ -414,6 +584,7 @@ public class AutoDriverOnlySimulator implements Simulator {
    * @param timeStep  the time step
    */
   private void spawnVehicles(double timeStep) {
+	  syncVehicleIndices();
 	  SpawnPoint tempSpawnPoint = null;
     for(SpawnPoint spawnPoint : basicMap.getSpawnPoints()) {
       List<SpawnSpec> spawnSpecs = spawnPoint.act(timeStep);
@@ -425,7 +596,8 @@ public class AutoDriverOnlySimulator implements Simulator {
 		        	VehicleSimView vehicle = makeVehicle(tempSpawnPoint, spawnSpec);
 		        	VinRegistry.registerVehicle(vehicle); // Get vehicle a VIN number
 		        	vinToVehicles.put(vehicle.getVIN(), vehicle);
-		        	
+		        	laneVehicleIndex.updateVehicle(vehicle);
+		        	vehicleSpatialIndex.updateVehicle(vehicle);
 	        	}
 	        	break; // only handle the first spawn vehicle
 		               // TODO: need to fix this
@@ -468,33 +640,30 @@ public class AutoDriverOnlySimulator implements Simulator {
    * @return Whether the spawn point can spawn any vehicle
    */
   public boolean canSpawnVehicle(SpawnPoint spawnPoint) {
-    // TODO: can be made much faster.
     Rectangle2D noVehicleZone = spawnPoint.getNoVehicleZone();
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-      if (vehicle.getShape().intersects(noVehicleZone)) {
-        return false;
-      }
-      //disable spawns where destination involves turning left from right lane or right from left lane
-      //if vehicle is turning
-      try {
-	      /*if(vehicle.getDriver().getCurrentLane().getInitialHeading() != vehicle.getDriver().getDestination().getIndexLane().getInitialHeading()){
-	    	  //if vehicle is in left Lane
-	    	  if(!vehicle.getDriver().getCurrentLane().hasLeftNeighbor()){
-	    		  //if destination heading is within 180 degrees turning left
-	    		  if(){
-	    			  resolveHeadingChange(vehicle.getDriver().getCurrentLane().getInitialHeading(), vehicle.getDriver().getDestination().getIndexLane().getInitialHeading());
-	    		  }//put in if statement
-	    	  }
-	    	  Lane init = vehicle.getDriver().getCurrentLane();
-	    	  Lane dest = vehicle.getDriver().getDestination().getLanes().get(0);
-	
-	    	  return true;
-	      }*/
-      } catch(Exception e){
-    	  //do something in case of exception
+    return !vehicleSpatialIndex.intersectsAnyVehicle(noVehicleZone);
+  }
+
+  /**
+   * Bring the vehicle indices up to date with vehicles that were added,
+   * removed or moved without going through the simulator, such as the
+   * vehicles of the SimCreator simulators.
+   */
+  private void syncVehicleIndices() {
+    if (laneVehicleIndex.size() != vinToVehicles.size()) {
+      laneVehicleIndex.updateAll(vinToVehicles.values());
+    }
+    if (vehicleSpatialIndex.size() != vinToVehicles.size()) {
+      vehicleSpatialIndex.updateAll(vinToVehicles.values());
+    }
+    for(SimulatorSerialiser simConnect : simCreatorConnections) {
+      VehicleSimView playerVehicle = simConnect.getPlayerVehicle();
+      if (playerVehicle != null
+          && vinToVehicles.get(playerVehicle.getVIN()) == playerVehicle) {
+        laneVehicleIndex.updateVehicle(playerVehicle);
+        vehicleSpatialIndex.updateVehicle(playerVehicle);
       }
     }
-    return true;
   }
 
   /**
@@ -537,65 +706,6 @@ public class AutoDriverOnlySimulator implements Simulator {
   // STEP 2
   /////////////////////////////////
 
-  /**
-   * Compute the lists of vehicles of all lanes.
-   *
-   * @return a mapping from lanes to lists of vehicles sorted by their
-   *         distance on their lanes
-   */
-  private Map<Lane,SortedMap<Double,VehicleSimView>> computeVehicleLists() {
-    // Set up the structure that will hold all the Vehicles as they are
-    // currently ordered in the Lanes
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists =
-      new HashMap<Lane,SortedMap<Double,VehicleSimView>>();
-    for(Road road : basicMap.getRoads()) {
-      for(Lane lane : road.getLanes()) {
-        vehicleLists.put(lane, new TreeMap<Double,VehicleSimView>());
-      }
-    }
-    // Now add each of the Vehicles, but make sure to exclude those that are
-    // already inside (partially or entirely) the intersection
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-    	/*if(simSerializer.getProxyVehicles().contains(vehicle)){
-    		Point2D test = vehicle.gaugePosition();
-    		test.getX();
-    		test.getY();
-    	}*/
-      // Find out what lanes it is in.
-      Set<Lane> lanes = vehicle.getDriver().getCurrentlyOccupiedLanes();
-      for(Lane lane : lanes) {
-        // Find out what IntersectionManager is coming up for this vehicle
-        IntersectionManager im =
-          lane.getLaneIM().nextIntersectionManager(vehicle.getPosition());
-        // Only include this Vehicle if it is not in the intersection.
-        if(lane.getLaneIM().distanceToNextIntersection(vehicle.getPosition())>0
-            || im == null || !im.intersects(vehicle.getShape().getBounds2D())) {
-          // Now find how far along the lane it is.
-          double dst = lane.distanceAlongLane(vehicle.getPosition());
-          // Now add it to the map.
-          vehicleLists.get(lane).put(dst, vehicle);
-        }
-      }
-    }
-    // Now consolidate the lists based on lanes
-    for(Road road : basicMap.getRoads()) {
-      for(Lane lane : road.getLanes()) {
-        // We may have already removed this Lane from the map
-        if(vehicleLists.containsKey(lane)) {
-          Lane currLane = lane;
-          // Now run through the lanes
-          while(currLane.hasNextLane()) {
-            currLane = currLane.getNextLane();
-            // Put everything from the next lane into the original lane
-            // and remove the mapping for the next lane
-            vehicleLists.get(lane).putAll(vehicleLists.remove(currLane));
-          }
-        }
-      }
-    }
-
-    return vehicleLists;
-  }
   /**
    * determines whether congestion on a particular road unnecessarily slows down straight traffic
    * If so, outputs the spawn point of a neighboring lane in the road experiencing the least congestion
@@ -707,64 +817,28 @@ public class AutoDriverOnlySimulator implements Simulator {
 	  return false;
   }
 
-  /**
-   * Compute the next vehicles of all vehicles.
-   *
-   * @param vehicleLists  a mapping from lanes to lists of vehicles sorted by
-   *                      their distance on their lanes
-   * @return a mapping from vehicles to next vehicles
-   */
-  private Map<VehicleSimView, VehicleSimView> computeNextVehicle(
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists) {
-    // At this point we should only have mappings for start Lanes, and they
-    // should include all the Lanes they run into.  Now we need to turn this
-    // into a hash map that maps Vehicles to the next vehicle in the Lane
-    // or any Lane the Lane runs into
-    Map<VehicleSimView, VehicleSimView> nextVehicle =
-      new HashMap<VehicleSimView,VehicleSimView>();
-    // For each of the ordered lists of vehicles
-    for(SortedMap<Double,VehicleSimView> vehicleList : vehicleLists.values()) {
-      VehicleSimView lastVehicle = null;
-      // Go through the Vehicles in order of their position in the Lane
-      for(VehicleSimView currVehicle : vehicleList.values()) {
-        if(lastVehicle != null) {
-          // Create the mapping from the previous Vehicle to the current one
-          nextVehicle.put(lastVehicle,currVehicle);
-        }
-        lastVehicle = currVehicle;
-      }
-    }
-
-    return nextVehicle;
-  }
-
   /**
    * Provide each vehicle with sensor information to allow it to make
-   * decisions.  This works first by making an ordered list for each Lane of
-   * all the vehicles in that Lane, in order from the start of the Lane to
-   * the end of the Lane.  We must make sure to leave out all vehicles that
-   * are in the intersection.  We must also concatenate the lists for lanes
-   * that feed into one another.  Then, for each vehicle, depending on the
-   * state of its sensors, we provide it with the appropriate sensor input.
+   * decisions.  This works on the ordered lists of the vehicles in each
+   * Lane, in order from the start of the Lane to the end of the Lane, that
+   * the lane vehicle index maintains as the vehicles move.  The index leaves
+   * out all vehicles that are in the intersection and concatenates the lists
+   * for lanes that feed into one another.  Then, for each vehicle, depending
+   * on the state of its sensors, we provide it with the appropriate sensor
+   * input.
    */
   private void provideSensorInput() {
-    Map<Lane,SortedMap<Double,VehicleSimView>> vehicleLists =
-      computeVehicleLists();
-    Map<VehicleSimView, VehicleSimView> nextVehicle =
-      computeNextVehicle(vehicleLists);
+    laneVehicleIndex.reorder();
 
-    provideIntervalInfo(nextVehicle);
-    provideVehicleTrackingInfo(vehicleLists);
+    provideIntervalInfo();
+    provideVehicleTrackingInfo();
     provideTrafficSignal();
   }
 
   /**
    * Provide sensing information to the intervalometers of all vehicles.
-   *
-   * @param nextVehicle  a mapping from vehicles to next vehicles
    */
-  private void provideIntervalInfo(
-    Map<VehicleSimView, VehicleSimView> nextVehicle) {
+  private void provideIntervalInfo() {
 
     // Now that we have this list set up, let's provide input to all the
     // Vehicles.
@@ -777,11 +851,13 @@ public class AutoDriverOnlySimulator implements Simulator {
         case DISABLED:
           // Find the interval to the next vehicle
           double interval;
+          VehicleSimView nextVehicle =
+            laneVehicleIndex.getNextVehicle(autoVehicle);
           // If there is a next vehicle, then calculate it
-          if(nextVehicle.containsKey(autoVehicle)) {
+          if(nextVehicle != null) {
             // It's the distance from the front of this Vehicle to the point
             // at the rear of the Vehicle in front of it
-            interval = calcInterval(autoVehicle, nextVehicle.get(autoVehicle));
+            interval = calcInterval(autoVehicle, nextVehicle);
           } else { // Otherwise, just set it to the maximum possible value
             interval = Double.MAX_VALUE;
           }
@@ -808,12 +884,8 @@ public class AutoDriverOnlySimulator implements Simulator {
 
   /**
    * Provide tracking information to vehicles.
-   *
-   * @param vehicleLists  a mapping from lanes to lists of vehicles sorted by
-   *                      their distance on their lanes
    */
-  private void provideVehicleTrackingInfo(
-    Map<Lane, SortedMap<Double, VehicleSimView>> vehicleLists) {
+  private void provideVehicleTrackingInfo() {
     // Vehicle Tracking
     for(VehicleSimView vehicle: vinToVehicles.values()) {
       // If the vehicle is autonomous
@@ -829,29 +901,22 @@ public class AutoDriverOnlySimulator implements Simulator {
           // initialize the distances to infinity
           double frontDst = Double.MAX_VALUE;
           double rearDst = Double.MAX_VALUE;
-          VehicleSimView frontVehicle = null ;
-          VehicleSimView rearVehicle = null ;
-
-          // only consider the vehicles on the target lane
-          SortedMap<Double,VehicleSimView> vehiclesOnTargetLane =
-            vehicleLists.get(targetLane);
 
-          // compute the distances and the corresponding vehicles
-          try {
-            double d = vehiclesOnTargetLane.tailMap(dst).firstKey();
-            frontVehicle = vehiclesOnTargetLane.get(d);
+          // only consider the vehicles on the target lane, and compute the
+          // distances and the corresponding vehicles
+          VehicleSimView frontVehicle =
+            laneVehicleIndex.getFrontVehicle(targetLane, dst);
+          if (frontVehicle != null) {
+            double d =
+              laneVehicleIndex.getFrontVehicleDistance(targetLane, dst);
             frontDst = (d-dst)-frontVehicle.getSpec().getLength();
-          } catch(NoSuchElementException e) {
-            frontDst = Double.MAX_VALUE;
-            frontVehicle = null;
           }
-          try {
-            double d = vehiclesOnTargetLane.headMap(dst).lastKey();
-            rearVehicle = vehiclesOnTargetLane.get(d);
+          VehicleSimView rearVehicle =
+            laneVehicleIndex.getRearVehicle(targetLane, dst);
+          if (rearVehicle != null) {
+            double d =
+              laneVehicleIndex.getRearVehicleDistance(targetLane, dst);
             rearDst = dst-d;
-          } catch(NoSuchElementException e) {
-            rearDst = Double.MAX_VALUE;
-            rearVehicle = null;
           }
 
           // assign the sensor readings
@@ -977,8 +1042,14 @@ public class AutoDriverOnlySimulator implements Simulator {
    * Allow each driver to act.
    */
   private void letDriversAct() {
-    for(VehicleSimView vehicle : vinToVehicles.values()) {
-      vehicle.getDriver().act();
+    if (driverPool == null) {
+      for(VehicleSimView vehicle : vinToVehicles.values()) {
+        vehicle.getDriver().act();
+      }
+    } else {
+      VehicleSimView[] vehicles =
+        vinToVehicles.values().toArray(new VehicleSimView[0]);
+      driverPool.invoke(new DriverActTask(vehicles, 0, vehicles.length));
     }
   }
 
@@ -992,11 +1063,18 @@ public class AutoDriverOnlySimulator implements Simulator {
    * @param timeStep  the time step
    */
   private void letIntersectionManagersAct(double timeStep) {
-    for(IntersectionManager im : basicMap.getIntersectionManagers()) {
-    	/*if(im instanceof V2IManager ){//&& currentTime >= 3.2 && currentTime <= 3.4){
-    		((V2IManager) im).resetReservationGrid(10);
-    	}*/
-      im.act(timeStep);
+    if (imPool == null) {
+      for(IntersectionManager im : basicMap.getIntersectionManagers()) {
+      	/*if(im instanceof V2IManager ){//&& currentTime >= 3.2 && currentTime <= 3.4){
+      		((V2IManager) im).resetReservationGrid(10);
+      	}*/
+        im.act(timeStep);
+      }
+    } else {
+      IntersectionManager[] ims =
+        basicMap.getIntersectionManagers().toArray(new IntersectionManager[0]);
+      imPool.invoke(new IntersectionManagerActTask(ims, 0, ims.length,
+                                                   timeStep));
     }
   }
 
@@ -1172,6 +1250,8 @@ public class AutoDriverOnlySimulator implements Simulator {
     for(VehicleSimView vehicle : vinToVehicles.values()) {
       Point2D p1 = vehicle.getPosition();
       vehicle.move(timeStep);
+      laneVehicleIndex.updateVehicle(vehicle);
+      vehicleSpatialIndex.updateVehicle(vehicle);
       Point2D p2 = vehicle.getPosition();
       for(DataCollectionLine line : basicMap.getDataCollectionLines()) {
         line.intersect(vehicle, currentTime, p1, p2);
@@ -1195,26 +1275,24 @@ public class AutoDriverOnlySimulator implements Simulator {
   private List<Integer> cleanUpCompletedVehicles() {
     List<Integer> completedVINs = new LinkedList<Integer>();
 
-    Rectangle2D mapBoundary = basicMap.getDimensions();
-
-    List<Integer> removedVINs = new ArrayList<Integer>(vinToVehicles.size());
-    for(int vin : vinToVehicles.keySet()) {
-      VehicleSimView v = vinToVehicles.get(vin);
-      // If the vehicle is no longer in the layout
-      // TODO: this should be replaced with destination zone.
-      if(!v.getShape().intersects(mapBoundary)) {
-        // Process all the things we need to from this vehicle
-        if (v instanceof AutoVehicleSimView) {
-          AutoVehicleSimView v2 = (AutoVehicleSimView)v;
-          totalBitsTransmittedByCompletedVehicles += v2.getBitsTransmitted();
-          totalBitsReceivedByCompletedVehicles += v2.getBitsReceived();
-        }
-        removedVINs.add(vin);
+    // If the vehicle is no longer in the layout
+    // TODO: this should be replaced with destination zone.
+    List<VehicleSimView> removedVehicles = new ArrayList<VehicleSimView>();
+    vehicleSpatialIndex.getVehiclesOutside(removedVehicles);
+    for(VehicleSimView v : removedVehicles) {
+      // Process all the things we need to from this vehicle
+      if (v instanceof AutoVehicleSimView) {
+        AutoVehicleSimView v2 = (AutoVehicleSimView)v;
+        totalBitsTransmittedByCompletedVehicles += v2.getBitsTransmitted();
+        totalBitsReceivedByCompletedVehicles += v2.getBitsReceived();
       }
     }
     // Remove the marked vehicles
-    for(int vin : removedVINs) {
+    for(VehicleSimView v : removedVehicles) {
+      int vin = v.getVIN();
       vinToVehicles.remove(vin);
+      laneVehicleIndex.removeVehicle(v);
+      vehicleSpatialIndex.removeVehicle(v);
       completedVINs.add(vin);
       numOfCompletedVehicles++;
     }
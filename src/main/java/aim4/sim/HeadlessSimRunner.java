@@ -0,0 +1,383 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import aim4.config.SimConfig;
+import aim4.im.v2i.reservation.ReservationGridManager;
+import aim4.im.v2i.reservation.ReservationGridManager.ReservationMode;
+import aim4.sim.Simulator.SimStepResult;
+import aim4.sim.setup.AutoDriverOnlySimSetup;
+import aim4.sim.setup.AutoDriverOnlySimSetup.ModeType;
+import aim4.sim.setup.SimFactory;
+import aim4.util.Util;
+
+/**
+ * A runner that steps a simulator without any GUI, for batch experiments.
+ * <p>
+ * The simulation setup is read from an optional properties file followed by
+ * any number of <code>key=value</code> arguments, which override the values
+ * in the file.  The recognized keys are listed in {@link #USAGE}.  The
+ * simulation runs until {@link SimConfig#TOTAL_SIMULATION_TIME} and then
+ * prints the throughput of the run.
+ */
+public class HeadlessSimRunner {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The usage message */
+  public static final String USAGE =
+    "Usage: java aim4.sim.HeadlessSimRunner [file.properties] [key=value]...\n"
+    + "Keys (defaults in brackets):\n"
+    + "  columns [1]  rows [1]  laneWidth [3.6]  speedLimit [25.0]\n"
+    + "  lanesPerRoad [2]  medianSize [0.0]  distanceBetween [150.0]\n"
+    + "  trafficLevel [0.28]  stopDistance [1.0]\n"
+    + "  mode [FCFS_MODE]  processingInterval [batch mode default]\n"
+    + "  staticBuffer [0.25]  internalTileTimeBuffer [0.1]\n"
+    + "  edgeTileTimeBuffer [0.25]  edgeTileTimeBufferEnabled [true]\n"
+    + "  granularity [1.0]  totalTime [required, in seconds]  seed [random]\n"
+    + "  driverThreads [1]  imThreads [1]\n"
+    + "  footprintLibrary [none, a directory for precomputed footprints]\n"
+    + "  precomputeThreads [1]  proposalThreads [1]\n"
+    + "  precomputeFootprints [false]\n"
+    + "  concurrentGrid [false]  continuousTime [false]\n"
+    + "  conflictPoints [false]  movementPrefilter [false]\n"
+    + "  gridTimeStep [1/60]  internalTimeStep [gridTimeStep]\n";
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The throughput report of a headless run.
+   */
+  public static class RunReport {
+    /** The number of simulation steps */
+    private final long numOfSteps;
+    /** The simulated time in seconds */
+    private final double simulatedTime;
+    /** The wall-clock time spent creating the simulator in seconds */
+    private final double setupWallTime;
+    /** The wall-clock time spent stepping the simulator in seconds */
+    private final double runWallTime;
+    /** The number of completed vehicles */
+    private final int numOfCompletedVehicles;
+    /** The number of vehicles still active at the end of the run */
+    private final int numOfActiveVehicles;
+
+    /**
+     * Create a throughput report.
+     *
+     * @param numOfSteps              the number of simulation steps
+     * @param simulatedTime           the simulated time in seconds
+     * @param setupWallTime           the wall-clock setup time in seconds
+     * @param runWallTime             the wall-clock run time in seconds
+     * @param numOfCompletedVehicles  the number of completed vehicles
+     * @param numOfActiveVehicles     the number of active vehicles
+     */
+    public RunReport(long numOfSteps, double simulatedTime,
+                     double setupWallTime, double runWallTime,
+                     int numOfCompletedVehicles, int numOfActiveVehicles) {
+      this.numOfSteps = numOfSteps;
+      this.simulatedTime = simulatedTime;
+      this.setupWallTime = setupWallTime;
+      this.runWallTime = runWallTime;
+      this.numOfCompletedVehicles = numOfCompletedVehicles;
+      this.numOfActiveVehicles = numOfActiveVehicles;
+    }
+
+    /**
+     * Get the number of simulation steps per wall-clock second.
+     *
+     * @return the number of simulation steps per wall-clock second
+     */
+    public double getStepsPerSecond() {
+      return (runWallTime > 0.0) ? numOfSteps / runWallTime : 0.0;
+    }
+
+    /**
+     * Get the simulated seconds per wall-clock second.
+     *
+     * @return the simulated seconds per wall-clock second
+     */
+    public double getSimSecondsPerWallSecond() {
+      return (runWallTime > 0.0) ? simulatedTime / runWallTime : 0.0;
+    }
+
+    /**
+     * Get the number of completed vehicles.
+     *
+     * @return the number of completed vehicles
+     */
+    public int getNumOfCompletedVehicles() {
+      return numOfCompletedVehicles;
+    }
+
+    /**
+     * Print the report.
+     *
+     * @param out  the output stream
+     */
+    public void print(PrintStream out) {
+      out.printf("steps=%d\n", numOfSteps);
+      out.printf("simulatedTime=%.3f\n", simulatedTime);
+      out.printf("setupWallTime=%.3f\n", setupWallTime);
+      out.printf("runWallTime=%.3f\n", runWallTime);
+      out.printf("stepsPerSecond=%.2f\n", getStepsPerSecond());
+      out.printf("simSecondsPerWallSecond=%.3f\n",
+                 getSimSecondsPerWallSecond());
+      out.printf("completedVehicles=%d\n", numOfCompletedVehicles);
+      out.printf("activeVehicles=%d\n", numOfActiveVehicles);
+    }
+  }
+
+  /////////////////////////////////
+  // THE MAIN FUNCTION
+  /////////////////////////////////
+
+  /**
+   * Run a simulation without the GUI and print its throughput.
+   *
+   * @param args  an optional properties file followed by
+   *              <code>key=value</code> overrides
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    Properties props;
+    try {
+      props = parseArguments(args);
+    } catch(IOException e) {
+      System.err.println("Cannot read the properties file: " + e.getMessage());
+      System.exit(1);
+      return;
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    if (props.getProperty("totalTime") == null) {
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    SimConfig.TOTAL_SIMULATION_TIME =
+      Double.parseDouble(props.getProperty("totalTime"));
+    if (props.getProperty("seed") != null) {
+      Util.randSeed = Long.parseLong(props.getProperty("seed"));
+      Util.random.setSeed(Util.randSeed);
+    }
+    SimConfig.FOOTPRINT_LIBRARY_DIR = props.getProperty("footprintLibrary");
+    if (props.getProperty("precomputeThreads") != null) {
+      SimConfig.PRECOMPUTATION_THREADS =
+        Integer.parseInt(props.getProperty("precomputeThreads"));
+    }
+    SimConfig.FULL_FOOTPRINT_PRECOMPUTATION =
+      Boolean.parseBoolean(props.getProperty("precomputeFootprints", "false"));
+    if (props.getProperty("proposalThreads") != null) {
+      SimConfig.PROPOSAL_EVALUATION_THREADS =
+        Integer.parseInt(props.getProperty("proposalThreads"));
+    }
+    if (props.getProperty("concurrentGrid") != null) {
+      SimConfig.CONCURRENT_RESERVATION_GRID =
+        Boolean.parseBoolean(props.getProperty("concurrentGrid"));
+    }
+    if (props.getProperty("movementPrefilter") != null) {
+      SimConfig.MOVEMENT_PREFILTER =
+        Boolean.parseBoolean(props.getProperty("movementPrefilter"));
+    }
+    if (props.getProperty("gridTimeStep") != null) {
+      SimConfig.GRID_TIME_STEP =
+        Double.parseDouble(props.getProperty("gridTimeStep"));
+    }
+    SimConfig.INTERNAL_SIMULATION_TIME_STEP =
+      Double.parseDouble(props.getProperty("internalTimeStep",
+                                           Double.toString(
+                                             SimConfig.GRID_TIME_STEP)));
+    RunReport report = run(makeSimSetup(props));
+    report.print(System.out);
+    ReservationGridManager.awaitFootprintLibraries();
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  /**
+   * Create a simulator from a setup and step it until
+   * {@link SimConfig#TOTAL_SIMULATION_TIME} is reached.
+   *
+   * @param simSetup  the simulation setup
+   * @return the throughput report of the run
+   */
+  public static RunReport run(AutoDriverOnlySimSetup simSetup) {
+    if (SimConfig.TOTAL_SIMULATION_TIME <= 0.0) {
+      throw new IllegalArgumentException(
+        "TOTAL_SIMULATION_TIME must be positive in a headless run");
+    }
+    long setupStart = System.nanoTime();
+    Simulator sim = SimFactory.makeSimulator(simSetup);
+    long runStart = System.nanoTime();
+    long numOfSteps = 0;
+    // compare against half a step to avoid an extra step due to rounding
+    while(sim.getSimulationTime()
+          < SimConfig.TOTAL_SIMULATION_TIME - SimConfig.TIME_STEP / 2.0) {
+      SimStepResult result = sim.step(SimConfig.TIME_STEP);
+      assert result != null;
+      numOfSteps++;
+    }
+    long runEnd = System.nanoTime();
+    return new RunReport(numOfSteps,
+                         sim.getSimulationTime(),
+                         (runStart - setupStart) / 1e9,
+                         (runEnd - runStart) / 1e9,
+                         sim.getNumCompletedVehicles(),
+                         sim.getActiveVehicles().size());
+  }
+
+  /**
+   * Parse the command-line arguments into a set of properties.
+   *
+   * @param args  an optional properties file followed by
+   *              <code>key=value</code> overrides
+   * @return the properties
+   * @throws IOException if the properties file cannot be read
+   */
+  public static Properties parseArguments(String[] args) throws IOException {
+    Properties props = new Properties();
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      int k = arg.indexOf('=');
+      if (k > 0) {
+        props.setProperty(arg.substring(0, k).trim(),
+                          arg.substring(k + 1).trim());
+      } else if (i == 0) {
+        InputStream in = new FileInputStream(arg);
+        try {
+          props.load(in);
+        } finally {
+          in.close();
+        }
+      } else {
+        throw new IllegalArgumentException("Invalid argument: " + arg);
+      }
+    }
+    return props;
+  }
+
+  /**
+   * Create the simulation setup described by a set of properties.
+   *
+   * @param props  the properties
+   * @return the simulation setup
+   */
+  public static AutoDriverOnlySimSetup makeSimSetup(Properties props) {
+    AutoDriverOnlySimSetup simSetup =
+      new AutoDriverOnlySimSetup(getInt(props, "columns", 1),
+                                 getInt(props, "rows", 1),
+                                 getDouble(props, "laneWidth", 3.6),
+                                 getDouble(props, "speedLimit", 25.0),
+                                 getInt(props, "lanesPerRoad", 2),
+                                 getDouble(props, "medianSize", 0.0),
+                                 getDouble(props, "distanceBetween", 150.0),
+                                 getDouble(props, "trafficLevel", 0.28),
+                                 getDouble(props, "stopDistance", 1.0));
+    // a headless run never talks to the SimCreator simulators
+    simSetup.setIsSimCreatorLinked(false);
+    simSetup.setModeType(
+      ModeType.valueOf(props.getProperty("mode", "FCFS_MODE")));
+    if (props.getProperty("processingInterval") != null) {
+      simSetup.setBatchModeProcessingInterval(
+        getDouble(props, "processingInterval", 0.0));
+    }
+    simSetup.setBuffers(getDouble(props, "staticBuffer", 0.25),
+                        getDouble(props, "internalTileTimeBuffer", 0.1),
+                        getDouble(props, "edgeTileTimeBuffer", 0.25),
+                        Boolean.parseBoolean(
+                          props.getProperty("edgeTileTimeBufferEnabled",
+                                            "true")),
+                        getDouble(props, "granularity", 1.0));
+    if (Boolean.parseBoolean(props.getProperty("conflictPoints", "false"))) {
+      simSetup.setReservationMode(ReservationMode.CONFLICT_POINTS);
+    } else if (Boolean.parseBoolean(props.getProperty("continuousTime",
+                                                      "false"))) {
+      simSetup.setReservationMode(ReservationMode.CONTINUOUS_TIME);
+    }
+    simSetup.setNumOfDriverThreads(getInt(props, "driverThreads", 1));
+    simSetup.setNumOfIntersectionManagerThreads(getInt(props, "imThreads", 1));
+    return simSetup;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Get an integer property.
+   *
+   * @param props         the properties
+   * @param key           the key
+   * @param defaultValue  the default value
+   * @return the value of the property
+   */
+  private static int getInt(Properties props, String key, int defaultValue) {
+    String s = props.getProperty(key);
+    return (s == null) ? defaultValue : Integer.parseInt(s.trim());
+  }
+
+  /**
+   * Get a double property.
+   *
+   * @param props         the properties
+   * @param key           the key
+   * @param defaultValue  the default value
+   * @return the value of the property
+   */
+  private static double getDouble(Properties props, String key,
+                                  double defaultValue) {
+    String s = props.getProperty(key);
+    return (s == null) ? defaultValue : Double.parseDouble(s.trim());
+  }
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /** This class should never be instantiated. */
+  private HeadlessSimRunner(){};
+}
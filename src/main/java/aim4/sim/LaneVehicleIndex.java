@@ -0,0 +1,427 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import aim4.im.IntersectionManager;
+import aim4.map.BasicMap;
+import aim4.map.Road;
+import aim4.map.lane.Lane;
+import aim4.vehicle.VehicleSimView;
+
+/**
+ * A persistent index of the order of vehicles on lanes.
+ * <p>
+ * Lanes that feed into one another are chained together, and each chain
+ * keeps an array of the vehicles on it sorted by their distance from the
+ * start of the chain.  Vehicles that are (partially or entirely) inside an
+ * intersection are left out.  The index is updated vehicle by vehicle as the
+ * vehicles move, and {@link #reorder()} restores the order of the arrays
+ * before they are queried.  Since vehicles rarely overtake each other, the
+ * arrays are nearly sorted and an insertion sort fixes them up in linear
+ * time.
+ */
+public class LaneVehicleIndex {
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The position of a vehicle on a lane.
+   */
+  private static class Entry {
+    /** The vehicle */
+    final VehicleSimView vehicle;
+    /** The lane on which the vehicle is */
+    final Lane lane;
+    /** The distance from the start of the chain of lanes */
+    double dst;
+    /** Whether the entry should be dropped by the next reordering */
+    boolean isRemoved;
+    /** The next vehicle on the chain of lanes, or null if none */
+    Entry next;
+
+    /**
+     * Create an entry.
+     *
+     * @param vehicle  the vehicle
+     * @param lane     the lane
+     */
+    Entry(VehicleSimView vehicle, Lane lane) {
+      this.vehicle = vehicle;
+      this.lane = lane;
+    }
+  }
+
+  /**
+   * The vehicles on a chain of lanes, sorted by their distance.
+   */
+  private static class LaneChain {
+    /** The entries */
+    Entry[] entries = new Entry[16];
+    /** The number of entries */
+    int size = 0;
+    /** Whether some entries have been removed since the last reordering */
+    boolean hasRemoved = false;
+
+    /**
+     * Append an entry to the end of the array.
+     *
+     * @param entry  the entry
+     */
+    void add(Entry entry) {
+      if (size == entries.length) {
+        Entry[] newEntries = new Entry[size * 2];
+        System.arraycopy(entries, 0, newEntries, 0, size);
+        entries = newEntries;
+      }
+      entries[size++] = entry;
+    }
+
+    /**
+     * Drop the removed entries, sort the rest by their distance and link
+     * each entry to the next one.
+     */
+    void reorder() {
+      if (hasRemoved) {
+        int j = 0;
+        for(int i = 0; i < size; i++) {
+          if (!entries[i].isRemoved) {
+            entries[j++] = entries[i];
+          }
+        }
+        for(int i = j; i < size; i++) {
+          entries[i] = null;
+        }
+        size = j;
+        hasRemoved = false;
+      }
+      // insertion sort, which is linear when the array is nearly sorted
+      for(int i = 1; i < size; i++) {
+        Entry e = entries[i];
+        int j = i - 1;
+        while(j >= 0 && entries[j].dst > e.dst) {
+          entries[j + 1] = entries[j];
+          j--;
+        }
+        entries[j + 1] = e;
+      }
+      for(int i = 0; i < size; i++) {
+        entries[i].next = (i + 1 < size) ? entries[i + 1] : null;
+      }
+    }
+
+    /**
+     * Find the index of the first entry whose distance is not less than a
+     * given distance.
+     *
+     * @param dst  the distance
+     * @return the index of the first entry whose distance is not less than
+     *         dst, or size if there is no such entry
+     */
+    int ceilingIndex(double dst) {
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (entries[mid].dst < dst) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The chains of lanes */
+  private List<LaneChain> chains;
+  /** A mapping from lanes to the chains of lanes they belong to */
+  private Map<Lane,LaneChain> laneToChain;
+  /** A mapping from lanes to their offsets from the start of their chains */
+  private Map<Lane,Double> laneToOffset;
+  /** A mapping from the indexed vehicles to their entries */
+  private Map<VehicleSimView,List<Entry>> vehicleToEntries;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create an empty index for the lanes of a map.
+   *
+   * @param basicMap  the map
+   */
+  public LaneVehicleIndex(BasicMap basicMap) {
+    chains = new ArrayList<LaneChain>();
+    laneToChain = new HashMap<Lane,LaneChain>();
+    laneToOffset = new HashMap<Lane,Double>();
+    vehicleToEntries = new HashMap<VehicleSimView,List<Entry>>();
+    for(Road road : basicMap.getRoads()) {
+      for(Lane lane : road.getLanes()) {
+        if (!lane.hasPrevLane()) {
+          LaneChain chain = new LaneChain();
+          chains.add(chain);
+          double offset = 0.0;
+          for(Lane l = lane; l != null;
+              l = l.hasNextLane() ? l.getNextLane() : null) {
+            laneToChain.put(l, chain);
+            laneToOffset.put(l, offset);
+            offset += l.getLength();
+          }
+        }
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  // update
+
+  /**
+   * Update the positions of a vehicle on the lanes it occupies.  This should
+   * be called whenever a vehicle is added to the simulation or has moved.
+   *
+   * @param vehicle  the vehicle
+   */
+  public void updateVehicle(VehicleSimView vehicle) {
+    List<Entry> entries = vehicleToEntries.get(vehicle);
+    if (entries == null) {
+      entries = new ArrayList<Entry>(2);
+      vehicleToEntries.put(vehicle, entries);
+    }
+    for(Entry e : entries) {
+      e.isRemoved = true;
+    }
+    for(Lane lane : vehicle.getDriver().getCurrentlyOccupiedLanes()) {
+      LaneChain chain = laneToChain.get(lane);
+      if (chain == null || isInIntersection(vehicle, lane)) {
+        continue;
+      }
+      Entry entry = null;
+      for(Entry e : entries) {
+        if (e.lane == lane) {
+          entry = e;
+          break;
+        }
+      }
+      if (entry == null) {
+        entry = new Entry(vehicle, lane);
+        entries.add(entry);
+        chain.add(entry);
+      }
+      entry.isRemoved = false;
+      entry.dst = laneToOffset.get(lane)
+                  + lane.distanceAlongLane(vehicle.getPosition());
+    }
+    for(int i = entries.size() - 1; i >= 0; i--) {
+      Entry e = entries.get(i);
+      if (e.isRemoved) {
+        laneToChain.get(e.lane).hasRemoved = true;
+        entries.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Remove a vehicle from the index.
+   *
+   * @param vehicle  the vehicle
+   */
+  public void removeVehicle(VehicleSimView vehicle) {
+    List<Entry> entries = vehicleToEntries.remove(vehicle);
+    if (entries != null) {
+      for(Entry e : entries) {
+        e.isRemoved = true;
+        laneToChain.get(e.lane).hasRemoved = true;
+      }
+    }
+  }
+
+  /**
+   * Update all vehicles and drop the vehicles that are not in a given
+   * collection.  This is a fallback for vehicles that were added or
+   * removed without going through {@link #updateVehicle(VehicleSimView)}
+   * and {@link #removeVehicle(VehicleSimView)}.
+   *
+   * @param vehicles  all active vehicles
+   */
+  public void updateAll(Collection<VehicleSimView> vehicles) {
+    for(List<Entry> entries : vehicleToEntries.values()) {
+      for(Entry e : entries) {
+        e.isRemoved = true;
+        laneToChain.get(e.lane).hasRemoved = true;
+      }
+    }
+    vehicleToEntries.clear();
+    for(VehicleSimView vehicle : vehicles) {
+      updateVehicle(vehicle);
+    }
+  }
+
+  /**
+   * Restore the order of the vehicles on all lanes.  This must be called
+   * after the updates and before the queries.
+   */
+  public void reorder() {
+    for(LaneChain chain : chains) {
+      chain.reorder();
+    }
+  }
+
+  // queries
+
+  /**
+   * Get the number of indexed vehicles.
+   *
+   * @return the number of indexed vehicles
+   */
+  public int size() {
+    return vehicleToEntries.size();
+  }
+
+  /**
+   * Get the next vehicle in front of a given vehicle on the lanes the
+   * vehicle occupies.  If the vehicle is on more than one lane, the closest
+   * of the next vehicles is returned.
+   *
+   * @param vehicle  the vehicle
+   * @return the next vehicle; null if there is no vehicle in front
+   */
+  public VehicleSimView getNextVehicle(VehicleSimView vehicle) {
+    List<Entry> entries = vehicleToEntries.get(vehicle);
+    if (entries == null) {
+      return null;
+    }
+    VehicleSimView nextVehicle = null;
+    double minGap = Double.MAX_VALUE;
+    for(Entry e : entries) {
+      if (e.next != null && e.next.dst - e.dst < minGap) {
+        nextVehicle = e.next.vehicle;
+        minGap = e.next.dst - e.dst;
+      }
+    }
+    return nextVehicle;
+  }
+
+  /**
+   * Get the first vehicle on a lane whose distance along the lane is not
+   * less than a given distance.
+   *
+   * @param lane  the lane
+   * @param dst   the distance along the lane
+   * @return the front vehicle; null if there is no such vehicle
+   */
+  public VehicleSimView getFrontVehicle(Lane lane, double dst) {
+    LaneChain chain = laneToChain.get(lane);
+    int i = chain.ceilingIndex(laneToOffset.get(lane) + dst);
+    return (i < chain.size) ? chain.entries[i].vehicle : null;
+  }
+
+  /**
+   * Get the distance along a lane of the first vehicle whose distance is not
+   * less than a given distance.
+   *
+   * @param lane  the lane
+   * @param dst   the distance along the lane
+   * @return the distance of the front vehicle; Double.MAX_VALUE if there is
+   *         no such vehicle
+   */
+  public double getFrontVehicleDistance(Lane lane, double dst) {
+    LaneChain chain = laneToChain.get(lane);
+    double offset = laneToOffset.get(lane);
+    int i = chain.ceilingIndex(offset + dst);
+    return (i < chain.size) ? chain.entries[i].dst - offset : Double.MAX_VALUE;
+  }
+
+  /**
+   * Get the last vehicle on a lane whose distance along the lane is less
+   * than a given distance.
+   *
+   * @param lane  the lane
+   * @param dst   the distance along the lane
+   * @return the rear vehicle; null if there is no such vehicle
+   */
+  public VehicleSimView getRearVehicle(Lane lane, double dst) {
+    LaneChain chain = laneToChain.get(lane);
+    int i = chain.ceilingIndex(laneToOffset.get(lane) + dst) - 1;
+    return (i >= 0) ? chain.entries[i].vehicle : null;
+  }
+
+  /**
+   * Get the distance along a lane of the last vehicle whose distance is less
+   * than a given distance.
+   *
+   * @param lane  the lane
+   * @param dst   the distance along the lane
+   * @return the distance of the rear vehicle; Double.MAX_VALUE if there is
+   *         no such vehicle
+   */
+  public double getRearVehicleDistance(Lane lane, double dst) {
+    LaneChain chain = laneToChain.get(lane);
+    double offset = laneToOffset.get(lane);
+    int i = chain.ceilingIndex(offset + dst) - 1;
+    return (i >= 0) ? chain.entries[i].dst - offset : Double.MAX_VALUE;
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Whether a vehicle is (partially or entirely) inside the next
+   * intersection on a lane.
+   *
+   * @param vehicle  the vehicle
+   * @param lane     the lane
+   * @return whether the vehicle is inside the next intersection
+   */
+  private static boolean isInIntersection(VehicleSimView vehicle, Lane lane) {
+    IntersectionManager im =
+      lane.getLaneIM().nextIntersectionManager(vehicle.getPosition());
+    return lane.getLaneIM().distanceToNextIntersection(vehicle.getPosition())
+             <= 0
+           && im != null
+           && im.intersects(vehicle.getShape().getBounds2D());
+  }
+}
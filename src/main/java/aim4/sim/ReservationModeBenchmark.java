@@ -0,0 +1,378 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import aim4.config.SimConfig;
+import aim4.im.Intersection;
+import aim4.im.IntersectionManager;
+import aim4.im.v2i.reservation.ReservationGrid;
+import aim4.im.v2i.reservation.ReservationGrid.TimeTile;
+import aim4.im.v2i.reservation.ReservationGridManager;
+import aim4.im.v2i.reservation.ReservationGridManager.ReservationMode;
+import aim4.im.v2i.reservation.ReservationIntervals;
+import aim4.map.Road;
+import aim4.map.lane.Lane;
+import aim4.msg.v2i.Request.VehicleSpecForRequestMsg;
+import aim4.sim.setup.SimFactory;
+import aim4.util.TiledArea;
+import aim4.vehicle.VehicleSpecDatabase;
+
+/**
+ * Compare the query time and the memory of the reservation modes of the
+ * reservation grid manager at several grid time steps.  The memory is the
+ * largest size of the stored reservations after a round of queries,
+ * counted from the stored entries rather than measured on the heap.  The queries are
+ * random traversals of the first intersection of the map described by the
+ * same keys as {@link HeadlessSimRunner}, made directly to a reservation
+ * grid manager of each mode, and the accepted ones are reserved.  Like
+ * the policies, the queries assume that the vehicles accelerate.
+ */
+public class ReservationModeBenchmark {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The usage message */
+  public static final String USAGE =
+    "Usage: java aim4.sim.ReservationModeBenchmark [file.properties]"
+    + " [key=value]...\n"
+    + "Keys (defaults in brackets), besides those of HeadlessSimRunner:\n"
+    + "  gridTimeSteps [0.02,0.01,0.005]  rounds [300]\n"
+    + "  queriesPerRound [20]  roundTime [0.1]  seed [7]\n";
+
+  /**
+   * The maximum time, in seconds, between the current time and the end of
+   * any reservation in the ring buffer of the reservation grid.
+   */
+  private static final double RESERVATION_HORIZON = 6.0;
+
+  /** The minimum arrival velocity of the queries, in meters per second */
+  private static final double MIN_VELOCITY = 5.0;
+
+  /** The maximum arrival velocity of the queries, in meters per second */
+  private static final double MAX_VELOCITY = 15.0;
+
+  /** The maximum turn velocity of the queries, in meters per second */
+  private static final double MAX_TURN_VELOCITY = 25.0;
+
+  /**
+   * The bytes of a time-tile in the record of a reservation: its discrete
+   * time and its tile ID.
+   */
+  private static final int TIME_TILE_BYTES = 8;
+
+  /**
+   * The bytes of a reserved interval, which is kept both in its tile (the
+   * enter time, the exit time and the reservation ID) and in its
+   * reservation (the tile ID, the enter time and the exit time).
+   */
+  private static final int INTERVAL_BYTES = 40;
+
+  /////////////////////////////////
+  // THE MAIN FUNCTION
+  /////////////////////////////////
+
+  /**
+   * Run the benchmark and print one line for each grid time step and
+   * reservation mode.
+   *
+   * @param args  an optional properties file followed by
+   *              <code>key=value</code> overrides
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    Properties props;
+    try {
+      props = HeadlessSimRunner.parseArguments(args);
+    } catch(IOException e) {
+      System.err.println("Cannot read the properties file: " + e.getMessage());
+      System.exit(1);
+      return;
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    Simulator sim =
+      SimFactory.makeSimulator(HeadlessSimRunner.makeSimSetup(props));
+    IntersectionManager im = sim.getMap().getIntersectionManagers().get(0);
+    ReservationGridManager.Config baseConfig =
+      new ReservationGridManager.Config(
+        SimConfig.TIME_STEP,
+        SimConfig.GRID_TIME_STEP,
+        Double.parseDouble(props.getProperty("staticBuffer", "0.25")),
+        Double.parseDouble(props.getProperty("internalTileTimeBuffer", "0.1")),
+        Double.parseDouble(props.getProperty("edgeTileTimeBuffer", "0.25")),
+        Boolean.parseBoolean(props.getProperty("edgeTileTimeBufferEnabled",
+                                               "true")),
+        Double.parseDouble(props.getProperty("granularity", "1.0")));
+    int rounds = Integer.parseInt(props.getProperty("rounds", "300"));
+    int queriesPerRound =
+      Integer.parseInt(props.getProperty("queriesPerRound", "20"));
+    double roundTime =
+      Double.parseDouble(props.getProperty("roundTime", "0.1"));
+    long seed = Long.parseLong(props.getProperty("seed", "7"));
+    for(String s : props.getProperty("gridTimeSteps", "0.02,0.01,0.005")
+                        .split(",")) {
+      double gridTimeStep = Double.parseDouble(s.trim());
+      for(ReservationMode mode : ReservationMode.values()) {
+        Result result = run(im.getIntersection(), baseConfig, gridTimeStep,
+                            mode, rounds, queriesPerRound, roundTime, seed);
+        System.out.printf("gridTimeStep=%.3f mode=%s %s\n",
+                          gridTimeStep, mode, result);
+      }
+    }
+    ReservationGridManager.awaitFootprintLibraries();
+    System.exit(0);
+  }
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The result of a benchmark run.
+   */
+  private static class Result {
+    /** The number of queries */
+    int numOfQueries;
+    /** The number of accepted queries */
+    int numOfAccepted;
+    /** The wall-clock time spent in the queries in nanoseconds */
+    long queryTime;
+    /**
+     * The number of distinct time-tiles, or of intervals, of the accepted
+     * reservations
+     */
+    long numOfEntries;
+    /** The largest number of allocated time slices of the grid */
+    int maxNumOfSlices;
+    /** The largest number of stored time-tiles or intervals */
+    int maxNumOfStoredEntries;
+    /** The largest size of the stored reservations, in bytes */
+    long maxStoredBytes;
+
+    /**
+     * Convert the result to a string.
+     */
+    @Override
+    public String toString() {
+      return String.format("queries=%d accepted=%d usPerQuery=%.1f"
+                           + " entriesPerReservation=%.0f slices=%d"
+                           + " storedEntries=%d storedKB=%d",
+                           numOfQueries, numOfAccepted,
+                           queryTime / 1e3 / numOfQueries,
+                           (double) numOfEntries / numOfAccepted,
+                           maxNumOfSlices, maxNumOfStoredEntries,
+                           maxStoredBytes / 1024);
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Run the random queries against a reservation grid manager.
+   *
+   * @param intersection     the intersection
+   * @param baseConfig       the configuration whose time step and
+   *                         reservation mode are replaced
+   * @param gridTimeStep     the grid time step
+   * @param mode             the reservation mode
+   * @param rounds           the number of rounds of queries
+   * @param queriesPerRound  the number of queries in each round
+   * @param roundTime        the simulated time between the rounds
+   * @param seed             the seed of the random queries
+   * @return the result
+   */
+  private static Result run(Intersection intersection,
+                            ReservationGridManager.Config baseConfig,
+                            double gridTimeStep,
+                            ReservationMode mode,
+                            int rounds,
+                            int queriesPerRound,
+                            double roundTime,
+                            long seed) {
+    ReservationGridManager.Config config =
+      new ReservationGridManager.Config(
+        baseConfig.getTimeStep(),
+        gridTimeStep,
+        gridTimeStep,
+        baseConfig.getStaticBufferSize(),
+        baseConfig.getInternalTileTimeBufferSize(),
+        baseConfig.getEdgeTileTimeBufferSize(),
+        baseConfig.getIsEdgeTileTimeBufferEnabled(),
+        baseConfig.getGranularity(),
+        mode);
+    TiledArea tiledArea =
+      new TiledArea(intersection.getArea(), config.getGranularity());
+    Result result = new Result();
+    ReservationGrid grid = (mode == ReservationMode.TIME_TILES)
+      ? new ReservationGrid(tiledArea, gridTimeStep, RESERVATION_HORIZON)
+      : new ReservationGrid(tiledArea, gridTimeStep);
+    ReservationGridManager manager =
+      new ReservationGridManager(config, intersection, tiledArea, grid);
+    VehicleSpecForRequestMsg spec =
+      new VehicleSpecForRequestMsg(VehicleSpecDatabase.getVehicleSpecById(0));
+    List<Lane[]> movements = findMovements(intersection);
+
+    // fill the footprint cache so that the queries do not simulate
+    for(Lane[] m : movements) {
+      for(double v = MIN_VELOCITY; v <= MAX_VELOCITY; v += 0.25) {
+        manager.query(
+          new ReservationGridManager.Query(0, 1.0, v,
+                                           m[0].getId(), m[1].getId(),
+                                           spec, MAX_TURN_VELOCITY, true),
+          false);
+      }
+    }
+
+    Random random = new Random(seed);
+    int vin = 1;
+    double currentTime = 0.0;
+    int stepsPerRound = (int) Math.round(roundTime / config.getTimeStep());
+    for(int r = 0; r < rounds; r++) {
+      for(int k = 0; k < queriesPerRound; k++) {
+        Lane[] m = movements.get(random.nextInt(movements.size()));
+        ReservationGridManager.Query q =
+          new ReservationGridManager.Query(
+            vin,
+            currentTime + 0.5 + random.nextDouble() * 2.5,
+            MIN_VELOCITY
+              + random.nextDouble() * (MAX_VELOCITY - MIN_VELOCITY),
+            m[0].getId(), m[1].getId(), spec, MAX_TURN_VELOCITY, true);
+        long start = System.nanoTime();
+        ReservationGridManager.Plan plan = manager.query(q, false);
+        result.queryTime += System.nanoTime() - start;
+        result.numOfQueries++;
+        if (plan != null) {
+          manager.accept(plan);
+          result.numOfAccepted++;
+          result.numOfEntries += (plan.getIntervalList() != null)
+                                 ? plan.getIntervalList().size()
+                                 : countTimeTiles(plan.getWorkingList());
+          vin++;
+        }
+      }
+      recordStoredSize(result, grid, manager.getReservationIntervals());
+      for(int j = 0; j < stepsPerRound; j++) {
+        manager.act(config.getTimeStep());
+      }
+      currentTime += stepsPerRound * config.getTimeStep();
+    }
+    return result;
+  }
+
+  /**
+   * Find the movements through an intersection, the pairs of entry and
+   * exit lanes that the pre-made plans cover.
+   *
+   * @param intersection  the intersection
+   * @return the movements
+   */
+  private static List<Lane[]> findMovements(Intersection intersection) {
+    List<Lane[]> movements = new ArrayList<Lane[]>();
+    for(Road entryRoad : intersection.getEntryRoads()) {
+      for(Road exitRoad : intersection.getExitRoads()) {
+        if (entryRoad.getDual() == exitRoad) {
+          continue;
+        }
+        for(Lane entryLane : entryRoad.getLanes()) {
+          for(Lane exitLane : exitRoad.getLanes()) {
+            if (entryRoad.getName().equals(exitRoad.getName()) &&
+                exitLane.getId() != entryLane.getId()) {
+              continue;
+            }
+            movements.add(new Lane[] { entryLane, exitLane });
+          }
+        }
+      }
+    }
+    return movements;
+  }
+
+  /**
+   * Count the distinct time-tiles of a working list, which may list a
+   * time-tile more than once.
+   *
+   * @param workingList  the working list
+   * @return the number of distinct time-tiles
+   */
+  private static int countTimeTiles(List<TimeTile> workingList) {
+    Set<Long> timeTiles = new HashSet<Long>();
+    for(TimeTile tt : workingList) {
+      timeTiles.add(((long) tt.getDiscreteTime() << 32) | tt.getTileId());
+    }
+    return timeTiles.size();
+  }
+
+  /**
+   * Record the size of the stored reservations if it is the largest so far.
+   * The size is the number of stored entries times the bytes of an entry,
+   * without the headers of the objects and arrays.
+   *
+   * @param result     the result
+   * @param grid       the reservation grid
+   * @param intervals  the reserved time intervals; null if the time tiles
+   *                   are reserved in the grid
+   */
+  private static void recordStoredSize(Result result, ReservationGrid grid,
+                                       ReservationIntervals intervals) {
+    int numOfSlices = 0;
+    int numOfEntries;
+    long bytes;
+    if (intervals == null) {
+      numOfSlices = grid.getNumOfSlices();
+      numOfEntries = grid.getNumOfRecords();
+      int numOfTiles = grid.getNumberOfTiles();
+      long sliceBytes = 4L * numOfTiles + 8L * ((numOfTiles + 63) / 64);
+      bytes = numOfSlices * sliceBytes + numOfEntries * TIME_TILE_BYTES;
+    } else {
+      numOfEntries = intervals.getNumOfIntervals();
+      bytes = (long) numOfEntries * INTERVAL_BYTES;
+    }
+    result.maxNumOfSlices = Math.max(result.maxNumOfSlices, numOfSlices);
+    result.maxNumOfStoredEntries =
+      Math.max(result.maxNumOfStoredEntries, numOfEntries);
+    result.maxStoredBytes = Math.max(result.maxStoredBytes, bytes);
+  }
+}
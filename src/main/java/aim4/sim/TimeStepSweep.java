@@ -0,0 +1,425 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import aim4.config.SimConfig;
+import aim4.im.IntersectionManager;
+import aim4.im.v2i.reservation.ReservationGridManager;
+import aim4.sim.setup.SimFactory;
+import aim4.util.Util;
+import aim4.vehicle.VehicleSimView;
+
+/**
+ * A sweep of the grid time step and the internal simulation time step of
+ * the reservation grid managers, which reports the cost of each setting
+ * against the safety margin observed in the simulation.
+ * <p>
+ * Each setting runs the simulation described by the same keys as
+ * {@link HeadlessSimRunner} with the same seed.  The cost is the wall-clock
+ * time of the run, which the queries to the intersection managers dominate
+ * at the finer time steps; the first setting also pays for the warm-up of
+ * the virtual machine.  The safety margin is the post-encroachment
+ * time (PET) of the pairs of vehicles whose paths cross in the first
+ * intersection: the time between one vehicle leaving a spot of the
+ * intersection and another vehicle, heading in a different direction,
+ * reaching it.  The vehicles whose shapes overlap inside an intersection
+ * are counted as well.
+ */
+public class TimeStepSweep {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The usage message */
+  public static final String USAGE =
+    "Usage: java aim4.sim.TimeStepSweep [file.properties] [key=value]...\n"
+    + "Keys (defaults in brackets), besides those of HeadlessSimRunner:\n"
+    + "  gridTimeSteps [1/60,0.02,0.01,0.005]\n"
+    + "  internalTimeSteps [the grid time step]  petThreshold [0.25]\n"
+    + "The seed defaults to 1 so that every setting sees the same traffic.\n";
+
+  /** The size of the cells on which the PET is measured, in meters */
+  private static final double CELL_SIZE = 0.5;
+
+  /**
+   * The minimum difference between the headings of two vehicles, in
+   * radians, for their paths to count as crossing
+   */
+  private static final double MIN_CROSSING_ANGLE = Math.toRadians(45.0);
+
+  /////////////////////////////////
+  // THE MAIN FUNCTION
+  /////////////////////////////////
+
+  /**
+   * Run the sweep and print one line for each setting.
+   *
+   * @param args  an optional properties file followed by
+   *              <code>key=value</code> overrides
+   */
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    Properties props;
+    try {
+      props = HeadlessSimRunner.parseArguments(args);
+    } catch(IOException e) {
+      System.err.println("Cannot read the properties file: " + e.getMessage());
+      System.exit(1);
+      return;
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    if (props.getProperty("totalTime") == null) {
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+    SimConfig.TOTAL_SIMULATION_TIME =
+      Double.parseDouble(props.getProperty("totalTime"));
+    long seed = Long.parseLong(props.getProperty("seed", "1"));
+    double petThreshold =
+      Double.parseDouble(props.getProperty("petThreshold", "0.25"));
+    double[] gridTimeSteps =
+      parseTimeSteps(props.getProperty("gridTimeSteps",
+                                       SimConfig.TIME_STEP
+                                       + ",0.02,0.01,0.005"));
+    double[] internalTimeSteps = null;
+    if (props.getProperty("internalTimeSteps") != null) {
+      internalTimeSteps =
+        parseTimeSteps(props.getProperty("internalTimeSteps"));
+    }
+    for(double gridTimeStep : gridTimeSteps) {
+      double[] steps = (internalTimeSteps != null)
+                       ? internalTimeSteps
+                       : new double[] { gridTimeStep };
+      for(double internalTimeStep : steps) {
+        SimConfig.GRID_TIME_STEP = gridTimeStep;
+        SimConfig.INTERNAL_SIMULATION_TIME_STEP = internalTimeStep;
+        Util.randSeed = seed;
+        Util.random.setSeed(seed);
+        System.out.printf("gridTimeStep=%.4f internalTimeStep=%.4f %s\n",
+                          gridTimeStep, internalTimeStep,
+                          run(props, petThreshold));
+      }
+    }
+    ReservationGridManager.awaitFootprintLibraries();
+    System.exit(0);
+  }
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * A monitor of the vehicles in the intersections, which records the
+   * post-encroachment times of the crossing pairs of vehicles and the
+   * pairs of vehicles that overlap.
+   */
+  private static class SafetyMonitor {
+    /** The areas of the intersections */
+    private final List<Area> areas = new ArrayList<Area>();
+    /** The bounding box of the first intersection */
+    private final Rectangle2D box;
+    /** The number of cells in the x direction */
+    private final int xNum;
+    /** The number of cells in the y direction */
+    private final int yNum;
+    /** The VIN of the vehicle that last occupied each cell, or -1 */
+    private final int[] lastVins;
+    /** The time at which each cell was last occupied */
+    private final double[] lastTimes;
+    /** The heading of the vehicle that last occupied each cell */
+    private final double[] lastHeadings;
+    /** The heading of each vehicle when it entered the intersections */
+    private final Map<Integer,Double> entryHeadings =
+      new HashMap<Integer,Double>();
+    /** The smallest PET of each crossing pair of vehicles */
+    private final Map<Long,Double> pets = new HashMap<Long,Double>();
+    /** The pairs of vehicles that have overlapped in an intersection */
+    private final Set<Long> overlappingPairs = new HashSet<Long>();
+
+    /**
+     * Create a safety monitor for the intersections of a map.
+     *
+     * @param ims  the intersection managers
+     */
+    SafetyMonitor(List<IntersectionManager> ims) {
+      for(IntersectionManager im : ims) {
+        areas.add(im.getIntersection().getArea());
+      }
+      box = areas.get(0).getBounds2D();
+      xNum = (int) Math.ceil(box.getWidth() / CELL_SIZE);
+      yNum = (int) Math.ceil(box.getHeight() / CELL_SIZE);
+      lastVins = new int[xNum * yNum];
+      lastTimes = new double[xNum * yNum];
+      lastHeadings = new double[xNum * yNum];
+      Arrays.fill(lastVins, -1);
+    }
+
+    /**
+     * Observe the vehicles after a simulation step.
+     *
+     * @param vehicles  the active vehicles
+     * @param time      the current time
+     */
+    void observe(Set<VehicleSimView> vehicles, double time) {
+      List<VehicleSimView> inside = new ArrayList<VehicleSimView>();
+      for(VehicleSimView vehicle : vehicles) {
+        Rectangle2D bounds = vehicle.getShape().getBounds2D();
+        for(Area area : areas) {
+          if (area.intersects(bounds)) {
+            inside.add(vehicle);
+            if (!entryHeadings.containsKey(vehicle.getVIN())) {
+              entryHeadings.put(vehicle.getVIN(), vehicle.getHeading());
+            }
+            break;
+          }
+        }
+      }
+      for(VehicleSimView vehicle : inside) {
+        recordCells(vehicle, time);
+      }
+      for(int i = 0; i < inside.size(); i++) {
+        for(int j = i + 1; j < inside.size(); j++) {
+          if (isOverlapping(inside.get(i).getShape(),
+                            inside.get(j).getShape())) {
+            overlappingPairs.add(calcPairKey(inside.get(i).getVIN(),
+                                             inside.get(j).getVIN()));
+          }
+        }
+      }
+    }
+
+    /**
+     * Get the PETs of the crossing pairs in ascending order.
+     *
+     * @return the PETs
+     */
+    List<Double> getSortedPets() {
+      List<Double> result = new ArrayList<Double>(pets.values());
+      Collections.sort(result);
+      return result;
+    }
+
+    /**
+     * Get the number of pairs of vehicles that have overlapped.
+     *
+     * @return the number of overlapping pairs
+     */
+    int getNumOfOverlappingPairs() {
+      return overlappingPairs.size();
+    }
+
+    /**
+     * Record the cells of the first intersection whose centers a vehicle
+     * covers, and the PET with the previous vehicle in each cell if their
+     * paths cross.
+     *
+     * @param vehicle  the vehicle
+     * @param time     the current time
+     */
+    private void recordCells(VehicleSimView vehicle, double time) {
+      Shape shape = vehicle.getShape();
+      Rectangle2D bounds = shape.getBounds2D();
+      int x0 = Math.max(0, calcCell(bounds.getMinX() - box.getMinX()));
+      int x1 = Math.min(xNum - 1, calcCell(bounds.getMaxX() - box.getMinX()));
+      int y0 = Math.max(0, calcCell(bounds.getMinY() - box.getMinY()));
+      int y1 = Math.min(yNum - 1, calcCell(bounds.getMaxY() - box.getMinY()));
+      int vin = vehicle.getVIN();
+      double heading = entryHeadings.get(vin);
+      for(int x = x0; x <= x1; x++) {
+        for(int y = y0; y <= y1; y++) {
+          double cx = box.getMinX() + (x + 0.5) * CELL_SIZE;
+          double cy = box.getMinY() + (y + 0.5) * CELL_SIZE;
+          if (!shape.contains(cx, cy) || !areas.get(0).contains(cx, cy)) {
+            continue;
+          }
+          int c = x * yNum + y;
+          if (lastVins[c] >= 0 && lastVins[c] != vin) {
+            double angle =
+              Math.abs(Math.IEEEremainder(lastHeadings[c] - heading,
+                                          2 * Math.PI));
+            if (angle > MIN_CROSSING_ANGLE) {
+              long key = calcPairKey(lastVins[c], vin);
+              double pet = time - lastTimes[c];
+              Double oldPet = pets.get(key);
+              if (oldPet == null || pet < oldPet) {
+                pets.put(key, pet);
+              }
+            }
+          }
+          lastVins[c] = vin;
+          lastTimes[c] = time;
+          lastHeadings[c] = heading;
+        }
+      }
+    }
+
+    /**
+     * Whether two shapes overlap inside an intersection.
+     *
+     * @param s1  the first shape
+     * @param s2  the second shape
+     * @return whether the shapes overlap inside an intersection
+     */
+    private boolean isOverlapping(Shape s1, Shape s2) {
+      if (!s1.getBounds2D().intersects(s2.getBounds2D())) {
+        return false;
+      }
+      Area overlap = new Area(s1);
+      overlap.intersect(new Area(s2));
+      if (overlap.isEmpty()) {
+        return false;
+      }
+      for(Area area : areas) {
+        Area a = new Area(overlap);
+        a.intersect(area);
+        if (!a.isEmpty()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Calculate the index of the cell of a coordinate.
+     *
+     * @param d  the coordinate relative to the bounding box
+     * @return the index of the cell
+     */
+    private static int calcCell(double d) {
+      return (int) Math.floor(d / CELL_SIZE);
+    }
+
+    /**
+     * Calculate the key of an unordered pair of vehicles.
+     *
+     * @param vin1  the VIN of a vehicle
+     * @param vin2  the VIN of the other vehicle
+     * @return the key of the pair
+     */
+    private static long calcPairKey(int vin1, int vin2) {
+      return ((long) Math.min(vin1, vin2) << 32) | Math.max(vin1, vin2);
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Run the simulation with the current time steps.
+   *
+   * @param props         the properties of the simulation setup
+   * @param petThreshold  the PET below which a pair counts as a near miss
+   * @return the report of the run
+   */
+  private static String run(Properties props, double petThreshold) {
+    long setupStart = System.nanoTime();
+    Simulator sim =
+      SimFactory.makeSimulator(HeadlessSimRunner.makeSimSetup(props));
+    long runStart = System.nanoTime();
+    SafetyMonitor monitor =
+      new SafetyMonitor(sim.getMap().getIntersectionManagers());
+    // compare against half a step to avoid an extra step due to rounding
+    while(sim.getSimulationTime()
+          < SimConfig.TOTAL_SIMULATION_TIME - SimConfig.TIME_STEP / 2.0) {
+      sim.step(SimConfig.TIME_STEP);
+      monitor.observe(sim.getActiveVehicles(), sim.getSimulationTime());
+    }
+    long runEnd = System.nanoTime();
+    List<Double> pets = monitor.getSortedPets();
+    int numOfNearMisses = 0;
+    while(numOfNearMisses < pets.size() &&
+          pets.get(numOfNearMisses) < petThreshold) {
+      numOfNearMisses++;
+    }
+    int numOfCompleted = sim.getNumCompletedVehicles();
+    double runWallTime = (runEnd - runStart) / 1e9;
+    return String.format(
+      "setupWallTime=%.2f runWallTime=%.2f msPerVehicle=%.1f"
+      + " completed=%d crossingPairs=%d minPET=%.3f p1PET=%.3f p5PET=%.3f"
+      + " nearMisses=%d overlappingPairs=%d",
+      (runStart - setupStart) / 1e9, runWallTime,
+      (numOfCompleted > 0) ? runWallTime * 1e3 / numOfCompleted : 0.0,
+      numOfCompleted, pets.size(),
+      calcPercentile(pets, 0.0), calcPercentile(pets, 0.01),
+      calcPercentile(pets, 0.05),
+      numOfNearMisses, monitor.getNumOfOverlappingPairs());
+  }
+
+  /**
+   * Get a percentile of a sorted list.
+   *
+   * @param sorted    the values in ascending order
+   * @param fraction  the fraction of the values below the percentile
+   * @return the percentile, or NaN if the list is empty
+   */
+  private static double calcPercentile(List<Double> sorted, double fraction) {
+    if (sorted.isEmpty()) {
+      return Double.NaN;
+    }
+    return sorted.get((int) (fraction * (sorted.size() - 1)));
+  }
+
+  /**
+   * Parse a comma-separated list of time steps.
+   *
+   * @param s  the list
+   * @return the time steps
+   */
+  private static double[] parseTimeSteps(String s) {
+    String[] tokens = s.split(",");
+    double[] steps = new double[tokens.length];
+    for(int i = 0; i < tokens.length; i++) {
+      steps[i] = Double.parseDouble(tokens[i].trim());
+    }
+    return steps;
+  }
+}
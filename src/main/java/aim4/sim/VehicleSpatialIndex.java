@@ -0,0 +1,303 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.sim;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import aim4.vehicle.VehicleSimView;
+
+/**
+ * A uniform grid of buckets holding the bounding boxes of vehicles.
+ * <p>
+ * The grid covers the dimensions of the map; vehicles that stick out of the
+ * map are kept in the buckets on the border of the grid.  Each vehicle is
+ * put in every bucket its bounding box overlaps, and is moved between
+ * buckets only when the range of buckets changes.  Queries about an area
+ * only visit the buckets that overlap the area, so their cost depends on the
+ * local density of vehicles rather than the total number of vehicles.
+ */
+public class VehicleSpatialIndex {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The default size of the buckets ({@value} meters).  It is a few vehicle
+   * lengths, so that most vehicles fall in no more than four buckets.
+   */
+  public static final double DEFAULT_CELL_SIZE = 10.0;
+
+  /////////////////////////////////
+  // NESTED CLASSES
+  /////////////////////////////////
+
+  /**
+   * The record of a vehicle in the grid.
+   */
+  private static class Item {
+    /** The vehicle */
+    final VehicleSimView vehicle;
+    /** The bounding box of the vehicle when it was last updated */
+    Rectangle2D bounds;
+    /** The first column of the buckets the vehicle is in */
+    int minCol;
+    /** The last column of the buckets the vehicle is in */
+    int maxCol;
+    /** The first row of the buckets the vehicle is in */
+    int minRow;
+    /** The last row of the buckets the vehicle is in */
+    int maxRow;
+    /** The stamp of the last query that visited the item */
+    int stamp;
+
+    /**
+     * Create an item.
+     *
+     * @param vehicle  the vehicle
+     */
+    Item(VehicleSimView vehicle) {
+      this.vehicle = vehicle;
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE FIELDS
+  /////////////////////////////////
+
+  /** The area covered by the grid */
+  private Rectangle2D dimensions;
+  /** The size of the buckets */
+  private double cellSize;
+  /** The number of columns */
+  private int numOfCols;
+  /** The number of rows */
+  private int numOfRows;
+  /** The buckets, row by row */
+  private List<List<Item>> buckets;
+  /** A mapping from vehicles to their items */
+  private Map<VehicleSimView,Item> vehicleToItem;
+  /** The stamp of the current query */
+  private int currentStamp;
+
+  /////////////////////////////////
+  // CLASS CONSTRUCTORS
+  /////////////////////////////////
+
+  /**
+   * Create an empty spatial index.
+   *
+   * @param dimensions  the area covered by the grid
+   * @param cellSize    the size of the buckets
+   */
+  public VehicleSpatialIndex(Rectangle2D dimensions, double cellSize) {
+    this.dimensions = dimensions;
+    this.cellSize = cellSize;
+    numOfCols = Math.max(1, (int)Math.ceil(dimensions.getWidth() / cellSize));
+    numOfRows = Math.max(1, (int)Math.ceil(dimensions.getHeight() / cellSize));
+    buckets = new ArrayList<List<Item>>(numOfCols * numOfRows);
+    for(int i = 0; i < numOfCols * numOfRows; i++) {
+      buckets.add(new ArrayList<Item>(4));
+    }
+    vehicleToItem = new HashMap<VehicleSimView,Item>();
+    currentStamp = 0;
+  }
+
+  /////////////////////////////////
+  // PUBLIC METHODS
+  /////////////////////////////////
+
+  // update
+
+  /**
+   * Update the bounding box of a vehicle.  This should be called whenever a
+   * vehicle is added to the simulation or has moved.
+   *
+   * @param vehicle  the vehicle
+   */
+  public void updateVehicle(VehicleSimView vehicle) {
+    Item item = vehicleToItem.get(vehicle);
+    Rectangle2D bounds = vehicle.getShape().getBounds2D();
+    int minCol = col(bounds.getMinX());
+    int maxCol = col(bounds.getMaxX());
+    int minRow = row(bounds.getMinY());
+    int maxRow = row(bounds.getMaxY());
+    if (item == null) {
+      item = new Item(vehicle);
+      vehicleToItem.put(vehicle, item);
+    } else if (item.minCol == minCol && item.maxCol == maxCol
+               && item.minRow == minRow && item.maxRow == maxRow) {
+      item.bounds = bounds;
+      return;
+    } else {
+      removeFromBuckets(item);
+    }
+    item.bounds = bounds;
+    item.minCol = minCol;
+    item.maxCol = maxCol;
+    item.minRow = minRow;
+    item.maxRow = maxRow;
+    for(int r = minRow; r <= maxRow; r++) {
+      for(int c = minCol; c <= maxCol; c++) {
+        buckets.get(r * numOfCols + c).add(item);
+      }
+    }
+  }
+
+  /**
+   * Remove a vehicle from the index.
+   *
+   * @param vehicle  the vehicle
+   */
+  public void removeVehicle(VehicleSimView vehicle) {
+    Item item = vehicleToItem.remove(vehicle);
+    if (item != null) {
+      removeFromBuckets(item);
+    }
+  }
+
+  /**
+   * Update all vehicles and drop the vehicles that are not in a given
+   * collection.
+   *
+   * @param vehicles  all active vehicles
+   */
+  public void updateAll(Collection<VehicleSimView> vehicles) {
+    for(List<Item> bucket : buckets) {
+      bucket.clear();
+    }
+    vehicleToItem.clear();
+    for(VehicleSimView vehicle : vehicles) {
+      updateVehicle(vehicle);
+    }
+  }
+
+  // queries
+
+  /**
+   * Get the number of indexed vehicles.
+   *
+   * @return the number of indexed vehicles
+   */
+  public int size() {
+    return vehicleToItem.size();
+  }
+
+  /**
+   * Whether the shape of any vehicle intersects a given area.
+   *
+   * @param area  the area
+   * @return whether the shape of any vehicle intersects the area
+   */
+  public boolean intersectsAnyVehicle(Rectangle2D area) {
+    for(int r = row(area.getMinY()); r <= row(area.getMaxY()); r++) {
+      for(int c = col(area.getMinX()); c <= col(area.getMaxX()); c++) {
+        for(Item item : buckets.get(r * numOfCols + c)) {
+          if (item.bounds.intersects(area)
+              && item.vehicle.getShape().intersects(area)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the vehicles whose shapes do not intersect the area covered by the
+   * grid, i.e., the vehicles that have left the map.  Only the vehicles in
+   * the buckets on the border of the grid whose bounding boxes are not
+   * inside the area need the exact test.
+   *
+   * @param result  the list to which the vehicles are added
+   */
+  public void getVehiclesOutside(List<VehicleSimView> result) {
+    currentStamp++;
+    for(int r = 0; r < numOfRows; r++) {
+      int step = (r == 0 || r == numOfRows - 1) ? 1 : numOfCols - 1;
+      for(int c = 0; c < numOfCols; c += Math.max(step, 1)) {
+        for(Item item : buckets.get(r * numOfCols + c)) {
+          if (item.stamp != currentStamp) {
+            item.stamp = currentStamp;
+            if (!dimensions.contains(item.bounds)
+                && !item.vehicle.getShape().intersects(dimensions)) {
+              result.add(item.vehicle);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Remove an item from all the buckets it is in.
+   *
+   * @param item  the item
+   */
+  private void removeFromBuckets(Item item) {
+    for(int r = item.minRow; r <= item.maxRow; r++) {
+      for(int c = item.minCol; c <= item.maxCol; c++) {
+        buckets.get(r * numOfCols + c).remove(item);
+      }
+    }
+  }
+
+  /**
+   * Get the column of the buckets containing an x-coordinate.
+   *
+   * @param x  the x-coordinate
+   * @return the column, clamped to the grid
+   */
+  private int col(double x) {
+    int c = (int)Math.floor((x - dimensions.getMinX()) / cellSize);
+    return Math.min(Math.max(c, 0), numOfCols - 1);
+  }
+
+  /**
+   * Get the row of the buckets containing a y-coordinate.
+   *
+   * @param y  the y-coordinate
+   * @return the row, clamped to the grid
+   */
+  private int row(double y) {
+    int r = (int)Math.floor((y - dimensions.getMinY()) / cellSize);
+    return Math.min(Math.max(r, 0), numOfRows - 1);
+  }
+}
@@ -133,6 +133,7 @@ public class Approx2PhasesSimpleTrafficSignalSimSetup extends BasicSimSetup
     ReservationGridManager.Config gridConfig =
       new ReservationGridManager.Config(SimConfig.TIME_STEP,
                                         SimConfig.GRID_TIME_STEP,
+                                        SimConfig.INTERNAL_SIMULATION_TIME_STEP,
                                         0.1,
                                         0.15,
                                         0.15,
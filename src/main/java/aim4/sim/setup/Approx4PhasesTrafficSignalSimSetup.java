@@ -131,6 +131,7 @@ public class Approx4PhasesTrafficSignalSimSetup extends BasicSimSetup
     ReservationGridManager.Config gridConfig =
       new ReservationGridManager.Config(SimConfig.TIME_STEP,
                                         SimConfig.GRID_TIME_STEP,
+                                        SimConfig.INTERNAL_SIMULATION_TIME_STEP,
                                         0.1,
                                         0.15,
                                         0.15,
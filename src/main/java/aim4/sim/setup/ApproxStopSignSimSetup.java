@@ -121,6 +121,7 @@ public class ApproxStopSignSimSetup extends BasicSimSetup
     ReservationGridManager.Config gridConfig =
       new ReservationGridManager.Config(SimConfig.TIME_STEP,
                                         SimConfig.GRID_TIME_STEP,
+                                        SimConfig.INTERNAL_SIMULATION_TIME_STEP,
                                         0.0,
                                         0.0,
                                         0.0,
@@ -36,6 +36,7 @@ import aim4.driver.pilot.V2IPilot;
 import aim4.im.v2i.batch.RoadBasedReordering;
 import aim4.im.v2i.batch.WalletBasedReordering;
 import aim4.im.v2i.reservation.ReservationGridManager;
+import aim4.im.v2i.reservation.ReservationGridManager.ReservationMode;
 import aim4.map.GridMap;
 import aim4.map.GridMapUtil;
 import aim4.sim.AutoDriverOnlySimulator;
@@ -101,10 +102,18 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
   private boolean isEdgeTileTimeBufferEnabled = true;
   /** The granularity of the reservation grid */
   private double granularity = 1.0;
+  /** What the intersection managers reserve for a vehicle */
+  private ReservationMode reservationMode = ReservationMode.TIME_TILES;
   /** The processing interval for the batch mode */
   private double processingInterval = RoadBasedReordering.DEFAULT_PROCESSING_INTERVAL;
   /** The name of the file about the traffic volume */
   private String trafficVolumeFileName = null;
+  /** Whether the simulator is linked to the SimCreator simulators */
+  private boolean isSimCreatorLinked = true;
+  /** The number of threads on which the drivers act */
+  private int numOfDriverThreads = 1;
+  /** The number of threads on which the intersection managers act */
+  private int numOfIntersectionManagerThreads = 1;
 
   /////////////////////////////////
   // CONSTRUCTORS
@@ -169,6 +178,43 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     isBatchMode = b;
   }
 
+  /**
+   * Set the request handler mode of the intersection managers.
+   *
+   * @param modeType  the mode type
+   */
+  public void setModeType(ModeType modeType) {
+    this.modeType = modeType;
+  }
+
+  /**
+   * Turn on or off the UDP link to the SimCreator simulators.
+   *
+   * @param b  Whether the simulator is linked to the SimCreator simulators
+   */
+  public void setIsSimCreatorLinked(boolean b) {
+    isSimCreatorLinked = b;
+  }
+
+  /**
+   * Set the number of threads on which the drivers act.
+   *
+   * @param numOfDriverThreads  the number of threads
+   */
+  public void setNumOfDriverThreads(int numOfDriverThreads) {
+    this.numOfDriverThreads = numOfDriverThreads;
+  }
+
+  /**
+   * Set the number of threads on which the intersection managers act.
+   *
+   * @param numOfIntersectionManagerThreads  the number of threads
+   */
+  public void setNumOfIntersectionManagerThreads(
+                int numOfIntersectionManagerThreads) {
+    this.numOfIntersectionManagerThreads = numOfIntersectionManagerThreads;
+  }
+
   /**
    * Set the processing interval in the batch mode
    *
@@ -251,6 +297,15 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     this.granularity = granularity;
   }
 
+  /**
+   * Set what the intersection managers reserve for a vehicle.
+   *
+   * @param reservationMode  the reservation mode
+   */
+  public void setReservationMode(ReservationMode reservationMode) {
+    this.reservationMode = reservationMode;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -269,11 +324,13 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
     ReservationGridManager.Config gridConfig =
       new ReservationGridManager.Config(SimConfig.TIME_STEP,
                                         SimConfig.GRID_TIME_STEP,
+                                        SimConfig.INTERNAL_SIMULATION_TIME_STEP,
                                         staticBufferSize,
                                         internalTileTimeBufferSize,
                                         edgeTileTimeBufferSize,
                                         isEdgeTileTimeBufferEnabled,
-                                        granularity);  // granularity
+                                        granularity,  // granularity
+                                        reservationMode);
 
 /* for demo */
 /*
@@ -368,7 +425,11 @@ public class AutoDriverOnlySimSetup extends BasicSimSetup implements SimSetup {
 
     V2IPilot.DEFAULT_STOP_DISTANCE_BEFORE_INTERSECTION =
       stopDistBeforeIntersection;
-    return new AutoDriverOnlySimulator(layout);
+    AutoDriverOnlySimulator sim =
+      new AutoDriverOnlySimulator(layout, isSimCreatorLinked);
+    sim.setNumOfDriverThreads(numOfDriverThreads);
+    sim.setNumOfIntersectionManagerThreads(numOfIntersectionManagerThreads);
+    return sim;
   }
 	  private void setTrafficMode(GridMap layout){
 		  switch(trafficType) {
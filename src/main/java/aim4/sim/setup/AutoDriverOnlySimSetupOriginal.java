@@ -243,6 +243,7 @@ public class AutoDriverOnlySimSetupOriginal extends BasicSimSetup implements Sim
     ReservationGridManager.Config gridConfig =
       new ReservationGridManager.Config(SimConfig.TIME_STEP,
                                         SimConfig.GRID_TIME_STEP,
+                                        SimConfig.INTERNAL_SIMULATION_TIME_STEP,
                                         staticBufferSize,
                                         internalTileTimeBufferSize,
                                         edgeTileTimeBufferSize,
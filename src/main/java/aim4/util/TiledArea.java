@@ -33,9 +33,11 @@ package aim4.util;
 import java.awt.Shape;
 import java.awt.geom.Area;
 import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -138,6 +140,16 @@ public class TiledArea {
 	}
   }
 
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /**
+   * The margin, in meters, by which the spans of the rasterized polygons are
+   * widened to absorb rounding errors.
+   */
+  private static final double RASTER_MARGIN = 1e-6;
+
   /////////////////////////////////
   // PRIVATE FIELDS
   /////////////////////////////////
@@ -434,22 +446,349 @@ public class TiledArea {
 	               (int)((boundingBox.getMaxY() - rectangle.getMinY()) /
 	                     yLength));
 	    
+	    if (rectangualarTiles) {
+	      // Square tiles lie where their indices say, so the bounding box
+	      // limits are exact up to rounding
+	      firstColumn = Math.max(0, firstColumn - 1);
+	      lastColumn = Math.min(xNum - 1, lastColumn + 1);
+	      firstRow = Math.max(0, firstRow - 1);
+	      lastRow = Math.min(yNum - 1, lastRow + 1);
+	    } else {
+	      lastColumn = xNum - 1;
+	      lastRow = yNum - 1;
+	    }
+
+	    // The vertices of the shape, if it is a convex polygon
+	    double[] vertices = toConvexPolygon(shape);
+
 	    // Now go through all the potential tiles and find the ones that this
 	    // shape intersects
-	    lastColumn = xNum - 1;
-	    lastRow = yNum - 1;
 	    for(int c = firstColumn; c <= lastColumn; c++) {
 	      for(int r = firstRow; r <= lastRow; r++) {
 	        // If the tile exists, and it does intersect, add it to the list of
 	        // tiles that are occupied
-	        if(tiles[c][r] != null &&
-	           testIntersection(shape,tiles[c][r].getShape())) {
-	          occupiedTiles.add(tiles[c][r]);
+	        Tile tile = tiles[c][r];
+	        if(tile != null && intersects(shape, vertices, tile)) {
+	          occupiedTiles.add(tile);
 	        }
 	      }
     }
     return occupiedTiles;
   }
+
+  /**
+   * Find the IDs of the square tiles occupied by a convex polygon, such as
+   * the corner points of a vehicle.  The polygon is rasterized one column of
+   * tiles at a time: the span of rows it covers in each column is found
+   * from its edges, the tiles inside the span are taken as they are, and
+   * only the tiles on the border of the span are tested exactly.  The cost
+   * is therefore proportional to the number of tiles covered.  The tiles
+   * are the same, and in the same order, as those found by
+   * {@link #findOccupiedTiles(Shape)}.
+   *
+   * @param corners  the vertices of the convex polygon, in order
+   * @param tileIds  the buffer into which the tile IDs are written; it must
+   *                 be able to hold {@link #getNumberOfTiles()} IDs
+   * @return the number of tile IDs written into the buffer
+   */
+  public int findOccupiedTileIds(Point2D[] corners, int[] tileIds) {
+    double[] vertices = new double[corners.length * 2];
+    for(int i = 0; i < corners.length; i++) {
+      vertices[2 * i] = corners[i].getX();
+      vertices[2 * i + 1] = corners[i].getY();
+    }
+    if (!rectangualarTiles || !isConvex(vertices)) {
+      int n = 0;
+      for(Tile tile : findOccupiedTiles(GeomUtil.convertPointsToShape(corners))) {
+        tileIds[n++] = tile.getId();
+      }
+      return n;
+    }
+    // The extent of the polygon
+    double pMinX = Double.POSITIVE_INFINITY;
+    double pMaxX = Double.NEGATIVE_INFINITY;
+    for(int i = 0; i < vertices.length; i += 2) {
+      pMinX = Math.min(pMinX, vertices[i]);
+      pMaxX = Math.max(pMaxX, vertices[i]);
+    }
+    int firstColumn = calcColumn(pMinX - RASTER_MARGIN);
+    int lastColumn = calcColumn(pMaxX + RASTER_MARGIN);
+
+    int n = 0;
+    for(int c = firstColumn; c <= lastColumn; c++) {
+      // The extent of the polygon within the column
+      double x0 = rectangle.getMinX() + c * xLength;
+      double x1 = x0 + xLength;
+      double minY = Double.POSITIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i < vertices.length; i += 2) {
+        int j = (i + 2) % vertices.length;
+        double ax = vertices[i];
+        double ay = vertices[i + 1];
+        double bx = vertices[j];
+        double by = vertices[j + 1];
+        if (x0 <= ax && ax <= x1) {
+          minY = Math.min(minY, ay);
+          maxY = Math.max(maxY, ay);
+        }
+        // Where the edge crosses the sides of the column
+        double lo = Math.min(ax, bx);
+        double hi = Math.max(ax, bx);
+        if (lo < x0 && x0 < hi) {
+          double y = ay + (by - ay) * (x0 - ax) / (bx - ax);
+          minY = Math.min(minY, y);
+          maxY = Math.max(maxY, y);
+        }
+        if (lo < x1 && x1 < hi) {
+          double y = ay + (by - ay) * (x1 - ax) / (bx - ax);
+          minY = Math.min(minY, y);
+          maxY = Math.max(maxY, y);
+        }
+      }
+      if (minY > maxY) {
+        continue;  // the polygon does not reach this column
+      }
+      int firstRow = calcRow(minY - RASTER_MARGIN);
+      int lastRow = calcRow(maxY + RASTER_MARGIN);
+      for(int r = firstRow; r <= lastRow; r++) {
+        Tile tile = tiles[c][r];
+        if (tile == null) {
+          continue;
+        }
+        if (c == firstColumn || c == lastColumn ||
+            r == firstRow || r == lastRow) {
+          // A tile on the border of the span may only be touched
+          Rectangle2D rect = ((SquareTile)tile).getRectangle();
+          if (!intersectsRectangle(vertices, rect.getMinX(), rect.getMinY(),
+                                   rect.getMaxX(), rect.getMaxY())) {
+            continue;
+          }
+        }
+        tileIds[n++] = tile.getId();
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Get the column of the tiles containing an x-coordinate.
+   *
+   * @param x  the x-coordinate
+   * @return the column, clamped to the grid
+   */
+  private int calcColumn(double x) {
+    int c = (int)Math.floor((x - rectangle.getMinX()) / xLength);
+    return Math.max(0, Math.min(xNum - 1, c));
+  }
+
+  /**
+   * Get the row of the tiles containing a y-coordinate.
+   *
+   * @param y  the y-coordinate
+   * @return the row, clamped to the grid
+   */
+  private int calcRow(double y) {
+    int r = (int)Math.floor((y - rectangle.getMinY()) / yLength);
+    return Math.max(0, Math.min(yNum - 1, r));
+  }
+
+  /**
+   * Whether a shape intersects the interior of a tile.  Two convex polygons
+   * are tested with the separating axis theorem; anything else falls back on
+   * {@link #testIntersection(Shape, Shape)}.  Shapes that merely touch do not
+   * intersect, as with the test on areas.
+   *
+   * @param shape     the shape
+   * @param vertices  the vertices of the shape, if it is a convex polygon;
+   *                  null otherwise
+   * @param tile      the tile
+   * @return whether the shape intersects the tile
+   */
+  private boolean intersects(Shape shape, double[] vertices, Tile tile) {
+    if (vertices != null) {
+      if (tile instanceof SquareTile) {
+        Rectangle2D rect = ((SquareTile)tile).getRectangle();
+        return intersectsRectangle(vertices, rect.getMinX(), rect.getMinY(),
+                                   rect.getMaxX(), rect.getMaxY());
+      } else if (tile instanceof PolyTile &&
+                 ((PolyTile)tile).getVertices() != null) {
+        double[] tileVertices = ((PolyTile)tile).getVertices();
+        return !hasSeparatingAxis(vertices, tileVertices) &&
+               !hasSeparatingAxis(tileVertices, vertices);
+      }
+    }
+    return testIntersection(shape, tile.getShape());
+  }
+
+  /**
+   * Whether a convex polygon intersects the interior of an axis-aligned
+   * rectangle.
+   *
+   * @param vertices  the vertices of the polygon, as x,y pairs
+   * @param minX      the minimum x-coordinate of the rectangle
+   * @param minY      the minimum y-coordinate of the rectangle
+   * @param maxX      the maximum x-coordinate of the rectangle
+   * @param maxY      the maximum y-coordinate of the rectangle
+   * @return whether the polygon intersects the rectangle
+   */
+  private static boolean intersectsRectangle(double[] vertices,
+                                             double minX, double minY,
+                                             double maxX, double maxY) {
+    // The axes of the rectangle
+    double pMinX = Double.POSITIVE_INFINITY;
+    double pMaxX = Double.NEGATIVE_INFINITY;
+    double pMinY = Double.POSITIVE_INFINITY;
+    double pMaxY = Double.NEGATIVE_INFINITY;
+    for(int i = 0; i < vertices.length; i += 2) {
+      pMinX = Math.min(pMinX, vertices[i]);
+      pMaxX = Math.max(pMaxX, vertices[i]);
+      pMinY = Math.min(pMinY, vertices[i + 1]);
+      pMaxY = Math.max(pMaxY, vertices[i + 1]);
+    }
+    if (pMaxX <= minX || maxX <= pMinX || pMaxY <= minY || maxY <= pMinY) {
+      return false;
+    }
+    // The axes of the polygon
+    int n = vertices.length;
+    for(int i = 0; i < n; i += 2) {
+      int j = (i + 2) % n;
+      double ax = vertices[i + 1] - vertices[j + 1];
+      double ay = vertices[j] - vertices[i];
+      if (ax == 0.0 && ay == 0.0) {
+        continue;  // a degenerate edge
+      }
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for(int k = 0; k < n; k += 2) {
+        double p = ax * vertices[k] + ay * vertices[k + 1];
+        min = Math.min(min, p);
+        max = Math.max(max, p);
+      }
+      double r1 = ax * minX + ay * minY;
+      double r2 = ax * maxX + ay * minY;
+      double r3 = ax * maxX + ay * maxY;
+      double r4 = ax * minX + ay * maxY;
+      double rMin = Math.min(Math.min(r1, r2), Math.min(r3, r4));
+      double rMax = Math.max(Math.max(r1, r2), Math.max(r3, r4));
+      if (max <= rMin || rMax <= min) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether one of the edge normals of a convex polygon separates it from
+   * another convex polygon.
+   *
+   * @param a  the vertices of the polygon whose edges are tested, as x,y
+   *           pairs
+   * @param b  the vertices of the other polygon, as x,y pairs
+   * @return whether an edge normal of the first polygon separates the two
+   */
+  private static boolean hasSeparatingAxis(double[] a, double[] b) {
+    int n = a.length;
+    for(int i = 0; i < n; i += 2) {
+      int j = (i + 2) % n;
+      double ax = a[i + 1] - a[j + 1];
+      double ay = a[j] - a[i];
+      if (ax == 0.0 && ay == 0.0) {
+        continue;  // a degenerate edge
+      }
+      double aMin = Double.POSITIVE_INFINITY;
+      double aMax = Double.NEGATIVE_INFINITY;
+      for(int k = 0; k < n; k += 2) {
+        double p = ax * a[k] + ay * a[k + 1];
+        aMin = Math.min(aMin, p);
+        aMax = Math.max(aMax, p);
+      }
+      double bMin = Double.POSITIVE_INFINITY;
+      double bMax = Double.NEGATIVE_INFINITY;
+      for(int k = 0; k < b.length; k += 2) {
+        double p = ax * b[k] + ay * b[k + 1];
+        bMin = Math.min(bMin, p);
+        bMax = Math.max(bMax, p);
+      }
+      if (aMax <= bMin || bMax <= aMin) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the vertices of a shape if it is a single closed convex polygon.
+   *
+   * @param shape  the shape
+   * @return the vertices of the polygon, as x,y pairs; null if the shape is
+   *         not a convex polygon
+   */
+  private static double[] toConvexPolygon(Shape shape) {
+    double[] vertices = new double[16];
+    int n = 0;
+    double[] coords = new double[6];
+    boolean isStarted = false;
+    for(PathIterator iter = shape.getPathIterator(null); !iter.isDone();
+        iter.next()) {
+      int type = iter.currentSegment(coords);
+      if (type == PathIterator.SEG_MOVETO) {
+        if (isStarted) {
+          return null;  // more than one polygon
+        }
+        isStarted = true;
+      }
+      switch(type) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        if (n == vertices.length) {
+          vertices = Arrays.copyOf(vertices, n * 2);
+        }
+        vertices[n++] = coords[0];
+        vertices[n++] = coords[1];
+        break;
+      case PathIterator.SEG_CLOSE:
+        break;
+      default:
+        return null;  // a curve
+      }
+    }
+    if (n < 6) {
+      return null;
+    }
+    vertices = Arrays.copyOf(vertices, n);
+    return isConvex(vertices) ? vertices : null;
+  }
+
+  /**
+   * Whether a polygon is convex.
+   *
+   * @param vertices  the vertices of the polygon, as x,y pairs
+   * @return whether the polygon is convex
+   */
+  private static boolean isConvex(double[] vertices) {
+    int n = vertices.length;
+    int sign = 0;
+    for(int i = 0; i < n; i += 2) {
+      int j = (i + 2) % n;
+      int k = (i + 4) % n;
+      double cross = (vertices[j] - vertices[i]) *
+                     (vertices[k + 1] - vertices[j + 1]) -
+                     (vertices[j + 1] - vertices[i + 1]) *
+                     (vertices[k] - vertices[j]);
+      if (cross > 0.0) {
+        if (sign < 0) {
+          return false;
+        }
+        sign = 1;
+      } else if (cross < 0.0) {
+        if (sign > 0) {
+          return false;
+        }
+        sign = -1;
+      }
+    }
+    return true;
+  }
   /**
    * tests the intersection of two shapes, returns true if they intersect.
    * 
@@ -478,6 +817,8 @@ public class TiledArea {
       private final int id;
       /** whether or not a tile is on the edge */
       private boolean edgeTile = false;
+      /** the vertices of the polygon if it is convex; null otherwise */
+      private final double[] vertices;
 	  
 	  /**
 	     * Create a tile.
@@ -492,6 +833,7 @@ public class TiledArea {
   			this.x = x;
   			this.y = y;
   			this.id = id;
+  			this.vertices = toConvexPolygon(polygon);
   		}
   		/** Get the area controlled by this ReservationTile. 
   		 * @return polygon as a Path2D object
@@ -500,6 +842,13 @@ public class TiledArea {
   	      return polygon;
   	    }
 
+  	    /** Get the vertices of the polygon of this tile
+  	     * @return the vertices as x,y pairs; null if the polygon is not convex
+  	     */
+  	    double[] getVertices() {
+  	      return vertices;
+  	    }
+
   	    /** Get the x-coordinate of this tile 
   	     * @return tile x coordinate
   	     */
@@ -32,9 +32,10 @@ package aim4.vehicle;
 
 import java.awt.geom.Area;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import aim4.config.SimConfig;
 import aim4.driver.CrashTestDummy;
@@ -96,10 +97,12 @@ public class VehicleUtil {
 
   /**
    * Memoization caches for max turn velocities for various vehicle
-   * specification.
+   * specification.  They are concurrent maps since drivers may act in
+   * parallel.
    */
-  private static Map<String,Map<List<Integer>, Double>>
-    memoMaxTurnVelocity = new HashMap<String,Map<List<Integer>,Double>>();
+  private static ConcurrentMap<String,Map<List<Integer>, Double>>
+    memoMaxTurnVelocity =
+      new ConcurrentHashMap<String,Map<List<Integer>,Double>>();
 
 
   /////////////////////////////////
@@ -129,28 +132,31 @@ public class VehicleUtil {
                                        IntersectionManager im) {
 
     // check to see if the spec has been seem before.
-    if (!memoMaxTurnVelocity.containsKey(spec.getName())) {
+    Map<List<Integer>, Double> mmtvs = memoMaxTurnVelocity.get(spec.getName());
+    if (mmtvs == null) {
       // if not, create a map for it
-      memoMaxTurnVelocity.put(spec.getName(),
-                              new HashMap<List<Integer>,Double>());
+      memoMaxTurnVelocity.putIfAbsent(
+        spec.getName(), new ConcurrentHashMap<List<Integer>,Double>());
+      mmtvs = memoMaxTurnVelocity.get(spec.getName());
     }
 
     // check to see if the max turn velocity has been stored in the cache
-    Map<List<Integer>, Double> mmtvs = memoMaxTurnVelocity.get(spec.getName());
     List<Integer> key = Arrays.asList(arrivalLane.getId(),
                                       departureLane.getId(),
                                       im.getId());
-    if (!mmtvs.containsKey(key)) {
-      // if not, calculate it and store it in the cache
-      double mtv = calculateMaxTurnVelocity(spec,
-                                            arrivalLane,
-                                            departureLane,
-                                            im);
+    Double mtv = mmtvs.get(key);
+    if (mtv == null) {
+      // if not, calculate it and store it in the cache; racing threads
+      // compute the same value.
+      mtv = calculateMaxTurnVelocity(spec,
+                                     arrivalLane,
+                                     departureLane,
+                                     im);
       mmtvs.put(key, mtv);
     }
 
     // FIXME try to see why we need this hack
-    return Math.max(mmtvs.get(key), MIN_MAX_TURN_VELOCITY);
+    return Math.max(mtv, MIN_MAX_TURN_VELOCITY);
   }
 
 
@@ -0,0 +1,243 @@
+/*
+Copyright (c) 2011 Tsz-Chiu Au, Peter Stone
+University of Texas at Austin
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice,
+this list of conditions and the following disclaimer in the documentation
+and/or other materials provided with the distribution.
+
+3. Neither the name of the University of Texas at Austin nor the names of its
+contributors may be used to endorse or promote products derived from this
+software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package aim4.im.v2i.reservation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests of the concurrent reservation grid.  The lock-free queries read
+ * the mirror of the time slices, which the reservations, the cancellations
+ * and the clean-ups update under the lock.
+ */
+public class ConcurrentReservationGridTest {
+
+  /////////////////////////////////
+  // CONSTANTS
+  /////////////////////////////////
+
+  /** The number of tiles in the x direction */
+  private static final int X_NUM = 8;
+  /** The number of tiles in the y direction */
+  private static final int Y_NUM = 8;
+  /** The grid time step */
+  private static final double GRID_TIME_STEP = 0.1;
+  /** The horizon, in seconds */
+  private static final double HORIZON = 3.0;
+  /** The number of threads that reserve and cancel */
+  private static final int NUM_OF_THREADS = 4;
+  /** The number of reservations each thread attempts */
+  private static final int NUM_OF_OPERATIONS = 20000;
+
+  /////////////////////////////////
+  // TESTS
+  /////////////////////////////////
+
+  /**
+   * A time-tile that has been reserved cannot be reserved again until the
+   * reservation is cancelled, and the lock-free queries see both changes.
+   */
+  @Test
+  public void testReserveAndCancel() {
+    ConcurrentReservationGrid grid =
+      new ConcurrentReservationGrid(X_NUM, Y_NUM, GRID_TIME_STEP, HORIZON);
+    List<ReservationArray.TimeTile> first = createWorkingList(5, 0, 0);
+    List<ReservationArray.TimeTile> second = createWorkingList(6, 1, 1);
+    assertTrue(grid.reserve(1, first));
+    assertTrue(grid.isReserved(5, 0));
+    assertFalse(grid.reserve(2, second));
+    assertTrue(grid.cancel(1));
+    assertFalse(grid.isReserved(5, 0));
+    assertTrue(grid.reserve(2, second));
+    assertEquals(2, grid.getReservationId(6, X_NUM + 1));
+    assertTrue(grid.checkConsistency());
+  }
+
+  /**
+   * The time slices are remapped when the grid is cleaned up, and the
+   * mirror follows them past the horizon.
+   */
+  @Test
+  public void testCleanUpRemapsSlices() {
+    ConcurrentReservationGrid grid =
+      new ConcurrentReservationGrid(X_NUM, Y_NUM, GRID_TIME_STEP, HORIZON);
+    int horizon = grid.getHorizon();
+    for(int dt = 0; dt < 3 * horizon; dt++) {
+      // the reservations of four consecutive times use different rows
+      int y = 2 * (dt % 4);
+      assertTrue(grid.reserve(dt, createWorkingList(dt + 1, 0, y)));
+      grid.cleanUp(dt);
+      assertTrue(grid.isReserved(dt + 1, X_NUM * y));
+      assertTrue(grid.checkConsistency());
+    }
+  }
+
+  /**
+   * Reserve, cancel and query the grid on several threads while another
+   * thread cleans it up.  The grid must stay consistent, and no two
+   * accepted reservations may share a time-tile.
+   *
+   * @throws InterruptedException if the test is interrupted
+   */
+  @Test
+  public void testConcurrentReservations() throws InterruptedException {
+    final ConcurrentReservationGrid grid =
+      new ConcurrentReservationGrid(X_NUM, Y_NUM, GRID_TIME_STEP, HORIZON);
+    final AtomicInteger currentTime = new AtomicInteger(0);
+    final AtomicBoolean isDone = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    // the time-tiles of the accepted reservations that are not cancelled
+    final Map<Integer,List<ReservationArray.TimeTile>> accepted =
+      new ConcurrentHashMap<Integer,List<ReservationArray.TimeTile>>();
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for(int i = 0; i < NUM_OF_THREADS; i++) {
+      final int threadId = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random(threadId);
+            List<Integer> rids = new ArrayList<Integer>();
+            for(int j = 0; j < NUM_OF_OPERATIONS; j++) {
+              int rid = threadId * NUM_OF_OPERATIONS + j;
+              List<ReservationArray.TimeTile> workingList =
+                createWorkingList(currentTime.get() + random.nextInt(20),
+                                  random.nextInt(X_NUM - 2),
+                                  random.nextInt(Y_NUM - 1));
+              if (grid.reserve(rid, workingList)) {
+                accepted.put(rid, workingList);
+                rids.add(rid);
+              }
+              if (!rids.isEmpty() && random.nextInt(3) == 0) {
+                int cancelled = rids.remove(random.nextInt(rids.size()));
+                accepted.remove(cancelled);
+                grid.cancel(cancelled);
+              }
+              for(int k = 0; k < 10; k++) {
+                grid.isReserved(currentTime.get() + random.nextInt(40),
+                                random.nextInt(X_NUM * Y_NUM));
+              }
+            }
+          } catch(Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    Thread cleaner = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while(!isDone.get()) {
+            grid.cleanUp(currentTime.incrementAndGet());
+            synchronized(grid) {
+              grid.checkConsistency();
+            }
+            Thread.yield();
+          }
+        } catch(Throwable e) {
+          error.compareAndSet(null, e);
+        }
+      }
+    };
+    for(Thread thread : threads) {
+      thread.start();
+    }
+    cleaner.start();
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    isDone.set(true);
+    cleaner.join();
+
+    assertNull(String.valueOf(error.get()), error.get());
+    assertTrue(grid.checkConsistency());
+    // the accepted reservations do not overlap, and the grid still holds
+    // the time-tiles of each of them that have not been cleaned up
+    Map<Long,Integer> owners = new HashMap<Long,Integer>();
+    for(Map.Entry<Integer,List<ReservationArray.TimeTile>> e :
+          accepted.entrySet()) {
+      for(ReservationArray.TimeTile tt : e.getValue()) {
+        if (tt.getDiscreteTime() <= currentTime.get()) {
+          continue;
+        }
+        long key = ((long)tt.getDiscreteTime() << 32) | tt.getTileId();
+        Integer owner = owners.put(key, e.getKey());
+        assertNull("time-tile " + key + " reserved twice", owner);
+        assertEquals(e.getKey().intValue(),
+                     grid.getReservationId(tt.getDiscreteTime(),
+                                           tt.getTileId()));
+      }
+    }
+  }
+
+  /////////////////////////////////
+  // PRIVATE METHODS
+  /////////////////////////////////
+
+  /**
+   * Create the working list of a vehicle that occupies three tiles in a
+   * row for four time steps, moving between two rows.
+   *
+   * @param dt  the discrete time of the first time-tile
+   * @param x   the x-coordinate of the leftmost tile
+   * @param y   the y-coordinate of the first row
+   * @return the working list
+   */
+  private static List<ReservationArray.TimeTile> createWorkingList(int dt,
+                                                                   int x,
+                                                                   int y) {
+    List<ReservationArray.TimeTile> workingList =
+      new ArrayList<ReservationArray.TimeTile>();
+    for(int t = 0; t < 4; t++) {
+      for(int k = 0; k < 3; k++) {
+        workingList.add(
+          new ReservationArray.TimeTile(dt + t, (x + k) + X_NUM * (y + t % 2)));
+      }
+    }
+    return workingList;
+  }
+}